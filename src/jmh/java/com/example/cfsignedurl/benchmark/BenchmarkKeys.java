@@ -0,0 +1,44 @@
+package com.example.cfsignedurl.benchmark;
+
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Locally generated RSA test key, so the benchmarks never touch a real CloudFront signing key
+ */
+final class BenchmarkKeys {
+
+    static final String KEY_PAIR_ID = "K2JCJMDEHXQW5F";
+    static final String DISTRIBUTION_DOMAIN = "abcd.cloudfront.net";
+
+    private BenchmarkKeys() {
+    }
+
+    static KeyPair generateKeyPair() {
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            return keyPairGenerator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * PEM encoded PKCS#1 private key(.pem) file content, the format kept in AWS Parameter Store
+     */
+    static String toPkcs1Pem(KeyPair keyPair) {
+        StringWriter pem = new StringWriter();
+        try (JcaPEMWriter pemWriter = new JcaPEMWriter(pem)) {
+            pemWriter.writeObject(keyPair.getPrivate());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return pem.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.cfsignedurl.benchmark;
+
+import com.amazonaws.auth.PEM;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.awssdk.services.cloudfront.internal.auth.Pem;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning the PEM encoded PKCS#1 private key content into a PrivateKey with each
+ * key loading approach in the repository
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeyLoadBenchmark {
+
+    @Param({"sdk-v1-pem", "sdk-v2-pem", "bouncycastle-pem-parser"})
+    private String loader;
+
+    private String cloudfrontDistributionPrivateSignKey;
+
+    @Setup
+    public void setUp() {
+        cloudfrontDistributionPrivateSignKey = BenchmarkKeys.toPkcs1Pem(BenchmarkKeys.generateKeyPair());
+    }
+
+    @Benchmark
+    public PrivateKey loadPrivateKey() throws Exception {
+        return switch (loader) {
+            case "sdk-v1-pem" -> PEM.readPrivateKey(new ByteArrayInputStream(cloudfrontDistributionPrivateSignKey.getBytes(StandardCharsets.UTF_8)));
+            case "sdk-v2-pem" -> Pem.readPrivateKey(new ByteArrayInputStream(cloudfrontDistributionPrivateSignKey.getBytes(StandardCharsets.UTF_8)));
+            case "bouncycastle-pem-parser" -> {
+                try (PEMParser pemParser = new PEMParser(new StringReader(cloudfrontDistributionPrivateSignKey))) {
+                    yield new JcaPEMKeyConverter().getKeyPair((PEMKeyPair) pemParser.readObject()).getPrivate();
+                }
+            }
+            default -> throw new IllegalArgumentException(loader);
+        };
+    }
+}
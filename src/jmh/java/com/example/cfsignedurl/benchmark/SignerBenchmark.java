@@ -0,0 +1,110 @@
+package com.example.cfsignedurl.benchmark;
+
+import com.amazonaws.services.cloudfront.CloudFrontUrlSigner;
+import com.amazonaws.services.cloudfront.util.SignerUtils;
+import com.amazonaws.util.DateUtils;
+import com.example.cfsignedurl.service.CloudFrontCannedPolicySigner;
+import org.jets3t.service.CloudFrontService;
+import org.jets3t.service.CloudFrontServiceException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import software.amazon.awssdk.services.cloudfront.CloudFrontUtilities;
+import software.amazon.awssdk.services.cloudfront.model.CannedSignerRequest;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static com.amazonaws.services.cloudfront.util.SignerUtils.generateResourcePath;
+
+/**
+ * Canned policy URL signing throughput and latency of every signing backend in the repository,
+ * each one called the way the service classes call it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SignerBenchmark {
+
+    private static final String S3_FILE_PATH = "testfolder/sample-file-benchmark.csv";
+
+    private static final long RETENTION_DAYS = 7;
+
+    @Param({"sdk-v1", "sdk-v2", "jets3t", "pooled"})
+    private String signer;
+
+    private PrivateKey privateKey;
+
+    private byte[] derPrivateKey;
+
+    private CloudFrontCannedPolicySigner cannedPolicySigner;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = BenchmarkKeys.generateKeyPair();
+        privateKey = keyPair.getPrivate();
+        derPrivateKey = privateKey.getEncoded();
+        cannedPolicySigner = new CloudFrontCannedPolicySigner(privateKey, BenchmarkKeys.KEY_PAIR_ID, BenchmarkKeys.DISTRIBUTION_DOMAIN);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String signSingleThread() throws Exception {
+        return sign();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String signAllThreads() throws Exception {
+        return sign();
+    }
+
+    private String sign() throws Exception {
+        return switch (signer) {
+            case "sdk-v1" -> signWithSdkVersionOne();
+            case "sdk-v2" -> signWithSdkVersionTwo();
+            case "jets3t" -> signWithJetS3t();
+            case "pooled" -> cannedPolicySigner.sign(S3_FILE_PATH, Instant.now().plus(RETENTION_DAYS, ChronoUnit.DAYS));
+            default -> throw new IllegalArgumentException(signer);
+        };
+    }
+
+    private String signWithSdkVersionOne() {
+        Date dateLessThan = DateUtils.parseISO8601Date(Instant.now().plus(Duration.ofDays(RETENTION_DAYS)).toString());
+        String resourcePath = generateResourcePath(SignerUtils.Protocol.https, BenchmarkKeys.DISTRIBUTION_DOMAIN, S3_FILE_PATH);
+        return CloudFrontUrlSigner.getSignedURLWithCannedPolicy(resourcePath.replaceAll("\\s", "+"), BenchmarkKeys.KEY_PAIR_ID, privateKey, dateLessThan);
+    }
+
+    private String signWithSdkVersionTwo() throws MalformedURLException {
+        String cloudFrontResourceURL = new URL("https", BenchmarkKeys.DISTRIBUTION_DOMAIN, "/" + S3_FILE_PATH.replaceAll("\\s", "+")).toString();
+        CannedSignerRequest cannedSignerRequest = CannedSignerRequest.builder()
+                .resourceUrl(cloudFrontResourceURL)
+                .privateKey(privateKey)
+                .keyPairId(BenchmarkKeys.KEY_PAIR_ID)
+                .expirationDate(Instant.now().plus(RETENTION_DAYS, ChronoUnit.DAYS))
+                .build();
+        return CloudFrontUtilities.create().getSignedUrlWithCannedPolicy(cannedSignerRequest).url();
+    }
+
+    private String signWithJetS3t() throws MalformedURLException, CloudFrontServiceException {
+        Date dateLessThan = Date.from(Instant.now().plus(Duration.ofDays(RETENTION_DAYS)));
+        return CloudFrontService.signUrlCanned(
+                new URL("https", BenchmarkKeys.DISTRIBUTION_DOMAIN, "/" + S3_FILE_PATH).toString(),
+                BenchmarkKeys.KEY_PAIR_ID,
+                derPrivateKey,
+                dateLessThan);
+    }
+}
@@ -1,13 +1,20 @@
 package com.example.cfsignedurl;
 
+import com.example.cfsignedurl.config.BulkPresignRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class CfsignedurlApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(CfsignedurlApplication.class, args);
+		SpringApplication application = new SpringApplication(CfsignedurlApplication.class);
+		application.addListeners(new BulkPresignRunner.WebApplicationTypeListener());
+		ConfigurableApplicationContext context = application.run(args);
+		if (BulkPresignRunner.isBulkPresignRun(context.getEnvironment())) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 }
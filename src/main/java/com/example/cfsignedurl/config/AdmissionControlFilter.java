@@ -0,0 +1,191 @@
+package com.example.cfsignedurl.config;
+
+import com.example.cfsignedurl.service.ConcurrencyLimiter;
+import com.example.cfsignedurl.service.ConcurrencyLimiter.Admission;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Admission control of the upload and sign endpoints.
+ *
+ * A request of an operation runs once it holds a permit of the operation's ConcurrencyLimiter. When the
+ * limit and the wait queue are full, or the wait exceeds the queue timeout, the request is answered with
+ * 429 Too Many Requests and a Retry-After header without reaching the controller. Requests of other paths,
+ * eg: /actuator/health, are never limited.
+ *
+ * The permit of an async request (CompletableFuture result) is held until the async processing completes.
+ * 5xx responses are reported to the limiter as failures, so an adaptive limit shrinks when S3 fails.
+ */
+@Component
+@ConditionalOnProperty(value = "admission-control.enabled", havingValue = "true")
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    static final String IN_FLIGHT = "cfsignedurl.admission.inflight";
+    static final String QUEUED = "cfsignedurl.admission.queued";
+    static final String LIMIT = "cfsignedurl.admission.limit";
+    static final String REJECTED = "cfsignedurl.admission.rejected";
+
+    private static final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    private final List<LimitedOperation> operations;
+
+    private final String retryAfterSeconds;
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControlFilter.class);
+
+    public AdmissionControlFilter(AdmissionControlProperties properties, MeterRegistry meterRegistry) {
+        this.operations = List.of(
+                new LimitedOperation("upload", properties.getUpload(), meterRegistry),
+                new LimitedOperation("sign", properties.getSign(), meterRegistry));
+        this.retryAfterSeconds = Long.toString(Math.max(1, (properties.getRetryAfter().toMillis() + 999) / 1000));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        LimitedOperation operation = operationOf(request);
+        if (operation == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        Admission admission;
+        try {
+            admission = operation.limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admission = Admission.QUEUE_TIMEOUT;
+        }
+        if (admission != Admission.ADMITTED) {
+            operation.rejected.get(admission).increment();
+            reject(response, operation, admission);
+            return;
+        }
+
+        long admittedAt = System.nanoTime();
+        AtomicBoolean released = new AtomicBoolean();
+        Consumer<Boolean> release = failed -> {
+            if (released.compareAndSet(false, true)) {
+                operation.limiter.release(System.nanoTime() - admittedAt, failed);
+            }
+        };
+        try {
+            filterChain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            release.accept(true);
+            throw e;
+        }
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    release.accept(isServerError(response));
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    release.accept(true);
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    release.accept(true);
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            release.accept(isServerError(response));
+        }
+    }
+
+    private static boolean isServerError(HttpServletResponse response) {
+        return response.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR.value();
+    }
+
+    private LimitedOperation operationOf(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (LimitedOperation operation : operations) {
+            for (String pattern : operation.paths) {
+                if (pathMatcher.match(pattern, path)) {
+                    return operation;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void reject(HttpServletResponse response, LimitedOperation operation, Admission admission) throws IOException {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getWriter().write(String.format("Too many concurrent %s requests (%s), retry after %s seconds",
+                operation.name, admission == Admission.QUEUE_FULL ? "queue full" : "queue timeout", retryAfterSeconds));
+    }
+
+    /**
+     * limiter and meters of the upload or sign endpoints
+     */
+    private static final class LimitedOperation {
+
+        private final String name;
+        private final List<String> paths;
+        private final ConcurrencyLimiter limiter;
+        private final Map<Admission, Counter> rejected;
+
+        private LimitedOperation(String name, AdmissionControlProperties.Operation properties, MeterRegistry meterRegistry) {
+            this.name = name;
+            this.paths = List.copyOf(properties.getPaths());
+            this.limiter = properties.newLimiter();
+            this.rejected = Map.of(
+                    Admission.QUEUE_FULL, rejectedCounter(meterRegistry, "queue-full"),
+                    Admission.QUEUE_TIMEOUT, rejectedCounter(meterRegistry, "queue-timeout"));
+
+            Gauge.builder(IN_FLIGHT, limiter, ConcurrencyLimiter::getInFlight)
+                    .description("admitted requests in progress")
+                    .tag("operation", name)
+                    .register(meterRegistry);
+            Gauge.builder(QUEUED, limiter, ConcurrencyLimiter::getQueued)
+                    .description("requests waiting for admission")
+                    .tag("operation", name)
+                    .register(meterRegistry);
+            Gauge.builder(LIMIT, limiter, ConcurrencyLimiter::getLimit)
+                    .description("concurrency limit of the requests")
+                    .tag("operation", name)
+                    .register(meterRegistry);
+            logger.info("admission control of the {} endpoints {}: limit {} ({}), queue of {} for {}", name, paths,
+                    limiter.getLimit(), properties.getAdaptation(), properties.getMaxQueue(), properties.getQueueTimeout());
+        }
+
+        private Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+            return Counter.builder(REJECTED)
+                    .description("requests rejected with 429 Too Many Requests")
+                    .tag("operation", name)
+                    .tag("reason", reason)
+                    .register(meterRegistry);
+        }
+    }
+}
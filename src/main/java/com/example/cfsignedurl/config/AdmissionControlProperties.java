@@ -0,0 +1,189 @@
+package com.example.cfsignedurl.config;
+
+import com.example.cfsignedurl.service.ConcurrencyLimiter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Concurrency limits of the upload and sign endpoints (admission-control.*), see AdmissionControlFilter.
+ *
+ * Each operation has its own limit and wait queue, so uploads stalled on S3 never hold the permits of the
+ * signing-only endpoints.
+ */
+@Component
+@ConfigurationProperties(prefix = "admission-control")
+public class AdmissionControlProperties {
+
+    private boolean enabled = false;
+
+    /**
+     * Retry-After of the rejected requests, rounded up to whole seconds
+     */
+    private Duration retryAfter = Duration.ofSeconds(1);
+
+    private Operation upload = new Operation(List.of("/upload/**"), 64, 8, 256, 64, Duration.ofSeconds(1), Duration.ofSeconds(2));
+
+    private Operation sign = new Operation(List.of("/sdk-v1/**", "/sdk-v2/**", "/signed-urls/**"), 256, 16, 1024, 256,
+            Duration.ofMillis(100), Duration.ofMillis(100));
+
+    public static class Operation {
+
+        /**
+         * ant style patterns of the request paths of the operation
+         */
+        private List<String> paths;
+
+        /**
+         * concurrent requests, the initial limit when the limit adapts
+         */
+        private int limit;
+
+        private ConcurrencyLimiter.Adaptation adaptation = ConcurrencyLimiter.Adaptation.NONE;
+
+        private int minLimit;
+
+        private int maxLimit;
+
+        /**
+         * requests waiting for a permit before new requests are rejected
+         */
+        private int maxQueue;
+
+        private Duration queueTimeout;
+
+        /**
+         * AIMD only, requests slower than this shrink the limit
+         */
+        private Duration latencyThreshold;
+
+        /**
+         * the limit is multiplied by this ratio when it shrinks
+         */
+        private double backoffRatio = 0.9;
+
+        public Operation() {
+        }
+
+        Operation(List<String> paths, int limit, int minLimit, int maxLimit, int maxQueue, Duration queueTimeout, Duration latencyThreshold) {
+            this.paths = paths;
+            this.limit = limit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.maxQueue = maxQueue;
+            this.queueTimeout = queueTimeout;
+            this.latencyThreshold = latencyThreshold;
+        }
+
+        public List<String> getPaths() {
+            return paths;
+        }
+
+        public void setPaths(List<String> paths) {
+            this.paths = paths;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public void setLimit(int limit) {
+            this.limit = limit;
+        }
+
+        public ConcurrencyLimiter.Adaptation getAdaptation() {
+            return adaptation;
+        }
+
+        public void setAdaptation(ConcurrencyLimiter.Adaptation adaptation) {
+            this.adaptation = adaptation;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public int getMaxQueue() {
+            return maxQueue;
+        }
+
+        public void setMaxQueue(int maxQueue) {
+            this.maxQueue = maxQueue;
+        }
+
+        public Duration getQueueTimeout() {
+            return queueTimeout;
+        }
+
+        public void setQueueTimeout(Duration queueTimeout) {
+            this.queueTimeout = queueTimeout;
+        }
+
+        public Duration getLatencyThreshold() {
+            return latencyThreshold;
+        }
+
+        public void setLatencyThreshold(Duration latencyThreshold) {
+            this.latencyThreshold = latencyThreshold;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+
+        ConcurrencyLimiter newLimiter() {
+            return new ConcurrencyLimiter(adaptation, limit, adaptation == ConcurrencyLimiter.Adaptation.NONE ? limit : minLimit,
+                    adaptation == ConcurrencyLimiter.Adaptation.NONE ? limit : maxLimit, maxQueue, queueTimeout, latencyThreshold, backoffRatio);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(Duration retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    public Operation getUpload() {
+        return upload;
+    }
+
+    public void setUpload(Operation upload) {
+        this.upload = upload;
+    }
+
+    public Operation getSign() {
+        return sign;
+    }
+
+    public void setSign(Operation sign) {
+        this.sign = sign;
+    }
+}
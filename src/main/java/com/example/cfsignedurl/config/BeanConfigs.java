@@ -2,21 +2,90 @@ package com.example.cfsignedurl.config;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AWS clients of the deployed application, the tests replace them with S3 stand-in clients
+ * under the s3-stand-in profile.
+ *
+ * The clients are built in parallel as startup tasks, clients of a disabled SDK are not built at all.
+ * With spring.main.lazy-initialization=true this configuration is only created on the first use of a client,
+ * after the startup tasks shut down, so each bean method builds its own client on first use and the clients
+ * of the other SDK versions are not built until they are used.
+ * Their HTTP clients are configured by S3HttpClientProperties and report their pool state to S3ConnectionPoolMetrics.
+ */
 @Configuration
+@Profile("!s3-stand-in")
 public class BeanConfigs {
 
+    private final CompletableFuture<AmazonS3> amazonS3;
+
+    private final CompletableFuture<S3Client> s3Client;
+
+    private final CompletableFuture<S3AsyncClient> s3AsyncClient;
+
+    private final S3HttpClientProperties httpClientProperties;
+
+    private final S3ConnectionPoolMetrics connectionPoolMetrics;
+
+    /**
+     * @param lazyInitialization when true no client is built ahead, the bean methods build them on first use
+     */
+    public BeanConfigs(StartupTasks startupTasks, S3HttpClientProperties httpClientProperties, S3ConnectionPoolMetrics connectionPoolMetrics,
+                       @Value("${s3.sdk-v1.enabled:true}") boolean sdkVersionOneEnabled,
+                       @Value("${s3.sdk-v2-async.enabled:true}") boolean sdkVersionTwoAsyncEnabled,
+                       @Value("${spring.main.lazy-initialization:false}") boolean lazyInitialization) {
+        this.httpClientProperties = httpClientProperties;
+        this.connectionPoolMetrics = connectionPoolMetrics;
+        amazonS3 = sdkVersionOneEnabled && !lazyInitialization ? startupTasks.submit("amazonS3", this::buildAmazonS3) : null;
+        s3Client = !lazyInitialization ? startupTasks.submit("s3Client", this::buildS3Client) : null;
+        s3AsyncClient = sdkVersionTwoAsyncEnabled && !lazyInitialization ? startupTasks.submit("s3AsyncClient", this::buildS3AsyncClient) : null;
+    }
+
     @Bean
+    @ConditionalOnProperty(value = "s3.sdk-v1.enabled", havingValue = "true", matchIfMissing = true)
     public AmazonS3 amazonS3() {
-        return AmazonS3ClientBuilder.standard().build();
+        return amazonS3 != null ? StartupTasks.await(amazonS3) : buildAmazonS3();
     }
 
     @Bean
     public S3Client s3Client() {
-        return S3Client.create();
+        return s3Client != null ? StartupTasks.await(s3Client) : buildS3Client();
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "s3.sdk-v2-async.enabled", havingValue = "true", matchIfMissing = true)
+    public S3AsyncClient s3AsyncClient() {
+        return s3AsyncClient != null ? StartupTasks.await(s3AsyncClient) : buildS3AsyncClient();
+    }
+
+    private AmazonS3 buildAmazonS3() {
+        return AmazonS3ClientBuilder.standard()
+                .withClientConfiguration(S3HttpClients.clientConfiguration(httpClientProperties))
+                .withMetricsCollector(connectionPoolMetrics.requestMetricCollector("amazonS3", httpClientProperties.getMaxConnections()))
+                .build();
+    }
+
+    private S3Client buildS3Client() {
+        return S3Client.builder()
+                .httpClient(S3HttpClients.syncHttpClient(httpClientProperties))
+                .overrideConfiguration(S3HttpClients.overrideConfiguration(httpClientProperties, connectionPoolMetrics.metricPublisher("s3Client")))
+                .build();
+    }
+
+    private S3AsyncClient buildS3AsyncClient() {
+        return S3AsyncClient.builder()
+                .httpClient(S3HttpClients.asyncHttpClient(httpClientProperties))
+                .overrideConfiguration(S3HttpClients.overrideConfiguration(httpClientProperties, connectionPoolMetrics.metricPublisher("s3AsyncClient")))
+                .build();
     }
 
 }
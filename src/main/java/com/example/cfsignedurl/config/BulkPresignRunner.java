@@ -0,0 +1,105 @@
+package com.example.cfsignedurl.config;
+
+import com.example.cfsignedurl.service.BulkPresignJob;
+import com.example.cfsignedurl.service.CloudFrontCannedPolicySigner;
+import com.example.cfsignedurl.service.CloudFrontKeyRing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Command line mode pre-signing the object paths of a manifest file instead of serving requests, eg:
+ * java -jar cfsignedurl.jar --presign.manifest=paths.txt --presign.output=signed.csv
+ *
+ * The application starts without a web server, runs the BulkPresignJob and exits with status 0 on success, 1 otherwise.
+ */
+@Component
+@ConditionalOnProperty("presign.manifest")
+public class BulkPresignRunner implements ApplicationRunner, ExitCodeGenerator {
+
+    public static final String MANIFEST_PROPERTY = "presign.manifest";
+
+    @Autowired
+    private BulkPresignJob bulkPresignJob;
+
+    @Autowired
+    private CloudFrontKeyRing cloudFrontKeyRing;
+
+    @Autowired
+    private CloudFrontCannedPolicySigner cannedPolicySigner;
+
+    /**
+     * manifest file, one S3 object path per line
+     */
+    @Value("${presign.manifest}")
+    private Path manifest;
+
+    /**
+     * output CSV file of "path,url" records, defaults to the manifest file name + ".signed.csv"
+     */
+    @Value("${presign.output:}")
+    private String output;
+
+    @Value("${cloudfront.distribution.link-retention-duration-days}")
+    private Long signedUrlRetensionDurationDays;
+
+    private int exitCode = 1;
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkPresignRunner.class);
+
+    /**
+     * whether the application runs in the pre-signing mode, decided like the @ConditionalOnProperty of this runner,
+     * so the property can be an argument, a system property, an environment variable (PRESIGN_MANIFEST)
+     * or part of a property file
+     */
+    public static boolean isBulkPresignRun(Environment environment) {
+        return environment.containsProperty(MANIFEST_PROPERTY) && !"false".equalsIgnoreCase(environment.getProperty(MANIFEST_PROPERTY));
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        Path outputFile = output.isEmpty() ? manifest.resolveSibling(manifest.getFileName() + ".signed.csv") : Path.of(output);
+        CloudFrontCannedPolicySigner signer = cloudFrontKeyRing.isEnabled() ? cloudFrontKeyRing.getActiveSigner() : cannedPolicySigner;
+        long expires = Instant.now().plus(signedUrlRetensionDurationDays, ChronoUnit.DAYS).getEpochSecond();
+        try {
+            BulkPresignJob.Result result = bulkPresignJob.run(manifest, outputFile, signer, expires);
+            logger.info("{} signed URLs written to {} in {} ms", result.signedUrls(), outputFile, result.elapsed().toMillis());
+            exitCode = 0;
+        } catch (Exception e) {
+            logger.error("pre-signing {} failed, run it again to resume from the last checkpoint. ERROR: {}", manifest, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Starts the application without a web server in the pre-signing mode. Runs once the property sources of the
+     * environment are loaded and before the application context is created.
+     */
+    public static class WebApplicationTypeListener implements ApplicationListener<ApplicationEnvironmentPreparedEvent> {
+
+        @Override
+        public void onApplicationEvent(ApplicationEnvironmentPreparedEvent event) {
+            if (isBulkPresignRun(event.getEnvironment())) {
+                event.getSpringApplication().setWebApplicationType(WebApplicationType.NONE);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.cfsignedurl.config;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection pool gauges of the S3 clients, tagged by client (amazonS3, s3Client, s3AsyncClient).
+ *
+ * The SDKs report the state of the pool with every request, so the gauges hold the state seen by the
+ * most recent request and stay unchanged while a client is idle. The SDK v2 clients also report how long
+ * each request waited for a connection.
+ */
+@Component
+public class S3ConnectionPoolMetrics {
+
+    static final String POOL_MAX = "cfsignedurl.s3.pool.max";
+    static final String POOL_LEASED = "cfsignedurl.s3.pool.leased";
+    static final String POOL_AVAILABLE = "cfsignedurl.s3.pool.available";
+    static final String POOL_PENDING = "cfsignedurl.s3.pool.pending";
+    static final String POOL_UTILISATION = "cfsignedurl.s3.pool.utilisation";
+    static final String POOL_ACQUIRE = "cfsignedurl.s3.pool.acquire";
+
+    private final MeterRegistry meterRegistry;
+
+    public S3ConnectionPoolMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * publisher of a SDK v2 client, to add to its ClientOverrideConfiguration
+     */
+    public MetricPublisher metricPublisher(String clientName) {
+        PoolGauges poolGauges = new PoolGauges(clientName);
+        Timer acquireTimer = Timer.builder(POOL_ACQUIRE)
+                .description("time a request waited for a pooled S3 connection")
+                .tag("client", clientName)
+                .register(meterRegistry);
+
+        return new MetricPublisher() {
+            @Override
+            public void publish(MetricCollection metricCollection) {
+                publishHttpMetrics(metricCollection, poolGauges, acquireTimer);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * collector of the SDK v1 client, enables the SDK's request metrics which include the pool counts
+     */
+    public RequestMetricCollector requestMetricCollector(String clientName, int maxConnections) {
+        PoolGauges poolGauges = new PoolGauges(clientName);
+        poolGauges.max.set(maxConnections);
+
+        return new RequestMetricCollector() {
+            @Override
+            public void collectMetrics(Request<?> request, Response<?> response) {
+                TimingInfo timingInfo = request.getAWSRequestMetrics().getTimingInfo();
+                setIfPresent(poolGauges.available, timingInfo.getCounter(AWSRequestMetrics.Field.HttpClientPoolAvailableCount.name()));
+                setIfPresent(poolGauges.leased, timingInfo.getCounter(AWSRequestMetrics.Field.HttpClientPoolLeasedCount.name()));
+                setIfPresent(poolGauges.pending, timingInfo.getCounter(AWSRequestMetrics.Field.HttpClientPoolPendingCount.name()));
+            }
+        };
+    }
+
+    /**
+     * the HTTP metrics are reported in the collection of each attempt, below the API call collection
+     */
+    private static void publishHttpMetrics(MetricCollection metricCollection, PoolGauges poolGauges, Timer acquireTimer) {
+        setIfPresent(poolGauges.max, first(metricCollection, HttpMetric.MAX_CONCURRENCY));
+        setIfPresent(poolGauges.available, first(metricCollection, HttpMetric.AVAILABLE_CONCURRENCY));
+        setIfPresent(poolGauges.leased, first(metricCollection, HttpMetric.LEASED_CONCURRENCY));
+        setIfPresent(poolGauges.pending, first(metricCollection, HttpMetric.PENDING_CONCURRENCY_ACQUIRES));
+        for (Duration acquireDuration : metricCollection.metricValues(HttpMetric.CONCURRENCY_ACQUIRE_DURATION)) {
+            acquireTimer.record(acquireDuration);
+        }
+        for (MetricCollection child : metricCollection.children()) {
+            publishHttpMetrics(child, poolGauges, acquireTimer);
+        }
+    }
+
+    private static <T> T first(MetricCollection metricCollection, SdkMetric<T> metric) {
+        List<T> values = metricCollection.metricValues(metric);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    private static void setIfPresent(AtomicInteger gauge, Number value) {
+        if (value != null) {
+            gauge.set(value.intValue());
+        }
+    }
+
+    private class PoolGauges {
+
+        private final AtomicInteger max = new AtomicInteger();
+        private final AtomicInteger available = new AtomicInteger();
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private PoolGauges(String clientName) {
+            gauge(POOL_MAX, "maximum connections or concurrent requests of the S3 client", clientName, max);
+            gauge(POOL_AVAILABLE, "idle pooled S3 connections", clientName, available);
+            gauge(POOL_LEASED, "S3 connections in use", clientName, leased);
+            gauge(POOL_PENDING, "requests waiting for an S3 connection", clientName, pending);
+            Gauge.builder(POOL_UTILISATION, this, poolGauges -> poolGauges.max.get() == 0 ? 0 : (double) poolGauges.leased.get() / poolGauges.max.get())
+                    .description("fraction of the S3 connections in use")
+                    .tag("client", clientName)
+                    .strongReference(true)
+                    .register(meterRegistry);
+        }
+
+        private void gauge(String name, String description, String clientName, AtomicInteger value) {
+            Gauge.builder(name, value, AtomicInteger::get)
+                    .description(description)
+                    .tag("client", clientName)
+                    .strongReference(true)
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.cfsignedurl.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * HTTP client settings of the S3 clients of both SDK versions (s3.http-client.*).
+ *
+ * The defaults are the defaults of the SDK v2 clients. Settings a client has no equivalent for are ignored
+ * by that client, eg: the URLConnection client has no connection pool and SDK v1 has no acquisition timeout.
+ */
+@Component
+@ConfigurationProperties(prefix = "s3.http-client")
+public class S3HttpClientProperties {
+
+    public enum SyncClientType {
+        APACHE,
+        URL_CONNECTION
+    }
+
+    public enum AsyncClientType {
+        NETTY,
+        CRT
+    }
+
+    /**
+     * HTTP client of the SDK v2 S3Client
+     */
+    private SyncClientType type = SyncClientType.APACHE;
+
+    /**
+     * HTTP client of the SDK v2 S3AsyncClient
+     */
+    private AsyncClientType asyncType = AsyncClientType.NETTY;
+
+    /**
+     * connections per client, for the async clients the maximum number of concurrent requests
+     */
+    private int maxConnections = 50;
+
+    /**
+     * time to wait for a pooled connection before the request fails
+     */
+    private Duration connectionAcquisitionTimeout = Duration.ofSeconds(10);
+
+    /**
+     * requests waiting for a connection of the async client before new requests fail
+     */
+    private int maxPendingConnectionAcquires = 10_000;
+
+    private Duration connectionTimeout = Duration.ofSeconds(2);
+
+    /**
+     * time to wait for data on an open connection
+     */
+    private Duration socketTimeout = Duration.ofSeconds(30);
+
+    /**
+     * pooled connections are closed after this time even when they are in use, null to keep them open
+     */
+    private Duration connectionTimeToLive;
+
+    private Duration connectionMaxIdleTime = Duration.ofSeconds(60);
+
+    private boolean tcpKeepAlive = false;
+
+    /**
+     * retries of the SDK clients, null for the SDK default or none when s3.resilience.* retries the uploads
+     */
+    private Integer maxRetries;
+
+    /**
+     * s3.resilience.enabled, every attempt of the resilience layer would otherwise run the whole SDK retry loop
+     */
+    @Value("${s3.resilience.enabled:false}")
+    private boolean resilienceEnabled;
+
+    /**
+     * time limit of a request including all its retries, null for no limit
+     */
+    private Duration apiCallTimeout;
+
+    /**
+     * time limit of a single attempt of a request, null for no limit
+     */
+    private Duration apiCallAttemptTimeout;
+
+    public SyncClientType getType() {
+        return type;
+    }
+
+    public void setType(SyncClientType type) {
+        this.type = type;
+    }
+
+    public AsyncClientType getAsyncType() {
+        return asyncType;
+    }
+
+    public void setAsyncType(AsyncClientType asyncType) {
+        this.asyncType = asyncType;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public Duration getConnectionAcquisitionTimeout() {
+        return connectionAcquisitionTimeout;
+    }
+
+    public void setConnectionAcquisitionTimeout(Duration connectionAcquisitionTimeout) {
+        this.connectionAcquisitionTimeout = connectionAcquisitionTimeout;
+    }
+
+    public int getMaxPendingConnectionAcquires() {
+        return maxPendingConnectionAcquires;
+    }
+
+    public void setMaxPendingConnectionAcquires(int maxPendingConnectionAcquires) {
+        this.maxPendingConnectionAcquires = maxPendingConnectionAcquires;
+    }
+
+    public Duration getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(Duration connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public Duration getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public void setSocketTimeout(Duration socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public Duration getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    public void setConnectionTimeToLive(Duration connectionTimeToLive) {
+        this.connectionTimeToLive = connectionTimeToLive;
+    }
+
+    public Duration getConnectionMaxIdleTime() {
+        return connectionMaxIdleTime;
+    }
+
+    public void setConnectionMaxIdleTime(Duration connectionMaxIdleTime) {
+        this.connectionMaxIdleTime = connectionMaxIdleTime;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public void setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public Integer getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(Integer maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @return the retries the SDK clients are built with, null for the SDK default
+     */
+    public Integer getSdkMaxRetries() {
+        if (maxRetries != null) {
+            return maxRetries;
+        }
+        return resilienceEnabled ? 0 : null;
+    }
+
+    public Duration getApiCallTimeout() {
+        return apiCallTimeout;
+    }
+
+    public void setApiCallTimeout(Duration apiCallTimeout) {
+        this.apiCallTimeout = apiCallTimeout;
+    }
+
+    public Duration getApiCallAttemptTimeout() {
+        return apiCallAttemptTimeout;
+    }
+
+    public void setApiCallAttemptTimeout(Duration apiCallAttemptTimeout) {
+        this.apiCallAttemptTimeout = apiCallAttemptTimeout;
+    }
+}
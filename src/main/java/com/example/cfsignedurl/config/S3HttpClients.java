@@ -0,0 +1,141 @@
+package com.example.cfsignedurl.config;
+
+import com.amazonaws.ClientConfiguration;
+import org.springframework.util.ClassUtils;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.crt.AwsCrtAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.metrics.MetricPublisher;
+
+import java.time.Duration;
+
+/**
+ * Builds the HTTP clients and client configurations of the S3 clients from S3HttpClientProperties,
+ * shared by the deployed clients and the S3 stand-in clients of the tests
+ */
+public final class S3HttpClients {
+
+    private S3HttpClients() {
+    }
+
+    /**
+     * HTTP client of the SDK v2 S3Client
+     */
+    public static SdkHttpClient syncHttpClient(S3HttpClientProperties properties) {
+        return switch (properties.getType()) {
+            case APACHE -> ApacheHttpClient.builder()
+                    .maxConnections(properties.getMaxConnections())
+                    .connectionAcquisitionTimeout(properties.getConnectionAcquisitionTimeout())
+                    .connectionTimeout(properties.getConnectionTimeout())
+                    .socketTimeout(properties.getSocketTimeout())
+                    .connectionTimeToLive(timeToLive(properties))
+                    .connectionMaxIdleTime(properties.getConnectionMaxIdleTime())
+                    .tcpKeepAlive(properties.isTcpKeepAlive())
+                    .build();
+            // no connection pool of its own, connections are kept alive by the JDK (http.maxConnections)
+            case URL_CONNECTION -> {
+                requireOnClasspath("software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient", "s3.http-client.type=url-connection");
+                yield UrlConnectionHttpClient.builder()
+                        .connectionTimeout(properties.getConnectionTimeout())
+                        .socketTimeout(properties.getSocketTimeout())
+                        .build();
+            }
+        };
+    }
+
+    /**
+     * HTTP client of the SDK v2 S3AsyncClient
+     */
+    public static SdkAsyncHttpClient asyncHttpClient(S3HttpClientProperties properties) {
+        return switch (properties.getAsyncType()) {
+            case NETTY -> NettyNioAsyncHttpClient.builder()
+                    .maxConcurrency(properties.getMaxConnections())
+                    .maxPendingConnectionAcquires(properties.getMaxPendingConnectionAcquires())
+                    .connectionAcquisitionTimeout(properties.getConnectionAcquisitionTimeout())
+                    .connectionTimeout(properties.getConnectionTimeout())
+                    .readTimeout(properties.getSocketTimeout())
+                    .writeTimeout(properties.getSocketTimeout())
+                    .connectionTimeToLive(timeToLive(properties))
+                    .connectionMaxIdleTime(properties.getConnectionMaxIdleTime())
+                    .tcpKeepAlive(properties.isTcpKeepAlive())
+                    .build();
+            case CRT -> {
+                requireOnClasspath("software.amazon.awssdk.http.crt.AwsCrtAsyncHttpClient", "s3.http-client.async-type=crt");
+                yield AwsCrtAsyncHttpClient.builder()
+                        .maxConcurrency(properties.getMaxConnections())
+                        .connectionTimeout(properties.getConnectionTimeout())
+                        .connectionMaxIdleTime(properties.getConnectionMaxIdleTime())
+                        .build();
+            }
+        };
+    }
+
+    /**
+     * API call timeouts, retries and the pool metrics publisher of a SDK v2 client
+     */
+    public static ClientOverrideConfiguration overrideConfiguration(S3HttpClientProperties properties, MetricPublisher metricPublisher) {
+        ClientOverrideConfiguration.Builder overrideConfiguration = ClientOverrideConfiguration.builder()
+                .addMetricPublisher(metricPublisher);
+        if (properties.getSdkMaxRetries() != null) {
+            overrideConfiguration.retryPolicy(RetryPolicy.builder().numRetries(properties.getSdkMaxRetries()).build());
+        }
+        if (properties.getApiCallTimeout() != null) {
+            overrideConfiguration.apiCallTimeout(properties.getApiCallTimeout());
+        }
+        if (properties.getApiCallAttemptTimeout() != null) {
+            overrideConfiguration.apiCallAttemptTimeout(properties.getApiCallAttemptTimeout());
+        }
+        return overrideConfiguration.build();
+    }
+
+    /**
+     * Client configuration of the SDK v1 AmazonS3 client
+     */
+    public static ClientConfiguration clientConfiguration(S3HttpClientProperties properties) {
+        ClientConfiguration clientConfiguration = new ClientConfiguration()
+                .withMaxConnections(properties.getMaxConnections())
+                .withConnectionTimeout(toMillis(properties.getConnectionTimeout()))
+                .withSocketTimeout(toMillis(properties.getSocketTimeout()))
+                .withConnectionMaxIdleMillis(properties.getConnectionMaxIdleTime().toMillis())
+                .withTcpKeepAlive(properties.isTcpKeepAlive());
+        if (properties.getConnectionTimeToLive() != null) {
+            clientConfiguration.setConnectionTTL(properties.getConnectionTimeToLive().toMillis());
+        }
+        if (properties.getSdkMaxRetries() != null) {
+            clientConfiguration.setMaxErrorRetry(properties.getSdkMaxRetries());
+        }
+        if (properties.getApiCallTimeout() != null) {
+            clientConfiguration.setClientExecutionTimeout(toMillis(properties.getApiCallTimeout()));
+        }
+        if (properties.getApiCallAttemptTimeout() != null) {
+            clientConfiguration.setRequestTimeout(toMillis(properties.getApiCallAttemptTimeout()));
+        }
+        return clientConfiguration;
+    }
+
+    /**
+     * the alternative HTTP clients are only on the runtime classpath of builds with -PwithAlternativeHttpClients
+     */
+    private static void requireOnClasspath(String className, String setting) {
+        if (!ClassUtils.isPresent(className, S3HttpClients.class.getClassLoader())) {
+            throw new IllegalStateException(String.format("%s requires %s on the classpath, build the application with -PwithAlternativeHttpClients",
+                    setting, className));
+        }
+    }
+
+    /**
+     * a zero time to live keeps the connections of the SDK v2 clients open
+     */
+    private static Duration timeToLive(S3HttpClientProperties properties) {
+        return properties.getConnectionTimeToLive() != null ? properties.getConnectionTimeToLive() : Duration.ZERO;
+    }
+
+    private static int toMillis(Duration duration) {
+        return Math.toIntExact(duration.toMillis());
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.cfsignedurl.config;
+
+import com.example.cfsignedurl.service.CloudFrontCannedPolicySigner;
+import com.example.cfsignedurl.service.SignedUrlMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.security.PrivateKey;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * CloudFront signing key loaded at the startup, shared by the services of both SDK versions.
+ *
+ * Instead of maintaining the private key file physically, we maintain the content of the private key
+ * in AWS parameter store and parse it once into the signer below, as a startup task running in parallel
+ * with the AWS client construction.
+ */
+@Configuration
+public class SigningKeyConfigs {
+
+    private final CompletableFuture<CloudFrontCannedPolicySigner> cannedPolicySigner;
+
+    /**
+     * @param cloudfrontDistributionPrivateSignKey PEM encoded PKCS#1 private key(.pem) file content
+     * @param cloudfrontDistributionKeyPairId      the ID of the CloudFront distribution public key
+     * @param cloudfrontDistributionDomainName     cloudfront distribution's name without protocol(http/https)
+     */
+    public SigningKeyConfigs(StartupTasks startupTasks, SignedUrlMetrics signedUrlMetrics,
+                             @Value("${aws.s3.object.cloudfront.private.sign.key}") String cloudfrontDistributionPrivateSignKey,
+                             @Value("${cloudfront.distribution.keypair.id}") String cloudfrontDistributionKeyPairId,
+                             @Value("${cloudfront.distribution.domain}") String cloudfrontDistributionDomainName) {
+        cannedPolicySigner = startupTasks.submit("cloudFrontSigningKey", () -> {
+            long keyLoadStart = signedUrlMetrics.start();
+            CloudFrontCannedPolicySigner signer = new CloudFrontCannedPolicySigner(readPrivateKey(cloudfrontDistributionPrivateSignKey),
+                    cloudfrontDistributionKeyPairId, cloudfrontDistributionDomainName);
+            signedUrlMetrics.recordKeyLoad("startup", keyLoadStart);
+            return signer;
+        });
+    }
+
+    /**
+     * Signs with the key loaded at the startup, the services sign with the key ring's active key instead
+     * when key rotation is enabled
+     */
+    @Bean
+    public CloudFrontCannedPolicySigner cloudFrontCannedPolicySigner() {
+        return StartupTasks.await(cannedPolicySigner);
+    }
+
+    /**
+     * With spring.main.lazy-initialization=true the AWS clients and services of each SDK version are only created
+     * on their first use, the signing key is still loaded at the startup so a broken key fails the startup
+     */
+    @Bean
+    public static LazyInitializationExcludeFilter eagerSigningKey() {
+        return LazyInitializationExcludeFilter.forBeanTypes(SigningKeyConfigs.class, CloudFrontCannedPolicySigner.class);
+    }
+
+    private static PrivateKey readPrivateKey(String cloudfrontDistributionPrivateSignKey) {
+        try {
+            return CloudFrontCannedPolicySigner.readPrivateKey(cloudfrontDistributionPrivateSignKey);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to generate the Cloudfront private key due to an IO exception", e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.cfsignedurl.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the slow steps of the startup (AWS client construction, private key parsing) in parallel.
+ *
+ * The configurations submit their tasks when they are created and the bean methods wait for the result,
+ * so the tasks overlap with each other and with the creation of the remaining beans. The threads are
+ * released once the application is ready, tasks of beans created later (spring.main.lazy-initialization)
+ * run on the thread creating the bean.
+ */
+@Component
+public class StartupTasks implements ApplicationListener<ApplicationReadyEvent> {
+
+    /**
+     * when disabled the tasks run one after the other on the thread creating the beans
+     */
+    @Value("${startup.parallel.enabled:true}")
+    private boolean parallel;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "startup-task-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupTasks.class);
+
+    public <T> CompletableFuture<T> submit(String name, Supplier<T> task) {
+        if (!parallel) {
+            return CompletableFuture.completedFuture(timed(name, task));
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> timed(name, task), executor);
+        } catch (RejectedExecutionException e) {
+            // the application is ready and the executor shut down
+            return CompletableFuture.completedFuture(timed(name, task));
+        }
+    }
+
+    /**
+     * the result of the task, a failed task fails the bean creation with its own exception
+     */
+    public static <T> T await(CompletableFuture<T> task) {
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        executor.shutdown();
+    }
+
+    private static <T> T timed(String name, Supplier<T> task) {
+        long start = System.nanoTime();
+        T result = task.get();
+        logger.info("startup task {} completed in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+}
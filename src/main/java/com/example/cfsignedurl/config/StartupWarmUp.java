@@ -0,0 +1,136 @@
+package com.example.cfsignedurl.config;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.example.cfsignedurl.service.AWSS3ServiceSDKVersionOne;
+import com.example.cfsignedurl.service.AWSS3ServiceSDKVersionTwo;
+import com.example.cfsignedurl.service.CloudFrontCannedPolicySigner;
+import com.example.cfsignedurl.service.SignedUrlMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Warms up the signing and S3 request paths before the application reports it is ready.
+ *
+ * Application runners complete before the readiness state flips to ACCEPTING_TRAFFIC, so a new instance
+ * only receives traffic once the signing code is loaded and JIT compiled and the S3 connection pools hold
+ * open connections. Warm-up failures are logged and never prevent the startup.
+ */
+@Component
+@ConditionalOnProperty(value = "startup.warm-up.enabled", havingValue = "true")
+public class StartupWarmUp implements ApplicationRunner {
+
+    private static final String WARM_UP_S3_FILE_PATH = "warm-up/sample-file.csv";
+
+    @Autowired
+    private CloudFrontCannedPolicySigner cloudFrontCannedPolicySigner;
+
+    @Autowired
+    private AWSS3ServiceSDKVersionTwo awss3ServiceSDKVersionTwo;
+
+    @Autowired
+    private ObjectProvider<AWSS3ServiceSDKVersionOne> awss3ServiceSDKVersionOne;
+
+    @Autowired
+    private S3Client s3Client;
+
+    @Autowired
+    private ObjectProvider<AmazonS3> amazonS3;
+
+    @Autowired
+    private SignedUrlMetrics signedUrlMetrics;
+
+    /**
+     * AWS S3 private bucket name
+     */
+    @Value("${s3.bucket}")
+    private String s3Bucket;
+
+    /**
+     * URLs signed with the startup key before the application is ready
+     */
+    @Value("${startup.warm-up.signatures:200}")
+    private int signatures;
+
+    /**
+     * concurrent S3 requests per client opening pooled connections, 0 to skip the S3 warm-up
+     */
+    @Value("${startup.warm-up.s3-connections:4}")
+    private int s3Connections;
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupWarmUp.class);
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long warmUpStart = System.nanoTime();
+        try {
+            warmUpSigning();
+        } catch (RuntimeException e) {
+            logger.warn("signing warm-up failed. ERROR: {}", e.getMessage());
+        }
+        if (s3Connections > 0) {
+            warmUpS3Connections();
+        }
+        logger.info("warm-up completed in {} ms, first CloudFront URL signed {} ms after the JVM start",
+                (System.nanoTime() - warmUpStart) / 1_000_000, signedUrlMetrics.getFirstSigningUptimeMillis());
+    }
+
+    private void warmUpSigning() {
+        long expires = Instant.now().plus(1, ChronoUnit.DAYS).getEpochSecond();
+        for (int i = 0; i < signatures; i++) {
+            cloudFrontCannedPolicySigner.sign(WARM_UP_S3_FILE_PATH, expires);
+        }
+        // load the signing path of each service, including its signed URL cache and metrics
+        try {
+            awss3ServiceSDKVersionTwo.generateCloudFrontSignedUrlByS3ObjectPath(WARM_UP_S3_FILE_PATH);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        awss3ServiceSDKVersionOne.ifAvailable(service -> service.generateCloudfrontSignedUrlByS3ObjectPath(WARM_UP_S3_FILE_PATH));
+    }
+
+    /**
+     * HEAD requests on a missing object, so the answer (404 or 403) does not matter, only the connections do
+     */
+    private void warmUpS3Connections() {
+        ExecutorService executor = Executors.newFixedThreadPool(s3Connections);
+        try {
+            List<CompletableFuture<Void>> requests = new ArrayList<>();
+            for (int i = 0; i < s3Connections; i++) {
+                requests.add(CompletableFuture.runAsync(() -> headWarmUpObject("sdk-v2", () -> s3Client.headObject(HeadObjectRequest.builder()
+                        .bucket(s3Bucket)
+                        .key(WARM_UP_S3_FILE_PATH)
+                        .build())), executor));
+                amazonS3.ifAvailable(client -> requests.add(CompletableFuture.runAsync(() ->
+                        headWarmUpObject("sdk-v1", () -> client.getObjectMetadata(s3Bucket, WARM_UP_S3_FILE_PATH)), executor)));
+            }
+            CompletableFuture.allOf(requests.toArray(CompletableFuture[]::new)).join();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void headWarmUpObject(String client, Runnable headRequest) {
+        try {
+            headRequest.run();
+        } catch (RuntimeException e) {
+            logger.debug("{} S3 warm-up request completed with {}", client, SignedUrlMetrics.errorCode(e));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.cfsignedurl.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class WebServerConfigs {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebServerConfigs.class);
+
+    /**
+     * Handle each request on its own virtual thread instead of the Tomcat worker thread pool.
+     *
+     * The project is compiled for Java 17, so the virtual thread executor is looked up reflectively
+     * and the application has to run on Java 21 or later when this is enabled.
+     */
+    @Bean
+    @ConditionalOnProperty(value = "tomcat.virtual-threads.enabled", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+        logger.info("tomcat requests are handled on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(String.format("tomcat.virtual-threads.enabled requires Java 21 or later, running on %s", Runtime.version()), e);
+        }
+    }
+
+}
@@ -1,27 +1,50 @@
 package com.example.cfsignedurl.controller;
 
+import com.example.cfsignedurl.service.AWSS3AsyncServiceSDKVersionTwo;
 import com.example.cfsignedurl.service.AWSS3ServiceSDKVersionOne;
 import com.example.cfsignedurl.service.AWSS3ServiceSDKVersionTwo;
+import com.example.cfsignedurl.service.CsvReportExporter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.LongStream;
 
 @RestController
 public class FileUploadController {
 
-    @Autowired
+    /**
+     * null when s3.sdk-v1.enabled is false
+     */
+    @Autowired(required = false)
     private AWSS3ServiceSDKVersionOne awss3ServiceSDKVersionOne;
 
     @Autowired
     private AWSS3ServiceSDKVersionTwo awss3ServiceSDKVersionTwo;
 
+    /**
+     * null when s3.sdk-v2-async.enabled is false
+     */
+    @Autowired(required = false)
+    private AWSS3AsyncServiceSDKVersionTwo awss3AsyncServiceSDKVersionTwo;
+
+    @Autowired
+    private CsvReportExporter csvReportExporter;
+
 
     @RequestMapping(value = "/upload/{request-identifier}/sdk-v1/signed-url", method = RequestMethod.GET)
     public String getCloudFrontSignedURLViaSDKVersionOne(@PathVariable(value = "request-identifier") String requestIdentifier) throws IOException {
+        if (awss3ServiceSDKVersionOne == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "SDK v1 endpoints are disabled");
+        }
         return awss3ServiceSDKVersionOne.getCloudFrontSignedUrl(requestIdentifier);
     }
 
@@ -30,4 +53,27 @@ public class FileUploadController {
         return awss3ServiceSDKVersionTwo.getCloudFrontSignedUrl(requestIdentifier);
     }
 
+    @RequestMapping(value = "/upload/{request-identifier}/sdk-v2-async/signed-url", method = RequestMethod.GET)
+    public CompletableFuture<String> getCloudFrontSignedURLViaSDKVersionTwoAsync(@PathVariable(value = "request-identifier") String requestIdentifier) {
+        if (awss3AsyncServiceSDKVersionTwo == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "SDK v2 async endpoints are disabled");
+        }
+        return awss3AsyncServiceSDKVersionTwo.getCloudFrontSignedUrl(requestIdentifier);
+    }
+
+    /**
+     * Export a generated report with the given number of rows, the rows are produced while the report is uploaded
+     */
+    @RequestMapping(value = "/upload/{request-identifier}/sdk-v2/report/signed-url", method = RequestMethod.GET)
+    public String getReportCloudFrontSignedURLViaSDKVersionTwo(@PathVariable(value = "request-identifier") String requestIdentifier,
+                                                                @RequestParam(value = "rows", defaultValue = "1") long rowCount) throws IOException {
+        if (rowCount < 0 || rowCount > csvReportExporter.getMaxRows()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("rows must be between 0 and %d", csvReportExporter.getMaxRows()));
+        }
+        String s3FilePath = String.format("testfolder/%s%s.csv", "report-", requestIdentifier);
+        return csvReportExporter.exportReport(s3FilePath, List.of("row", "request-identifier", "value"),
+                LongStream.rangeClosed(1, rowCount).mapToObj(row -> List.of(row, requestIdentifier, "abcd")));
+    }
+
 }
@@ -0,0 +1,30 @@
+package com.example.cfsignedurl.controller;
+
+import com.example.cfsignedurl.service.SignedUrlCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class SignedUrlCacheController {
+
+    @Autowired
+    private SignedUrlCache signedUrlCache;
+
+
+    @RequestMapping(value = "/signed-url-cache/stats", method = RequestMethod.GET)
+    public Map<String, Object> getSignedUrlCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", signedUrlCache.isEnabled());
+        stats.put("size", signedUrlCache.size());
+        stats.put("hits", signedUrlCache.getHitCount());
+        stats.put("misses", signedUrlCache.getMissCount());
+        stats.put("evictions", signedUrlCache.getEvictionCount());
+        return stats;
+    }
+
+}
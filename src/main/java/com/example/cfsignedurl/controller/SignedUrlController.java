@@ -0,0 +1,185 @@
+package com.example.cfsignedurl.controller;
+
+import com.example.cfsignedurl.service.AWSS3ServiceSDKVersionOne;
+import com.example.cfsignedurl.service.AWSS3ServiceSDKVersionTwo;
+import com.example.cfsignedurl.service.BatchSigningService;
+import com.example.cfsignedurl.service.CloudFrontSignedUrlVerifier;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+public class SignedUrlController {
+
+    /**
+     * null when s3.sdk-v1.enabled is false
+     */
+    @Autowired(required = false)
+    private AWSS3ServiceSDKVersionOne awss3ServiceSDKVersionOne;
+
+    @Autowired
+    private AWSS3ServiceSDKVersionTwo awss3ServiceSDKVersionTwo;
+
+    @Autowired
+    private BatchSigningService batchSigningService;
+
+    @Autowired
+    private CloudFrontSignedUrlVerifier cloudFrontSignedUrlVerifier;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+
+    @RequestMapping(value = "/sdk-v1/signed-urls", method = RequestMethod.POST)
+    public ResponseEntity<StreamingResponseBody> getCloudFrontSignedURLsViaSDKVersionOne(InputStream requestBody) {
+        List<String> s3FilePaths = readBatch(requestBody);
+        BatchSigningService.SignedUrlBatch signedUrlBatch = batchSigningService.signBatch(s3FilePaths,
+                sdkVersionOne()::generateCloudfrontSignedUrlByS3ObjectPath);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(signedUrlBatch::writeTo);
+    }
+
+    @RequestMapping(value = "/sdk-v2/signed-urls", method = RequestMethod.POST)
+    public ResponseEntity<StreamingResponseBody> getCloudFrontSignedURLsViaSDKVersionTwo(InputStream requestBody) {
+        List<String> s3FilePaths = readBatch(requestBody);
+        BatchSigningService.SignedUrlBatch signedUrlBatch = batchSigningService.signBatch(s3FilePaths, s3FilePath -> {
+            try {
+                return awss3ServiceSDKVersionTwo.generateCloudFrontSignedUrlByS3ObjectPath(s3FilePath);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(signedUrlBatch::writeTo);
+    }
+
+    @RequestMapping(value = "/sdk-v1/signed-cookies", method = RequestMethod.GET)
+    public Map<String, String> getCloudFrontSignedCookiesViaSDKVersionOne(@RequestParam(value = "path-pattern") String s3PathPattern,
+                                                                         @RequestParam(value = "active-from", required = false) Instant activeFrom,
+                                                                         @RequestParam(value = "ip-range", required = false) String ipRange) {
+        try {
+            return sdkVersionOne().generateCloudFrontSignedCookiesByS3PathPattern(s3PathPattern, activeFrom, ipRange).toCookies();
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @RequestMapping(value = "/sdk-v2/signed-cookies", method = RequestMethod.GET)
+    public Map<String, String> getCloudFrontSignedCookiesViaSDKVersionTwo(@RequestParam(value = "path-pattern") String s3PathPattern,
+                                                                         @RequestParam(value = "active-from", required = false) Instant activeFrom,
+                                                                         @RequestParam(value = "ip-range", required = false) String ipRange) {
+        try {
+            return awss3ServiceSDKVersionTwo.generateCloudFrontSignedCookiesByS3PathPattern(s3PathPattern, activeFrom, ipRange).toCookies();
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @RequestMapping(value = "/sdk-v1/custom-policy/signed-urls", method = RequestMethod.GET)
+    public List<String> getCustomPolicySignedURLsViaSDKVersionOne(@RequestParam(value = "path-pattern") String s3PathPattern,
+                                                                 @RequestParam(value = "path") List<String> s3FilePaths,
+                                                                 @RequestParam(value = "active-from", required = false) Instant activeFrom,
+                                                                 @RequestParam(value = "ip-range", required = false) String ipRange) {
+        validateBatchSize(s3FilePaths);
+        try {
+            return sdkVersionOne().generateCustomPolicySignedUrlsByS3ObjectPaths(s3PathPattern, s3FilePaths, activeFrom, ipRange);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @RequestMapping(value = "/sdk-v2/custom-policy/signed-urls", method = RequestMethod.GET)
+    public List<String> getCustomPolicySignedURLsViaSDKVersionTwo(@RequestParam(value = "path-pattern") String s3PathPattern,
+                                                                 @RequestParam(value = "path") List<String> s3FilePaths,
+                                                                 @RequestParam(value = "active-from", required = false) Instant activeFrom,
+                                                                 @RequestParam(value = "ip-range", required = false) String ipRange) {
+        validateBatchSize(s3FilePaths);
+        try {
+            return awss3ServiceSDKVersionTwo.generateCustomPolicySignedUrlsByS3ObjectPaths(s3PathPattern, s3FilePaths, activeFrom, ipRange);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @RequestMapping(value = "/signed-urls/verify", method = RequestMethod.GET)
+    public CloudFrontSignedUrlVerifier.Result verifySignedURL(@RequestParam(value = "url") String signedUrl,
+                                                             @RequestParam(value = "source-ip", required = false) String sourceIp) {
+        return cloudFrontSignedUrlVerifier.verify(signedUrl, sourceIp);
+    }
+
+    @RequestMapping(value = "/signed-urls/verify", method = RequestMethod.POST)
+    public List<CloudFrontSignedUrlVerifier.Result> verifySignedURLs(InputStream requestBody,
+                                                                    @RequestParam(value = "source-ip", required = false) String sourceIp) {
+        List<String> signedUrls = readBatch(requestBody);
+        List<CloudFrontSignedUrlVerifier.Result> results = new ArrayList<>(signedUrls.size());
+        for (String signedUrl : signedUrls) {
+            results.add(cloudFrontSignedUrlVerifier.verify(signedUrl, sourceIp));
+        }
+        return results;
+    }
+
+    private AWSS3ServiceSDKVersionOne sdkVersionOne() {
+        if (awss3ServiceSDKVersionOne == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "SDK v1 endpoints are disabled");
+        }
+        return awss3ServiceSDKVersionOne;
+    }
+
+    /**
+     * Read the JSON array of strings of a batch request while it is parsed, a body of more elements than the
+     * maximum batch size is rejected at the first element over the limit instead of being bound in full
+     */
+    private List<String> readBatch(InputStream requestBody) {
+        List<String> batch = new ArrayList<>();
+        try (JsonParser parser = objectMapper.getFactory().createParser(requestBody)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A batch must be a JSON array of strings");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.VALUE_STRING) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A batch must be a JSON array of strings");
+                }
+                if (batch.size() == batchSigningService.getMaxBatchSize()) {
+                    throw batchSizeException();
+                }
+                batch.add(parser.getText());
+            }
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A batch must be a JSON array of strings", e);
+        }
+        validateBatchSize(batch);
+        return batch;
+    }
+
+    private void validateBatchSize(List<String> s3FilePaths) {
+        if (s3FilePaths.isEmpty() || s3FilePaths.size() > batchSigningService.getMaxBatchSize()) {
+            throw batchSizeException();
+        }
+    }
+
+    private ResponseStatusException batchSizeException() {
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                String.format("A batch must contain between 1 and %d S3 object paths", batchSigningService.getMaxBatchSize()));
+    }
+
+}
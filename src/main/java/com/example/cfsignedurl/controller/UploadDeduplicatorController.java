@@ -0,0 +1,30 @@
+package com.example.cfsignedurl.controller;
+
+import com.example.cfsignedurl.service.UploadDeduplicator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class UploadDeduplicatorController {
+
+    @Autowired
+    private UploadDeduplicator uploadDeduplicator;
+
+
+    @RequestMapping(value = "/upload-dedup/stats", method = RequestMethod.GET)
+    public Map<String, Object> getUploadDeduplicatorStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", uploadDeduplicator.isEnabled());
+        stats.put("size", uploadDeduplicator.size());
+        stats.put("skippedUploads", uploadDeduplicator.getSkippedUploadCount());
+        stats.put("savedBytes", uploadDeduplicator.getSavedBytes());
+        stats.put("remoteChecks", uploadDeduplicator.getRemoteCheckCount());
+        return stats;
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.service.SignedUrlMetrics.SdkVersion;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-blocking variant of AWSS3ServiceSDKVersionTwo built on S3AsyncClient.
+ *
+ * The S3 PUT does not hold a servlet thread, and the URL is signed on the signing executor once the
+ * upload completes. Signing reuses the private key and key pair id of AWSS3ServiceSDKVersionTwo.
+ */
+@Service
+@ConditionalOnProperty(value = "s3.sdk-v2-async.enabled", havingValue = "true", matchIfMissing = true)
+public class AWSS3AsyncServiceSDKVersionTwo {
+
+    @Autowired
+    private S3AsyncClient s3AsyncClient;
+
+    @Autowired
+    private AWSS3ServiceSDKVersionTwo awss3ServiceSDKVersionTwo;
+
+    @Autowired
+    private SignedUrlMetrics signedUrlMetrics;
+
+    @Autowired
+    private UploadCoalescer uploadCoalescer;
+
+    @Autowired
+    private S3UploadResilience s3UploadResilience;
+
+    @Autowired
+    private UploadDeduplicator uploadDeduplicator;
+
+    /**
+     * AWS S3 private bucket name
+     */
+    @Value("${s3.bucket}")
+    private String s3Bucket;
+
+    /**
+     * number of threads signing URLs of completed uploads,
+     * defaults to the number of available processors
+     */
+    @Value("${s3.async.signing-threads:0}")
+    private int signingThreads;
+
+    /**
+     * RSA signing is CPU bound, so it is kept off the S3 client's event loop threads
+     */
+    private ExecutorService signingExecutor;
+
+    private static final Logger logger = LoggerFactory.getLogger(AWSS3AsyncServiceSDKVersionTwo.class);
+
+
+    public CompletableFuture<String> getCloudFrontSignedUrl(String requestIdentifier) {
+        long requestStart = signedUrlMetrics.start();
+
+        String s3FilePath = String.format("testfolder/%s%s.csv", "sample-file-", requestIdentifier);
+
+        // concurrent requests for the same file share one upload and signing
+        return uploadCoalescer.uploadAndSignAsync(SdkVersion.SDK_V2_ASYNC, s3FilePath, () -> uploadAndSign(requestIdentifier, s3FilePath, requestStart))
+                .whenComplete((cloudFrontSignedUrl, throwable) ->
+                        signedUrlMetrics.recordRequest(SdkVersion.SDK_V2_ASYNC, requestStart, cloudFrontSignedUrl != null));
+    }
+
+    private CompletableFuture<String> uploadAndSign(String requestIdentifier, String s3FilePath, long requestStart) {
+        // add dummy data line to file
+        String csvString = requestIdentifier + "," + "abcd";
+        ByteBuffer fileContent = ByteBuffer.wrap(csvString.getBytes(StandardCharsets.UTF_8));
+        signedUrlMetrics.recordPayloadBuild(SdkVersion.SDK_V2_ASYNC, requestStart);
+
+        return uploadObjectToAmazonS3(fileContent, s3FilePath)
+                .thenApplyAsync(uploadedStatus -> {
+                    String cloudFrontSignedUrl = null;
+                    if (uploadedStatus) {
+                        try {
+                            cloudFrontSignedUrl = awss3ServiceSDKVersionTwo.generateCloudFrontSignedUrlByS3ObjectPath(s3FilePath);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    } else {
+                        logger.warn("file: {} upload failed", s3FilePath);
+                    }
+                    return cloudFrontSignedUrl;
+                }, signingExecutor);
+    }
+
+    /**
+     * Upload the remaining content of the buffer. The returned future completes with false when
+     * the upload fails, as the blocking implementation returns false.
+     * Every attempt of S3UploadResilience sends its own view of the buffer, so slow uploads can be hedged.
+     * The upload goes through UploadDeduplicator like the uploads of the blocking services to the same keys.
+     */
+    public CompletableFuture<Boolean> uploadObjectToAmazonS3(ByteBuffer fileContent, String s3FilePath) {
+        return uploadDeduplicator.uploadIfChangedAsync(s3FilePath, fileContent, () -> upload(fileContent, s3FilePath));
+    }
+
+    private CompletableFuture<Boolean> upload(ByteBuffer fileContent, String s3FilePath) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(s3Bucket)
+                .key(s3FilePath)
+                .build();
+
+        long uploadStart = signedUrlMetrics.start();
+        int uploadedBytes = fileContent.remaining();
+        return s3UploadResilience.executeAsync(s3FilePath,
+                        () -> s3AsyncClient.putObject(putObjectRequest, AsyncRequestBody.fromByteBuffer(fileContent.duplicate())))
+                .handle((putObjectResponse, throwable) -> {
+                    boolean isSuccessfulllyUploded = throwable == null;
+                    if (throwable != null) {
+                        logger.error("file: {} upload failed with {}. ERROR: {}", s3FilePath, SignedUrlMetrics.errorCode(throwable), throwable.getMessage());
+                        signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2_ASYNC, uploadStart, throwable);
+                    } else {
+                        signedUrlMetrics.recordUpload(SdkVersion.SDK_V2_ASYNC, uploadStart, uploadedBytes);
+                    }
+                    logger.info("file: {} uploaded status: {}", s3FilePath, isSuccessfulllyUploded);
+                    return isSuccessfulllyUploded;
+                });
+    }
+
+    @PostConstruct
+    private void createSigningExecutor() {
+        signingExecutor = Executors.newFixedThreadPool(signingThreads > 0 ? signingThreads : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    private void shutdownSigningExecutor() {
+        signingExecutor.shutdown();
+    }
+}
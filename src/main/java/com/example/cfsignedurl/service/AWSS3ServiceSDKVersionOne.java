@@ -2,58 +2,70 @@ package com.example.cfsignedurl.service;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.PEM;
+import com.amazonaws.services.cloudfront.CloudFrontCookieSigner;
 import com.amazonaws.services.cloudfront.CloudFrontUrlSigner;
 import com.amazonaws.services.cloudfront.util.SignerUtils;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.util.DateUtils;
-import jakarta.annotation.PostConstruct;
+import com.example.cfsignedurl.service.S3UploadResilience.Replay;
+import com.example.cfsignedurl.service.S3UploadResilience.S3Call;
+import com.example.cfsignedurl.service.SignedUrlMetrics.SdkVersion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.security.PrivateKey;
-import java.security.spec.InvalidKeySpecException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 import static com.amazonaws.services.cloudfront.util.SignerUtils.generateResourcePath;
 
 @Service
+@ConditionalOnProperty(value = "s3.sdk-v1.enabled", havingValue = "true", matchIfMissing = true)
 public class AWSS3ServiceSDKVersionOne {
 
     @Autowired
     private AmazonS3 amazonS3;
 
+    @Autowired
+    private SignedUrlCache signedUrlCache;
+
+    @Autowired
+    private CloudFrontKeyRing cloudFrontKeyRing;
+
+    @Autowired
+    private SignedUrlMetrics signedUrlMetrics;
+
+    @Autowired
+    private UploadSigningPipeline uploadSigningPipeline;
+
+    @Autowired
+    private UploadDeduplicator uploadDeduplicator;
+
+    @Autowired
+    private UploadCoalescer uploadCoalescer;
+
+    @Autowired
+    private S3UploadResilience s3UploadResilience;
+
     /**
      * AWS S3 private bucket name
      */
     @Value("${s3.bucket}")
     private String s3Bucket;
 
-    /**
-     * PEM encoded PKCS#1 private key(.pem) file content
-     */
-    @Value("${aws.s3.object.cloudfront.private.sign.key}")
-    private String cloudfrontDistributionPrivateSignKey;
-
-    /**
-     * The value of this variable will be taken from the
-     * public keys section in CloudFront
-     */
-    @Value("${cloudfront.distribution.keypair.id}")
-    private String cloudfrontDistributionKeyPairId;
-
     /**
      * cloudfront distribution's name without protocol(http/https)
      * eg: abcd.cloudfront.net
@@ -69,45 +81,122 @@ public class AWSS3ServiceSDKVersionOne {
     private Long signedUrlRetensionDurationDays;
 
     /**
-     * this will be generated at the startup by fetching the private key content from
-     * AWS Parameter Store
+     * when enabled, URLs are signed by the pooled CloudFrontCannedPolicySigner instead of
+     * CloudFrontUrlSigner. Both generate identical URLs.
      */
-    private PrivateKey cloudFrontDistributionPrivateKey;
+    @Value("${cloudfront.signer.pooled.enabled:true}")
+    private boolean pooledSignerEnabled;
+
+    /**
+     * The official documentation for java CloudFront sdk version 1 is available at
+     * https://docs.aws.amazon.com/AWSJavaSDK/latest/javadoc/com/amazonaws/services/cloudfront/CloudFrontUrlSigner.html
+     *
+     * created once at the startup from the private key content kept in AWS parameter store (SigningKeyConfigs),
+     * replaced by the key ring's active signer when key rotation is enabled
+     */
+    @Autowired
+    private CloudFrontCannedPolicySigner cannedPolicySigner;
+
+    /**
+     * largest stream content kept in memory so its upload can be retried, the part size of the SDK v2 uploads
+     */
+    @Value("${s3.upload.part-size:8388608}")
+    private int replayLimit;
 
     private static final Logger logger = LoggerFactory.getLogger(AWSS3ServiceSDKVersionOne.class);
 
 
     public String getCloudFrontSignedUrl(String requestIdentifier) {
+        long requestStart = signedUrlMetrics.start();
 
         String s3FilePath = new StringBuilder()
                 .append(String.format("testfolder/%s%s.csv","sample-file-", requestIdentifier)).toString();
 
+        // concurrent requests for the same file share one upload and signing
+        String cloudFrontSignedUrl = uploadCoalescer.uploadAndSign(SdkVersion.SDK_V1, s3FilePath, () -> uploadAndSign(requestIdentifier, s3FilePath, requestStart));
+        if (cloudFrontSignedUrl == null) {
+            logger.warn("file: {} upload failed", s3FilePath);
+        }
+        signedUrlMetrics.recordRequest(SdkVersion.SDK_V1, requestStart, cloudFrontSignedUrl != null);
+        return cloudFrontSignedUrl;
+    }
+
+    private String uploadAndSign(String requestIdentifier, String s3FilePath, long requestStart) {
         // add dummy data line to file
         String csvString = requestIdentifier + "," + "abcd";
-
-        InputStream fileContentStream = new ByteArrayInputStream(csvString.getBytes(Charset.forName("UTF-8")));
+        byte[] fileContent = csvString.getBytes(Charset.forName("UTF-8"));
 
         ObjectMetadata metadata = new ObjectMetadata();
         metadata.setContentType("csv");
+        metadata.setContentLength(fileContent.length);
+        signedUrlMetrics.recordPayloadBuild(SdkVersion.SDK_V1, requestStart);
 
-        boolean uploadedStatus = uploadObjectToAWSS3(fileContentStream, s3FilePath, metadata);
+        // a new stream per attempt, write-behind uploads may be retried
+        return uploadSigningPipeline.uploadAndSign(s3FilePath,
+                () -> uploadDeduplicator.uploadIfChanged(s3FilePath, fileContent,
+                        () -> uploadObjectToAWSS3(fileContent, s3FilePath, metadata),
+                        this::findObjectETag),
+                () -> generateCloudfrontSignedUrlByS3ObjectPath(s3FilePath));
+    }
 
-        String cloudFrontSignedUrl = null;
-        if (uploadedStatus) {
-            cloudFrontSignedUrl = generateCloudfrontSignedUrlByS3ObjectPath(s3FilePath);
-        } else {
-            logger.warn("file: {} upload failed", s3FilePath);
+    /**
+     * Upload the content of the stream. With the resilience layer enabled, content up to the part size is read
+     * into memory so its upload can be retried, hedged and skipped when unchanged, a longer stream is uploaded once
+     * while it is read and digested.
+     */
+    public Boolean uploadObjectToAWSS3(InputStream fileContentStream, String s3FilePath, ObjectMetadata metadata) {
+        if (s3UploadResilience.isEnabled()) {
+            byte[] replayableContent;
+            try {
+                replayableContent = S3UploadResilience.readReplayableContent(fileContentStream, replayLimit);
+            } catch (IOException ioException) {
+                logger.error("file: {} could not be read. ERROR: {}", s3FilePath, ioException.getMessage());
+                signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V1, signedUrlMetrics.start(), ioException);
+                return false;
+            }
+            if (replayableContent != null) {
+                return uploadDeduplicator.uploadIfChanged(s3FilePath, replayableContent,
+                        () -> uploadObjectToAWSS3(replayableContent, s3FilePath, metadata), this::findObjectETag);
+            }
         }
-        return cloudFrontSignedUrl;
+        return uploadDeduplicator.uploadIfChanged(s3FilePath, fileContentStream,
+                contentStream -> uploadObjectToAWSS3(s3FilePath, metadata, Replay.NONE, () -> contentStream));
     }
 
-    public Boolean uploadObjectToAWSS3(InputStream fileContentStream, String s3FilePath, ObjectMetadata metadata) {
+    /**
+     * Upload the given content, every attempt reads it from a new stream so a slow upload can be hedged
+     */
+    public Boolean uploadObjectToAWSS3(byte[] fileContent, String s3FilePath, ObjectMetadata metadata) {
+        return uploadObjectToAWSS3(s3FilePath, metadata, Replay.CONCURRENT, () -> new ByteArrayInputStream(fileContent));
+    }
+
+    /**
+     * @param contentStream opens the content of an attempt, retries and hedges of the upload are sent by S3UploadResilience
+     */
+    private Boolean uploadObjectToAWSS3(String s3FilePath, ObjectMetadata metadata, Replay replay, S3Call<InputStream, IOException> contentStream) {
         boolean isSuccessfulllyUploded = true;
+        long uploadStart = signedUrlMetrics.start();
         try {
-            amazonS3.putObject(new PutObjectRequest(s3Bucket, s3FilePath, fileContentStream, metadata));
+            // the SDK completes the metadata of the request, so concurrent attempts get their own copy
+            s3UploadResilience.execute(s3FilePath, replay,
+                    () -> amazonS3.putObject(new PutObjectRequest(s3Bucket, s3FilePath, contentStream.call(), metadata.clone())));
+            signedUrlMetrics.recordUpload(SdkVersion.SDK_V1, uploadStart, metadata.getContentLength());
         } catch (AmazonServiceException amazonServiceException) {
+            logger.error("file: {} upload failed with {}. ERROR: {}", s3FilePath, amazonServiceException.getErrorCode(), amazonServiceException.getMessage());
+            signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V1, uploadStart, amazonServiceException);
             isSuccessfulllyUploded = false;
-        } catch (AmazonClientException amazonClientException) {
+        } catch (AmazonClientException | S3CircuitOpenException exception) {
+            logger.error("file: {} upload failed. ERROR: {}", s3FilePath, exception.getMessage());
+            signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V1, uploadStart, exception);
+            isSuccessfulllyUploded = false;
+        } catch (IOException ioException) {
+            logger.error("file: {} could not be read. ERROR: {}", s3FilePath, ioException.getMessage());
+            signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V1, uploadStart, ioException);
+            isSuccessfulllyUploded = false;
+        } catch (CancellationException cancellationException) {
+            // the thread of a hedged upload was interrupted while it waited for the hedged attempt
+            logger.error("file: {} upload was cancelled. ERROR: {}", s3FilePath, cancellationException.getMessage());
+            signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V1, uploadStart, cancellationException);
             isSuccessfulllyUploded = false;
         }
 
@@ -115,36 +204,104 @@ public class AWSS3ServiceSDKVersionOne {
         return isSuccessfulllyUploded;
     }
 
+    /**
+     * ETag of the stored object, null when there is no object at the given path or the lookup failed
+     */
+    private String findObjectETag(String s3FilePath) {
+        try {
+            return amazonS3.getObjectMetadata(s3Bucket, s3FilePath).getETag();
+        } catch (AmazonServiceException amazonServiceException) {
+            if (amazonServiceException.getStatusCode() != 404) {
+                logger.warn("file: {} metadata lookup failed with {}. ERROR: {}", s3FilePath, amazonServiceException.getErrorCode(), amazonServiceException.getMessage());
+            }
+            return null;
+        } catch (AmazonClientException amazonClientException) {
+            logger.warn("file: {} metadata lookup failed. ERROR: {}", s3FilePath, amazonClientException.getMessage());
+            return null;
+        }
+    }
+
     public String generateCloudfrontSignedUrlByS3ObjectPath(String s3FilePath) {
+        CloudFrontCannedPolicySigner signer = currentSigner();
+        Duration retentionDuration = Duration.ofDays(signedUrlRetensionDurationDays);
+        if (signedUrlCache.isEnabled()) {
+            return signedUrlCache.getSignedUrl(signer.getKeyPairId(), s3FilePath, retentionDuration,
+                    expirationDate -> generateCloudfrontSignedUrlByS3ObjectPath(s3FilePath, expirationDate, signer));
+        }
+        return generateCloudfrontSignedUrlByS3ObjectPath(s3FilePath, Instant.now().plus(retentionDuration), signer);
+    }
+
+    private String generateCloudfrontSignedUrlByS3ObjectPath(String s3FilePath, Instant expirationDate, CloudFrontCannedPolicySigner signer) {
+        long signingStart = signedUrlMetrics.start();
+        String cloudFrontSignedUrl = signCloudfrontUrl(s3FilePath, expirationDate, signer);
+        signedUrlMetrics.recordSigning(SdkVersion.SDK_V1, signingStart);
+        return cloudFrontSignedUrl;
+    }
+
+    private String signCloudfrontUrl(String s3FilePath, Instant expirationDate, CloudFrontCannedPolicySigner signer) {
+        if (pooledSignerEnabled) {
+            return signer.sign(s3FilePath, expirationDate);
+        }
         SignerUtils.Protocol protocol = SignerUtils.Protocol.https;
-        Instant instant = Instant.now();
-        Date dateLessThan = DateUtils.parseISO8601Date(instant.plus(Duration.ofDays(signedUrlRetensionDurationDays)).toString());
+        Date dateLessThan = DateUtils.parseISO8601Date(expirationDate.toString());
         final String resourcePath = generateResourcePath(protocol, cloudfrontDistributionDomainName, s3FilePath);
 
         // the wild card replacement is to avoid errors that occur due to spaces in S3 object paths
         // eg: "test folder/sample file.csv" will be converted to "test+folder/sample+file.csv" before requesting the
         // signed url from CloudFront
-        return CloudFrontUrlSigner.getSignedURLWithCannedPolicy(resourcePath.replaceAll("\\s", "+"), cloudfrontDistributionKeyPairId, cloudFrontDistributionPrivateKey, dateLessThan);
+        return CloudFrontUrlSigner.getSignedURLWithCannedPolicy(resourcePath.replaceAll("\\s", "+"), signer.getKeyPairId(), signer.getPrivateKey(), dateLessThan);
     }
 
     /**
-     * The official documentation for java CloudFront sdk version 1 is available at
-     * https://docs.aws.amazon.com/AWSJavaSDK/latest/javadoc/com/amazonaws/services/cloudfront/CloudFrontUrlSigner.html
+     * the key ring's active key when key rotation is enabled, otherwise the key loaded at the startup
+     */
+    private CloudFrontCannedPolicySigner currentSigner() {
+        return cloudFrontKeyRing.isEnabled() ? cloudFrontKeyRing.getActiveSigner() : cannedPolicySigner;
+    }
+
+    /**
+     * Generate a custom policy and its signature for the given S3 path pattern (eg: "testfolder/*").
+     * The result can be used as CloudFront signed cookies, or be appended to the URL of any object
+     * matching the pattern, so one signature covers the whole prefix.
      *
-     * Instead of maintaining the private key file physically, we have maintained the content of the private key
-     * in AWS parameter store and recreated the PrivateKey object in the following postcontruct.
+     * @param activeFrom optional, the policy is valid from this instant instead of immediately
+     * @param ipRange    optional, IP address or CIDR range (eg: 192.0.2.0/24) allowed to access the objects,
+     *                   a single address is signed as a /32 (IPv4) or /128 (IPv6) range
+     * @throws IllegalArgumentException when ipRange is not an IP address or CIDR range
      */
-    @PostConstruct
-    private void getCloudFrontSignKey(){
-        InputStream is = new ByteArrayInputStream(cloudfrontDistributionPrivateSignKey.getBytes(StandardCharsets.UTF_8));
-        try {
-            cloudFrontDistributionPrivateKey =  PEM.readPrivateKey(is);
-        } catch (InvalidKeySpecException e) {
-            throw new RuntimeException(String.format("Failed to generate the Cloudfront private key due to a KeySpec Exception"));
-        } catch (IOException e) {
-            throw new RuntimeException(String.format("Failed to generate the Cloudfront private key due to an IO exception"));
-        } finally {
-            try {is.close();} catch(IOException ioEx) {logger.error("Error occurred when trying to clean the resources created for reports cloudfront private key. ERROR: {}", ioEx.getMessage());}
+    public CloudFrontSignedCookies generateCloudFrontSignedCookiesByS3PathPattern(String s3PathPattern, Instant activeFrom, String ipRange) {
+        String sourceIpRange = CloudFrontSignedCookies.sourceIpRange(ipRange);
+        long signingStart = signedUrlMetrics.start();
+        CloudFrontCannedPolicySigner signer = currentSigner();
+        Date expiresOn = Date.from(Instant.now().plus(Duration.ofDays(signedUrlRetensionDurationDays)));
+
+        CloudFrontCookieSigner.CookiesForCustomPolicy cookiesForCustomPolicy = CloudFrontCookieSigner.getCookiesForCustomPolicy(
+                SignerUtils.Protocol.https, cloudfrontDistributionDomainName, signer.getPrivateKey(),
+                s3PathPattern.replaceAll("\\s", "+"), signer.getKeyPairId(), expiresOn,
+                activeFrom == null ? null : Date.from(activeFrom), sourceIpRange);
+        signedUrlMetrics.recordSigning(SdkVersion.SDK_V1, signingStart);
+
+        return new CloudFrontSignedCookies(s3PathPattern,
+                cookiesForCustomPolicy.getPolicy().getValue(),
+                cookiesForCustomPolicy.getSignature().getValue(),
+                cookiesForCustomPolicy.getKeyPairId().getValue());
+    }
+
+    /**
+     * Generate custom policy signed URLs for the given S3 objects, all sharing one policy signature
+     * for the given S3 path pattern
+     */
+    public List<String> generateCustomPolicySignedUrlsByS3ObjectPaths(String s3PathPattern, List<String> s3FilePaths, Instant activeFrom, String ipRange) {
+        CloudFrontSignedCookies signedCookies = generateCloudFrontSignedCookiesByS3PathPattern(s3PathPattern, activeFrom, ipRange);
+
+        List<String> cloudFrontSignedUrls = new ArrayList<>(s3FilePaths.size());
+        for (String s3FilePath : s3FilePaths) {
+            if (!signedCookies.covers(s3FilePath)) {
+                throw new IllegalArgumentException(String.format("S3 object path %s does not match the pattern %s", s3FilePath, s3PathPattern));
+            }
+            String resourcePath = generateResourcePath(SignerUtils.Protocol.https, cloudfrontDistributionDomainName, s3FilePath);
+            cloudFrontSignedUrls.add(signedCookies.toSignedUrl(resourcePath.replaceAll("\\s", "+")));
         }
+        return cloudFrontSignedUrls;
     }
 }
@@ -1,6 +1,8 @@
 package com.example.cfsignedurl.service;
 
-import jakarta.annotation.PostConstruct;
+import com.example.cfsignedurl.service.S3UploadResilience.Replay;
+import com.example.cfsignedurl.service.S3UploadResilience.S3Call;
+import com.example.cfsignedurl.service.SignedUrlMetrics.SdkVersion;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,22 +13,28 @@ import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.cloudfront.CloudFrontUtilities;
+import software.amazon.awssdk.services.cloudfront.cookie.CookiesForCustomPolicy;
 import software.amazon.awssdk.services.cloudfront.model.CannedSignerRequest;
-import software.amazon.awssdk.services.cloudfront.internal.auth.Pem;
+import software.amazon.awssdk.services.cloudfront.model.CustomSignerRequest;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 
 import java.io.IOException;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.File;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.security.PrivateKey;
-import java.security.spec.InvalidKeySpecException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 
 
@@ -36,25 +44,36 @@ public class AWSS3ServiceSDKVersionTwo {
     @Autowired
     private S3Client s3Client;
 
+    @Autowired
+    private SignedUrlCache signedUrlCache;
+
+    @Autowired
+    private CloudFrontKeyRing cloudFrontKeyRing;
+
+    @Autowired
+    private S3StreamingUploader s3StreamingUploader;
+
+    @Autowired
+    private SignedUrlMetrics signedUrlMetrics;
+
+    @Autowired
+    private UploadSigningPipeline uploadSigningPipeline;
+
+    @Autowired
+    private UploadDeduplicator uploadDeduplicator;
+
+    @Autowired
+    private UploadCoalescer uploadCoalescer;
+
+    @Autowired
+    private S3UploadResilience s3UploadResilience;
+
     /**
      * AWS S3 private bucket name
      */
     @Value("${s3.bucket}")
     private String s3Bucket;
 
-    /**
-     * PEM encoded PKCS#1 private key(.pem) file content
-     */
-    @Value("${aws.s3.object.cloudfront.private.sign.key}")
-    private String cloudfrontDistributionPrivateSignKey;
-
-    /**
-     * The ID of the CloudFront distribution public key
-     * Value is available in Public Keys section in CloudFront
-     */
-    @Value("${cloudfront.distribution.keypair.id}")
-    private String cloudfrontDistributionKeyPairId;
-
     /**
      * cloudfront distribution's name without protocol(http/https)
      * eg: abcd.cloudfront.net
@@ -70,10 +89,31 @@ public class AWSS3ServiceSDKVersionTwo {
     private Long signedUrlRetensionDurationDays;
 
     /**
-     * this will be generated at the startup(at postconstruct) by fetching the private key content from
-     * AWS Parameter Store
+     * when enabled, URLs are signed by the pooled CloudFrontCannedPolicySigner instead of
+     * CloudFrontUtilities. Both generate identical URLs.
+     */
+    @Value("${cloudfront.signer.pooled.enabled:true}")
+    private boolean pooledSignerEnabled;
+
+    /**
+     * The official documentation for java CloudFront sdk version 2 is available at
+     * https://docs.aws.amazon.com/AmazonCloudFront/latest/DeveloperGuide/CFPrivateDistJavaDevelopment.html
+     * https://docs.aws.amazon.com/sdk-for-java/latest/developer-guide/java_cloudfront_code_examples.html
+     *
+     * created once at the startup from the private key content kept in AWS parameter store (SigningKeyConfigs),
+     * replaced by the key ring's active signer when key rotation is enabled.
+     * Two other approaches to load the key are mentioned in alternativeApproachesToGetCloudFrontDistributionPrivateSignKey()
+     * that is commented out in the end of this class, in case the PKCS#1 PEM key support is dropped in the future.
+     */
+    @Autowired
+    private CloudFrontCannedPolicySigner cannedPolicySigner;
+
+    /**
+     * when enabled, uploads are streamed to S3 from memory instead of
+     * being copied to a temp file first
      */
-    private PrivateKey cloudFrontDistributionPrivateKey;
+    @Value("${s3.upload.streaming.enabled:true}")
+    private boolean streamingUploadEnabled;
 
     private final String TEMP_FILE_KEY_PREFIX = "s3-temp-file";
     private final String TEMP_FILE_KEY_SUFFIX = "csv";
@@ -82,53 +122,117 @@ public class AWSS3ServiceSDKVersionTwo {
 
 
     public String getCloudFrontSignedUrl(String requestIdentifier) {
+        long requestStart = signedUrlMetrics.start();
 
         String s3FilePath = new StringBuilder()
                 .append(String.format("testfolder/%s%s.csv", "sample-file-", requestIdentifier)).toString();
 
+        // concurrent requests for the same file share one upload and signing
+        String cloudFrontSignedUrl = uploadCoalescer.uploadAndSign(SdkVersion.SDK_V2, s3FilePath, () -> uploadAndSign(requestIdentifier, s3FilePath, requestStart));
+        if (cloudFrontSignedUrl == null) {
+            logger.warn("file: {} upload failed", s3FilePath);
+        }
+        signedUrlMetrics.recordRequest(SdkVersion.SDK_V2, requestStart, cloudFrontSignedUrl != null);
+        return cloudFrontSignedUrl;
+    }
+
+    private String uploadAndSign(String requestIdentifier, String s3FilePath, long requestStart) {
         // add dummy data line to file
         String csvString = requestIdentifier + "," + "abcd";
-        InputStream fileContentStream = new ByteArrayInputStream(csvString.getBytes(Charset.forName("UTF-8")));
-
-        File tempFile = null;
-        try {
-            tempFile = File.createTempFile(TEMP_FILE_KEY_PREFIX, TEMP_FILE_KEY_SUFFIX);
-            FileUtils.copyInputStreamToFile(fileContentStream, tempFile);
-
-            boolean uploadedStatus = uploadObjectToAmazonS3(tempFile, s3FilePath);
+        byte[] fileContent = csvString.getBytes(Charset.forName("UTF-8"));
+        signedUrlMetrics.recordPayloadBuild(SdkVersion.SDK_V2, requestStart);
+
+        // a new stream per attempt, write-behind uploads may be retried
+        return uploadSigningPipeline.uploadAndSign(s3FilePath,
+                () -> uploadDeduplicator.uploadIfChanged(s3FilePath, fileContent,
+                        () -> streamingUploadEnabled
+                                ? uploadObjectToAmazonS3(fileContent, s3FilePath)
+                                : uploadObjectToAmazonS3ViaTempFile(new ByteArrayInputStream(fileContent), s3FilePath),
+                        this::findObjectETag),
+                () -> {
+                    try {
+                        return generateCloudFrontSignedUrlByS3ObjectPath(s3FilePath);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+    }
 
-            String cloudFrontSignedUrl = null;
-            if (uploadedStatus) {
-                cloudFrontSignedUrl = generateCloudFrontSignedUrlByS3ObjectPath(s3FilePath);
-            } else {
-                logger.warn("file: {} upload failed", s3FilePath);
+    /**
+     * Upload the content of the stream without staging it on disk. Small payloads are uploaded
+     * with a single PutObject request, larger ones as a multipart upload.
+     * With the resilience layer enabled, content up to the part size is read into memory so its upload can be
+     * retried, hedged and skipped when unchanged, a longer stream is uploaded once while it is read and digested.
+     */
+    public Boolean uploadObjectToAmazonS3(InputStream fileContentStream, String s3FilePath) {
+        if (s3UploadResilience.isEnabled()) {
+            byte[] replayableContent;
+            try {
+                replayableContent = S3UploadResilience.readReplayableContent(fileContentStream, s3StreamingUploader.getPartSize());
+            } catch (IOException ioException) {
+                logger.error("file: {} could not be read. ERROR: {}", s3FilePath, ioException.getMessage());
+                signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2, signedUrlMetrics.start(), ioException);
+                return false;
             }
-            return cloudFrontSignedUrl;
-
-        } catch (IOException e) {
-            throw new RuntimeException(String.format("Failed to upload file due to an IO exception"));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            if (tempFile.exists()) {
-                tempFile.delete();
+            if (replayableContent != null) {
+                return uploadDeduplicator.uploadIfChanged(s3FilePath, replayableContent,
+                        () -> uploadObjectToAmazonS3(replayableContent, s3FilePath), this::findObjectETag);
             }
         }
+        return uploadDeduplicator.uploadIfChanged(s3FilePath, fileContentStream,
+                contentStream -> upload(s3FilePath, Replay.NONE, () -> s3StreamingUploader.upload(s3Bucket, s3FilePath, contentStream)));
     }
 
-    public Boolean uploadObjectToAmazonS3(File file, String s3FilePath) {
-        boolean isSuccessfulllyUploded = true;
+    /**
+     * Upload of the given content, a single PutObject request below the part size and a multipart upload above it.
+     * Every attempt reads the array from the start, so a slow upload can be hedged
+     */
+    public Boolean uploadObjectToAmazonS3(byte[] fileContent, String s3FilePath) {
+        return upload(s3FilePath, Replay.CONCURRENT, () -> s3StreamingUploader.upload(s3Bucket, s3FilePath, fileContent));
+    }
 
+    /**
+     * Upload of the remaining content of the given buffer, a multipart upload at or above the part size.
+     * Every attempt reads the buffer from the same position, so a slow upload can be hedged
+     */
+    public Boolean uploadObjectToAmazonS3(ByteBuffer fileContent, String s3FilePath) {
+        return upload(s3FilePath, Replay.CONCURRENT, () -> s3StreamingUploader.upload(s3Bucket, s3FilePath, fileContent.duplicate()));
+    }
+
+    public Boolean uploadObjectToAmazonS3(File file, String s3FilePath) {
         PutObjectRequest putObjectRequest = PutObjectRequest.builder()
                 .bucket(s3Bucket)
                 .key(s3FilePath)
                 .build();
 
-        try {
+        return upload(s3FilePath, Replay.CONCURRENT, () -> {
             s3Client.putObject(putObjectRequest, RequestBody.fromFile(file));
-        } catch (AwsServiceException awsServiceException) {
+            return file.length();
+        });
+    }
+
+    /**
+     * @param upload uploads the object and returns the number of bytes uploaded, retries and hedges of the upload
+     *               are sent by S3UploadResilience
+     */
+    private Boolean upload(String s3FilePath, Replay replay, S3Call<Long, IOException> upload) {
+        boolean isSuccessfulllyUploded = true;
+        long uploadStart = signedUrlMetrics.start();
+        try {
+            long uploadedBytes = s3UploadResilience.execute(s3FilePath, replay, upload);
+            signedUrlMetrics.recordUpload(SdkVersion.SDK_V2, uploadStart, uploadedBytes);
+        } catch (AwsServiceException | SdkClientException | S3CircuitOpenException exception) {
+            logUploadFailure(s3FilePath, exception);
+            signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2, uploadStart, exception);
             isSuccessfulllyUploded = false;
-        } catch (SdkClientException sdkClientException) {
+        } catch (IOException ioException) {
+            logger.error("file: {} could not be read. ERROR: {}", s3FilePath, ioException.getMessage());
+            signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2, uploadStart, ioException);
+            isSuccessfulllyUploded = false;
+        } catch (CancellationException cancellationException) {
+            // the thread of a hedged upload was interrupted while it waited for the hedged attempt
+            logger.error("file: {} upload was cancelled. ERROR: {}", s3FilePath, cancellationException.getMessage());
+            signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2, uploadStart, cancellationException);
             isSuccessfulllyUploded = false;
         }
 
@@ -137,39 +241,68 @@ public class AWSS3ServiceSDKVersionTwo {
     }
 
     /**
-     * The official documentation for java CloudFront sdk version 2 is available at
-     * https://docs.aws.amazon.com/AmazonCloudFront/latest/DeveloperGuide/CFPrivateDistJavaDevelopment.html
-     * https://docs.aws.amazon.com/sdk-for-java/latest/developer-guide/java_cloudfront_code_examples.html
-     *
-     *
-     * Instead of maintaining the private key file physically, we maintain the content of the private key
-     * in AWS parameter store and construct the PrivateKey object in the following postcontruct invocation.
+     * ETag of the stored object, null when there is no object at the given path or the lookup failed
      */
-    @PostConstruct
-    private void constructCloudFrontDistributionPrivateSignKey(){
-        // Approach One: Use PKCS#1 PEM key
-        // (Since the AWS CloudFront supports both PKCS#1 PEM keys and DER encoded PKCS#8 private keys)
-        InputStream is = new ByteArrayInputStream(cloudfrontDistributionPrivateSignKey.getBytes(StandardCharsets.UTF_8));
+    private String findObjectETag(String s3FilePath) {
         try {
-            cloudFrontDistributionPrivateKey =  Pem.readPrivateKey(is);
-        } catch (InvalidKeySpecException e) {
-            throw new RuntimeException(String.format("Failed to generate the Cloudfront private key due to a KeySpec Exception"));
+            return s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(s3Bucket)
+                    .key(s3FilePath)
+                    .build()).eTag();
+        } catch (NoSuchKeyException noSuchKeyException) {
+            return null;
+        } catch (AwsServiceException | SdkClientException exception) {
+            if (!(exception instanceof AwsServiceException awsServiceException && awsServiceException.statusCode() == 404)) {
+                logger.warn("file: {} metadata lookup failed with {}. ERROR: {}", s3FilePath, SignedUrlMetrics.errorCode(exception), exception.getMessage());
+            }
+            return null;
+        }
+    }
+
+    private static void logUploadFailure(String s3FilePath, RuntimeException exception) {
+        logger.error("file: {} upload failed with {}. ERROR: {}", s3FilePath, SignedUrlMetrics.errorCode(exception), exception.getMessage());
+    }
+
+    private Boolean uploadObjectToAmazonS3ViaTempFile(InputStream fileContentStream, String s3FilePath) {
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(TEMP_FILE_KEY_PREFIX, TEMP_FILE_KEY_SUFFIX);
+            FileUtils.copyInputStreamToFile(fileContentStream, tempFile);
+
+            return uploadObjectToAmazonS3(tempFile, s3FilePath);
         } catch (IOException e) {
-            throw new RuntimeException(String.format("Failed to generate the Cloudfront private key due to an IO exception"));
+            throw new RuntimeException(String.format("Failed to upload file due to an IO exception"));
         } finally {
-            try {is.close();} catch(IOException ioEx) {logger.error("Error occurred when trying to clean the resources created for reports cloudfront private key. ERROR: {}", ioEx.getMessage());}
+            if (tempFile != null && tempFile.exists()) {
+                tempFile.delete();
+            }
         }
-
-        // Apart from above approach, two other approaches are available as mentioned in
-        // alternativeApproachesToGetCloudFrontDistributionPrivateSignKey() method block that is commented out
-        // in the end of this class.
-        // Sharing them, in case the PKCS#1 PEM key support is dropped in the future.
     }
 
     /**
     * Generate CloudFront signed URL for given S3 object path
     */
     public String generateCloudFrontSignedUrlByS3ObjectPath(String s3FilePath) throws Exception {
+        CloudFrontCannedPolicySigner signer = currentSigner();
+        if (signedUrlCache.isEnabled()) {
+            return signedUrlCache.getSignedUrl(signer.getKeyPairId(), s3FilePath, Duration.ofDays(signedUrlRetensionDurationDays),
+                    expirationDate -> generateCloudFrontSignedUrlByS3ObjectPath(s3FilePath, expirationDate, signer));
+        }
+        return generateCloudFrontSignedUrlByS3ObjectPath(s3FilePath, Instant.now().plus(signedUrlRetensionDurationDays, ChronoUnit.DAYS), signer);
+    }
+
+    private String generateCloudFrontSignedUrlByS3ObjectPath(String s3FilePath, Instant expirationDate, CloudFrontCannedPolicySigner signer) {
+        long signingStart = signedUrlMetrics.start();
+        String cloudFrontSignedUrl = signCloudFrontUrl(s3FilePath, expirationDate, signer);
+        signedUrlMetrics.recordSigning(SdkVersion.SDK_V2, signingStart);
+        return cloudFrontSignedUrl;
+    }
+
+    private String signCloudFrontUrl(String s3FilePath, Instant expirationDate, CloudFrontCannedPolicySigner signer) {
+        if (pooledSignerEnabled) {
+            return signer.sign(s3FilePath, expirationDate);
+        }
+
         String protocol = "https";
 
         // the wild card replacement is to avoid errors that occur due to spaces in S3 object paths
@@ -177,19 +310,88 @@ public class AWSS3ServiceSDKVersionTwo {
         // signed url from CloudFront
         String resourcePath = "/" + s3FilePath.replaceAll("\\s", "+");
 
-        String cloudFrontResourceURL = new URL(protocol, cloudfrontDistributionDomainName, resourcePath).toString();
-        Instant expirationDate = Instant.now().plus(signedUrlRetensionDurationDays, ChronoUnit.DAYS);
+        String cloudFrontResourceURL;
+        try {
+            cloudFrontResourceURL = new URL(protocol, cloudfrontDistributionDomainName, resourcePath).toString();
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(String.format("Failed to generate the CloudFront resource url for %s", s3FilePath), e);
+        }
 
         CannedSignerRequest cannedSignerRequest = CannedSignerRequest.builder()
                                                                     .resourceUrl(cloudFrontResourceURL)
-                                                                    .privateKey(cloudFrontDistributionPrivateKey)
-                                                                    .keyPairId(cloudfrontDistributionKeyPairId)
+                                                                    .privateKey(signer.getPrivateKey())
+                                                                    .keyPairId(signer.getKeyPairId())
                                                                     .expirationDate(expirationDate)
                                                                     .build();
 
         return CloudFrontUtilities.create().getSignedUrlWithCannedPolicy(cannedSignerRequest).url();
     }
 
+    /**
+     * the key ring's active key when key rotation is enabled, otherwise the key loaded at the startup
+     */
+    private CloudFrontCannedPolicySigner currentSigner() {
+        return cloudFrontKeyRing.isEnabled() ? cloudFrontKeyRing.getActiveSigner() : cannedPolicySigner;
+    }
+
+    /**
+     * Generate a custom policy and its signature for the given S3 path pattern (eg: "testfolder/*").
+     * The result can be used as CloudFront signed cookies, or be appended to the URL of any object
+     * matching the pattern, so one signature covers the whole prefix.
+     *
+     * @param activeFrom optional, the policy is valid from this instant instead of immediately
+     * @param ipRange    optional, IP address or CIDR range (eg: 192.0.2.0/24) allowed to access the objects,
+     *                   a single address is signed as a /32 (IPv4) or /128 (IPv6) range
+     * @throws IllegalArgumentException when ipRange is not an IP address or CIDR range
+     */
+    public CloudFrontSignedCookies generateCloudFrontSignedCookiesByS3PathPattern(String s3PathPattern, Instant activeFrom, String ipRange) {
+        String sourceIpRange = CloudFrontSignedCookies.sourceIpRange(ipRange);
+        long signingStart = signedUrlMetrics.start();
+        CloudFrontCannedPolicySigner signer = currentSigner();
+        String cloudFrontResourceURL = "https://" + cloudfrontDistributionDomainName + "/" + s3PathPattern.replaceAll("\\s", "+");
+
+        CustomSignerRequest customSignerRequest = CustomSignerRequest.builder()
+                                                                    .resourceUrl(cloudFrontResourceURL)
+                                                                    .privateKey(signer.getPrivateKey())
+                                                                    .keyPairId(signer.getKeyPairId())
+                                                                    .expirationDate(Instant.now().plus(signedUrlRetensionDurationDays, ChronoUnit.DAYS))
+                                                                    .activeDate(activeFrom)
+                                                                    .ipRange(sourceIpRange)
+                                                                    .build();
+
+        CookiesForCustomPolicy cookiesForCustomPolicy = CloudFrontUtilities.create().getCookiesForCustomPolicy(customSignerRequest);
+        signedUrlMetrics.recordSigning(SdkVersion.SDK_V2, signingStart);
+
+        return new CloudFrontSignedCookies(s3PathPattern,
+                cookieValue(cookiesForCustomPolicy.policyHeaderValue()),
+                cookieValue(cookiesForCustomPolicy.signatureHeaderValue()),
+                cookieValue(cookiesForCustomPolicy.keyPairIdHeaderValue()));
+    }
+
+    /**
+     * Generate custom policy signed URLs for the given S3 objects, all sharing one policy signature
+     * for the given S3 path pattern
+     */
+    public List<String> generateCustomPolicySignedUrlsByS3ObjectPaths(String s3PathPattern, List<String> s3FilePaths, Instant activeFrom, String ipRange) {
+        CloudFrontSignedCookies signedCookies = generateCloudFrontSignedCookiesByS3PathPattern(s3PathPattern, activeFrom, ipRange);
+
+        List<String> cloudFrontSignedUrls = new ArrayList<>(s3FilePaths.size());
+        for (String s3FilePath : s3FilePaths) {
+            if (!signedCookies.covers(s3FilePath)) {
+                throw new IllegalArgumentException(String.format("S3 object path %s does not match the pattern %s", s3FilePath, s3PathPattern));
+            }
+            cloudFrontSignedUrls.add(signedCookies.toSignedUrl("https://" + cloudfrontDistributionDomainName + "/" + s3FilePath.replaceAll("\\s", "+")));
+        }
+        return cloudFrontSignedUrls;
+    }
+
+    /**
+     * the SDK returns cookies as "name=value" header values
+     */
+    private static String cookieValue(String cookieHeaderValue) {
+        return cookieHeaderValue.substring(cookieHeaderValue.indexOf('=') + 1);
+    }
+
      /**
      * other approaches to generate Cloudfront signed URLs
      * are mentioned in this method which are commented out
@@ -0,0 +1,153 @@
+package com.example.cfsignedurl.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Signs a batch of S3 object paths on a dedicated fork-join pool and streams the signed URLs
+ * to the client chunk by chunk, so the whole batch is never buffered as one response.
+ * The first chunk is signed before the response is committed, so a failing signer still gets an error status.
+ */
+@Service
+public class BatchSigningService {
+
+    /**
+     * maximum number of S3 object paths accepted in one batch
+     */
+    @Value("${cloudfront.batch-signing.max-batch-size:10000}")
+    private int maxBatchSize;
+
+    /**
+     * number of threads signing batch URLs across all batch requests,
+     * defaults to the number of available processors
+     */
+    @Value("${cloudfront.batch-signing.concurrency:0}")
+    private int concurrency;
+
+    /**
+     * number of URLs signed in parallel before they are written to the response
+     */
+    @Value("${cloudfront.batch-signing.chunk-size:512}")
+    private int chunkSize;
+
+    /**
+     * the response stream is closed by the servlet container, not by the generator,
+     * and a batch that failed to sign is not closed as a complete JSON array
+     */
+    private final JsonFactory jsonFactory = JsonFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .disable(StreamWriteFeature.AUTO_CLOSE_CONTENT)
+            .build();
+
+    private ForkJoinPool signingPool;
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchSigningService.class);
+
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sign the first chunk of the given S3 object paths now, the remaining chunks are signed while the batch is written.
+     * A signing failure of the first chunk is thrown from here, before a response is committed.
+     *
+     * @param signer generates the signed URL of one S3 object path
+     */
+    public SignedUrlBatch signBatch(List<String> s3FilePaths, Function<String, String> signer) {
+        List<String> firstChunk = s3FilePaths.subList(0, Math.min(chunkSize, s3FilePaths.size()));
+        String[] signedUrls = new String[firstChunk.size()];
+        signChunk(firstChunk, signer, signedUrls);
+        return new SignedUrlBatch(s3FilePaths, signer, signedUrls);
+    }
+
+    /**
+     * Batch of S3 object paths whose first chunk is signed
+     */
+    public final class SignedUrlBatch {
+
+        private final List<String> s3FilePaths;
+        private final Function<String, String> signer;
+        private final String[] signedUrls;
+
+        private SignedUrlBatch(List<String> s3FilePaths, Function<String, String> signer, String[] signedUrls) {
+            this.s3FilePaths = s3FilePaths;
+            this.signer = signer;
+            this.signedUrls = signedUrls;
+        }
+
+        /**
+         * Write the signed URLs to the output stream as a JSON array of {"path": ..., "url": ...} objects, in the
+         * order of the given paths, signing the chunks after the first one as they are written.
+         *
+         * When a later chunk fails to sign, the array written so far is left unterminated, so a client never
+         * takes a truncated response for a complete one, and the exception is thrown to abort the response.
+         */
+        public void writeTo(OutputStream outputStream) throws IOException {
+            try (JsonGenerator jsonGenerator = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8)) {
+                jsonGenerator.writeStartArray();
+                for (int chunkStart = 0; chunkStart < s3FilePaths.size(); chunkStart += chunkSize) {
+                    List<String> chunk = s3FilePaths.subList(chunkStart, Math.min(chunkStart + chunkSize, s3FilePaths.size()));
+                    if (chunkStart > 0) {
+                        signChunk(chunk, signer, signedUrls);
+                    }
+
+                    for (int i = 0; i < chunk.size(); i++) {
+                        jsonGenerator.writeStartObject();
+                        jsonGenerator.writeStringField("path", chunk.get(i));
+                        jsonGenerator.writeStringField("url", signedUrls[i]);
+                        jsonGenerator.writeEndObject();
+                    }
+                    jsonGenerator.flush();
+                }
+                jsonGenerator.writeEndArray();
+            }
+        }
+    }
+
+    private void signChunk(List<String> chunk, Function<String, String> signer, String[] signedUrls) {
+        try {
+            signingPool.submit(() -> IntStream.range(0, chunk.size())
+                    .parallel()
+                    .forEach(i -> signedUrls[i] = signer.apply(chunk.get(i))))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while signing the batch", e);
+        } catch (ExecutionException e) {
+            logger.error("batch signing failed. ERROR: {}", e.getCause().getMessage());
+            throw new RuntimeException("Failed to sign the batch", e.getCause());
+        }
+    }
+
+    @PostConstruct
+    private void createSigningPool() {
+        if (chunkSize <= 0) {
+            throw new IllegalStateException(String.format("cloudfront.batch-signing.chunk-size must be positive, got %d", chunkSize));
+        }
+        int parallelism = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        signingPool = new ForkJoinPool(parallelism);
+        logger.info("batch signing pool created with parallelism: {}", parallelism);
+    }
+
+    @PreDestroy
+    private void shutdownSigningPool() {
+        signingPool.shutdown();
+    }
+}
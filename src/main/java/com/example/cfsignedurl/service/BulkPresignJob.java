@@ -0,0 +1,350 @@
+package com.example.cfsignedurl.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Signs every S3 object path of a manifest file (one path per line) and writes "path,url" CSV records
+ * to the output file, in the order of the manifest.
+ *
+ * The manifest is read in chunks, each chunk is signed and encoded on a fork-join pool and then appended to the
+ * output through a large direct buffer, so memory use depends on the chunk size and not on the manifest size.
+ * Reading and writing are sequential and cheap compared to the RSA signatures, so the throughput grows with
+ * the parallelism up to the number of cores.
+ *
+ * Progress is checkpointed next to the output (output file name + ".checkpoint") at the configured interval.
+ * A run started again for the same manifest and output resumes after the last checkpoint with the same
+ * expiration date, the records written after that checkpoint are truncated and signed again.
+ * A checkpoint of another manifest content or signing key is refused, a checkpoint whose URLs expire within
+ * the minimum remaining validity is discarded and the run starts over with a new expiration date.
+ */
+@Service
+public class BulkPresignJob {
+
+    /**
+     * number of threads signing, defaults to the number of available processors
+     */
+    @Value("${presign.parallelism:0}")
+    private int parallelism;
+
+    /**
+     * manifest lines signed in parallel before they are written, bounds the memory use
+     */
+    @Value("${presign.chunk-size:16384}")
+    private int chunkSize;
+
+    @Value("${presign.write-buffer-size:8388608}")
+    private int writeBufferSize;
+
+    /**
+     * the output is forced to disk and the checkpoint written at this interval
+     */
+    @Value("${presign.checkpoint-interval:PT10S}")
+    private Duration checkpointInterval;
+
+    /**
+     * a run is only resumed when the URLs of its checkpoint stay valid at least this long
+     */
+    @Value("${presign.min-remaining-validity:PT1H}")
+    private Duration minRemainingValidity;
+
+    private final Clock clock;
+
+    /**
+     * manifest lines signed by one fork-join task
+     */
+    private static final int SIGNING_TASK_SIZE = 64;
+
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    /**
+     * the line ending of CsvReportExporter, RFC 4180 records end with CRLF
+     */
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkPresignJob.class);
+
+    public BulkPresignJob() {
+        this.clock = Clock.systemUTC();
+    }
+
+    BulkPresignJob(int parallelism, int chunkSize, int writeBufferSize, Duration checkpointInterval, Duration minRemainingValidity, Clock clock) {
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.writeBufferSize = writeBufferSize;
+        this.checkpointInterval = checkpointInterval;
+        this.minRemainingValidity = minRemainingValidity;
+        this.clock = clock;
+    }
+
+    /**
+     * @param signedUrls     records written by this run
+     * @param resumedLines   manifest lines skipped because a previous run had signed them
+     */
+    public record Result(long signedUrls, long resumedLines, Duration elapsed) {
+    }
+
+    /**
+     * state of a run at its last checkpoint, the SHA-256 digest of the manifest identifies the manifest it belongs to
+     * and the key pair id the key its URLs are signed with
+     */
+    record Checkpoint(long manifestLines, long outputBytes, long expiresEpochSeconds, String manifestDigest, String keyPairId) {
+
+        /**
+         * the digest and key pair id are null in checkpoints of earlier versions, which are then refused
+         */
+        static Checkpoint read(Path checkpointFile) throws IOException {
+            Properties properties = new Properties();
+            try (InputStream inputStream = Files.newInputStream(checkpointFile)) {
+                properties.load(inputStream);
+            }
+            return new Checkpoint(Long.parseLong(properties.getProperty("manifest-lines")),
+                    Long.parseLong(properties.getProperty("output-bytes")),
+                    Long.parseLong(properties.getProperty("expires-epoch-seconds")),
+                    properties.getProperty("manifest-sha256"),
+                    properties.getProperty("key-pair-id"));
+        }
+
+        /**
+         * written to a temp file and moved over the previous checkpoint, so a crash leaves either checkpoint intact
+         */
+        void write(Path checkpointFile) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("manifest-lines", Long.toString(manifestLines));
+            properties.setProperty("output-bytes", Long.toString(outputBytes));
+            properties.setProperty("expires-epoch-seconds", Long.toString(expiresEpochSeconds));
+            properties.setProperty("manifest-sha256", manifestDigest);
+            properties.setProperty("key-pair-id", keyPairId);
+            Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                properties.store(outputStream, "bulk pre-signing progress");
+            }
+            Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    public static Path checkpointFileOf(Path output) {
+        return output.resolveSibling(output.getFileName() + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Sign the manifest, resuming from the checkpoint of a previous run when there is one
+     *
+     * @param expiresEpochSeconds expiration of the URLs of a new run, a resumed run keeps the expiration of the first run
+     */
+    public Result run(Path manifest, Path output, CloudFrontCannedPolicySigner signer, long expiresEpochSeconds) throws IOException {
+        long start = System.nanoTime();
+        String manifestDigest = digest(manifest);
+        Path checkpointFile = checkpointFileOf(output);
+        Checkpoint checkpoint = Files.exists(checkpointFile) && Files.exists(output) ? Checkpoint.read(checkpointFile) : null;
+        if (checkpoint != null && !manifestDigest.equals(checkpoint.manifestDigest())) {
+            throw new RuntimeException(String.format("Checkpoint %s belongs to another content of the manifest %s. Delete the checkpoint to start over",
+                    checkpointFile, manifest));
+        }
+        if (checkpoint != null && !Objects.equals(signer.getKeyPairId(), checkpoint.keyPairId())) {
+            throw new RuntimeException(String.format("Checkpoint %s was signed with key %s, the active key is %s. Delete the checkpoint to start over",
+                    checkpointFile, checkpoint.keyPairId(), signer.getKeyPairId()));
+        }
+        long minimumExpiration = clock.instant().plus(minRemainingValidity).getEpochSecond();
+        if (checkpoint != null && checkpoint.expiresEpochSeconds() < minimumExpiration) {
+            logger.warn("the URLs of checkpoint {} expire at epoch second {}, within {}. Starting over with new URLs",
+                    checkpointFile, checkpoint.expiresEpochSeconds(), minRemainingValidity);
+            checkpoint = null;
+        }
+        long expires = checkpoint != null ? checkpoint.expiresEpochSeconds() : expiresEpochSeconds;
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool signingPool = new ForkJoinPool(threads);
+
+        long manifestLines = 0;
+        long signedUrls = 0;
+        try (BufferedReader manifestReader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8);
+             FileChannel outputChannel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (checkpoint != null) {
+                while (manifestLines < checkpoint.manifestLines() && manifestReader.readLine() != null) {
+                    manifestLines++;
+                }
+                // records written after the checkpoint may be incomplete, they are signed again
+                outputChannel.truncate(checkpoint.outputBytes());
+                outputChannel.position(checkpoint.outputBytes());
+                logger.info("resuming the pre-signing of {} after {} lines", manifest, manifestLines);
+            } else {
+                outputChannel.truncate(0);
+            }
+            long resumedLines = manifestLines;
+            logger.info("pre-signing {} to {} with parallelism {}, URLs expire at epoch second {}", manifest, output, threads, expires);
+
+            String[] paths = new String[chunkSize];
+            byte[][] records = new byte[chunkSize][];
+            ByteBuffer writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
+            long lastCheckpoint = System.nanoTime();
+            int lines;
+            while ((lines = readChunk(manifestReader, paths)) > 0) {
+                signingPool.invoke(new SignRecords(paths, records, 0, lines, signer, expires));
+                for (int i = 0; i < lines; i++) {
+                    if (records[i] != null) {
+                        write(outputChannel, writeBuffer, records[i]);
+                        signedUrls++;
+                    }
+                    paths[i] = null;
+                    records[i] = null;
+                }
+                manifestLines += lines;
+
+                if (System.nanoTime() - lastCheckpoint >= checkpointInterval.toNanos()) {
+                    flush(outputChannel, writeBuffer);
+                    outputChannel.force(false);
+                    new Checkpoint(manifestLines, outputChannel.position(), expires, manifestDigest, signer.getKeyPairId()).write(checkpointFile);
+                    lastCheckpoint = System.nanoTime();
+                    logger.info("pre-signed {} lines of {}, {} URLs per second", manifestLines, manifest,
+                            (long) (signedUrls / (Duration.ofNanos(lastCheckpoint - start).toMillis() / 1000.0)));
+                }
+            }
+            flush(outputChannel, writeBuffer);
+            outputChannel.force(false);
+
+            Files.deleteIfExists(checkpointFile);
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+            logger.info("pre-signed {} URLs of {} lines in {} ms", signedUrls, manifestLines, elapsed.toMillis());
+            return new Result(signedUrls, resumedLines, elapsed);
+        } finally {
+            signingPool.shutdownNow();
+        }
+    }
+
+    /**
+     * hex encoded SHA-256 digest of the file content
+     */
+    static String digest(Path file) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+            while (fileChannel.read(buffer) >= 0) {
+                buffer.flip();
+                sha256.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    private static int readChunk(BufferedReader manifestReader, String[] paths) throws IOException {
+        int lines = 0;
+        String line;
+        while (lines < paths.length && (line = manifestReader.readLine()) != null) {
+            paths[lines++] = line;
+        }
+        return lines;
+    }
+
+    private static void write(FileChannel outputChannel, ByteBuffer writeBuffer, byte[] record) throws IOException {
+        if (record.length > writeBuffer.remaining()) {
+            flush(outputChannel, writeBuffer);
+            if (record.length > writeBuffer.capacity()) {
+                ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+                while (recordBuffer.hasRemaining()) {
+                    outputChannel.write(recordBuffer);
+                }
+                return;
+            }
+        }
+        writeBuffer.put(record);
+    }
+
+    private static void flush(FileChannel outputChannel, ByteBuffer writeBuffer) throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            outputChannel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * the "path,url" CSV record of a manifest line, null for a blank line. The line is the S3 object path as written,
+     * S3 keys may start or end with whitespace.
+     */
+    static byte[] record(String s3FilePath, CloudFrontCannedPolicySigner signer, long expiresEpochSeconds) {
+        if (s3FilePath.isBlank()) {
+            return null;
+        }
+        String signedUrl = signer.sign(s3FilePath, expiresEpochSeconds);
+        return (csvField(s3FilePath) + "," + signedUrl + LINE_SEPARATOR).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * paths with a comma, quote or line break are quoted as in RFC 4180, the URLs never need quoting
+     */
+    private static String csvField(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return "\"" + value.replace("\"", "\"\"") + "\"";
+            }
+        }
+        return value;
+    }
+
+    /**
+     * signs and encodes the records of a range of the chunk, split in halves down to SIGNING_TASK_SIZE lines
+     */
+    private static class SignRecords extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] paths;
+        private final byte[][] records;
+        private final int from;
+        private final int to;
+        private final CloudFrontCannedPolicySigner signer;
+        private final long expiresEpochSeconds;
+
+        private SignRecords(String[] paths, byte[][] records, int from, int to, CloudFrontCannedPolicySigner signer, long expiresEpochSeconds) {
+            this.paths = paths;
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.signer = signer;
+            this.expiresEpochSeconds = expiresEpochSeconds;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SIGNING_TASK_SIZE) {
+                for (int i = from; i < to; i++) {
+                    records[i] = record(paths[i], signer, expiresEpochSeconds);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SignRecords(paths, records, from, middle, signer, expiresEpochSeconds),
+                    new SignRecords(paths, records, middle, to, signer, expiresEpochSeconds));
+        }
+    }
+}
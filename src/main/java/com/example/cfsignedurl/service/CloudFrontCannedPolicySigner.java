@@ -0,0 +1,265 @@
+package com.example.cfsignedurl.service;
+
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.RSAKey;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Thread safe CloudFront canned policy URL signer.
+ *
+ * Both SDK signers (CloudFrontUrlSigner in SDK v1 and CloudFrontUtilities in SDK v2) create a new
+ * SHA1withRSA Signature instance, a policy String, its UTF-8 byte[] and a base64 String for every URL.
+ * This signer keeps a pool of signing contexts, each holding a Signature that is initialised once with
+ * the private key, together with the buffers used to assemble the policy, the signature and the URL.
+ * The only per call allocation is the returned URL String.
+ *
+ * The generated URLs are identical to the URLs generated by both SDK signers for the same
+ * resource URL, key pair id and expiration date.
+ */
+public class CloudFrontCannedPolicySigner {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+
+    private static final String POLICY_RESOURCE_PREFIX = "{\"Statement\":[{\"Resource\":\"";
+    private static final String POLICY_EPOCH_TIME_PREFIX = "\",\"Condition\":{\"DateLessThan\":{\"AWS:EpochTime\":";
+    private static final String POLICY_SUFFIX = "}}}]}";
+
+    private static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final PrivateKey privateKey;
+
+    private final String keyPairId;
+
+    /**
+     * https://{cloudfront distribution domain}/
+     */
+    private final String resourceUrlPrefix;
+
+    /**
+     * size of the RSA signature in bytes, which is the size of the key modulus
+     */
+    private final int signatureLength;
+
+    /**
+     * idle signing contexts. A context is taken from this queue for the duration of one signing operation,
+     * so a context is never used by two threads at the same time.
+     */
+    private final ArrayBlockingQueue<SigningContext> signingContexts;
+
+    public CloudFrontCannedPolicySigner(PrivateKey privateKey, String keyPairId, String distributionDomainName) {
+        this(privateKey, keyPairId, distributionDomainName, DEFAULT_POOL_SIZE);
+    }
+
+    public CloudFrontCannedPolicySigner(PrivateKey privateKey, String keyPairId, String distributionDomainName, int poolSize) {
+        if (!(privateKey instanceof RSAKey)) {
+            throw new IllegalArgumentException("CloudFront signed urls require an RSA private key");
+        }
+        this.privateKey = privateKey;
+        this.keyPairId = keyPairId;
+        this.resourceUrlPrefix = "https://" + distributionDomainName + "/";
+        this.signatureLength = (((RSAKey) privateKey).getModulus().bitLength() + 7) / 8;
+        this.signingContexts = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+
+        // fail fast on an unusable key and keep the first context for the first request
+        signingContexts.offer(newSigningContext());
+    }
+
+    /**
+     * Parse a PEM encoded private key, either a PKCS#1 key (BEGIN RSA PRIVATE KEY) or a PKCS#8 key (BEGIN PRIVATE KEY)
+     * as CloudFront accepts both. Parsed with the public API of BouncyCastle, independent of the SDK versions.
+     */
+    public static PrivateKey readPrivateKey(String privateKeyPem) throws IOException {
+        try (PEMParser pemParser = new PEMParser(new StringReader(privateKeyPem))) {
+            Object pemObject = pemParser.readObject();
+            if (pemObject instanceof PEMKeyPair pemKeyPair) {
+                return new JcaPEMKeyConverter().getPrivateKey(pemKeyPair.getPrivateKeyInfo());
+            }
+            if (pemObject instanceof PrivateKeyInfo privateKeyInfo) {
+                return new JcaPEMKeyConverter().getPrivateKey(privateKeyInfo);
+            }
+            throw new IOException("No PEM encoded private key found");
+        }
+    }
+
+    public String getKeyPairId() {
+        return keyPairId;
+    }
+
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    /**
+     * Generate the CloudFront canned policy signed URL for the given S3 object path
+     *
+     * @param s3FilePath     S3 object path, whitespaces are replaced with "+" as in the SDK based implementations
+     * @param expirationDate the URL is valid until this instant (second precision)
+     */
+    public String sign(String s3FilePath, Instant expirationDate) {
+        return sign(s3FilePath, expirationDate.getEpochSecond());
+    }
+
+    /**
+     * Generate the CloudFront canned policy signed URL for the given S3 object path
+     *
+     * @param s3FilePath          S3 object path, whitespaces are replaced with "+" as in the SDK based implementations
+     * @param expiresEpochSeconds the URL is valid until this epoch second
+     */
+    public String sign(String s3FilePath, long expiresEpochSeconds) {
+        SigningContext context = signingContexts.poll();
+        if (context == null) {
+            context = newSigningContext();
+        }
+        try {
+            return context.sign(s3FilePath, expiresEpochSeconds);
+        } finally {
+            // contexts beyond the pool capacity are simply dropped
+            signingContexts.offer(context);
+        }
+    }
+
+    private SigningContext newSigningContext() {
+        try {
+            Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+            signature.initSign(privateKey);
+            return new SigningContext(signature);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(String.format("Failed to initialise the %s signature for key pair id %s", SIGNATURE_ALGORITHM, keyPairId), e);
+        }
+    }
+
+    /**
+     * Signature and reusable buffers owned by one signing operation at a time
+     */
+    private final class SigningContext {
+
+        private final Signature signature;
+
+        private final StringBuilder url = new StringBuilder(256);
+
+        private byte[] policy = new byte[256];
+
+        private final byte[] signatureBytes = new byte[signatureLength];
+
+        private final byte[] encodedSignature = new byte[4 * ((signatureLength + 2) / 3)];
+
+        private SigningContext(Signature signature) {
+            this.signature = signature;
+        }
+
+        private String sign(String s3FilePath, long expiresEpochSeconds) {
+            StringBuilder url = this.url;
+            url.setLength(0);
+            url.append(resourceUrlPrefix);
+            appendResourcePath(url, s3FilePath);
+            int resourceUrlLength = url.length();
+
+            // canned policy, byte-wise identical to SignerUtils.buildCannedPolicy(..).getBytes(UTF-8)
+            int policyLength = 0;
+            policyLength = writeUtf8(POLICY_RESOURCE_PREFIX, 0, POLICY_RESOURCE_PREFIX.length(), policyLength);
+            policyLength = writeUtf8(url, 0, resourceUrlLength, policyLength);
+            policyLength = writeUtf8(POLICY_EPOCH_TIME_PREFIX, 0, POLICY_EPOCH_TIME_PREFIX.length(), policyLength);
+            int epochTimeStart = url.length();
+            url.append(expiresEpochSeconds);
+            policyLength = writeUtf8(url, epochTimeStart, url.length(), policyLength);
+            url.setLength(epochTimeStart);
+            policyLength = writeUtf8(POLICY_SUFFIX, 0, POLICY_SUFFIX.length(), policyLength);
+
+            try {
+                signature.update(policy, 0, policyLength);
+                signature.sign(signatureBytes, 0, signatureLength);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(String.format("Failed to sign the CloudFront canned policy for key pair id %s", keyPairId), e);
+            }
+            Base64.getEncoder().encode(signatureBytes, encodedSignature);
+
+            url.append(url.indexOf("?") >= 0 ? '&' : '?')
+                    .append("Expires=").append(expiresEpochSeconds)
+                    .append("&Signature=");
+            for (byte encoded : encodedSignature) {
+                url.append(toUrlSafe((char) encoded));
+            }
+            url.append("&Key-Pair-Id=").append(keyPairId);
+            return url.toString();
+        }
+
+        /**
+         * equivalent of s3FilePath.replaceAll("\\s", "+")
+         */
+        private void appendResourcePath(StringBuilder url, String s3FilePath) {
+            for (int i = 0; i < s3FilePath.length(); i++) {
+                char c = s3FilePath.charAt(i);
+                switch (c) {
+                    case ' ', '\t', '\n', '\u000B', '\f', '\r' -> url.append('+');
+                    default -> url.append(c);
+                }
+            }
+        }
+
+        /**
+         * UTF-8 encode the given characters into the policy buffer, the same way String.getBytes(UTF_8) does
+         * (an unpaired surrogate is encoded as '?')
+         *
+         * @return the new length of the policy buffer content
+         */
+        private int writeUtf8(CharSequence chars, int start, int end, int position) {
+            ensurePolicyCapacity(position + (end - start) * 3);
+            byte[] buffer = policy;
+            for (int i = start; i < end; i++) {
+                char c = chars.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[position++] = '?';
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return position;
+        }
+
+        private void ensurePolicyCapacity(int capacity) {
+            if (policy.length < capacity) {
+                byte[] grown = new byte[Math.max(capacity, policy.length * 2)];
+                System.arraycopy(policy, 0, grown, 0, policy.length);
+                policy = grown;
+            }
+        }
+    }
+
+    /**
+     * CloudFront url safe base64 variant, as in SignerUtils.makeBytesUrlSafe
+     */
+    private static char toUrlSafe(char base64Char) {
+        return switch (base64Char) {
+            case '+' -> '-';
+            case '=' -> '_';
+            case '/' -> '~';
+            default -> base64Char;
+        };
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.cfsignedurl.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.services.ssm.SsmClient;
+import software.amazon.awssdk.services.ssm.SsmClientBuilder;
+import software.amazon.awssdk.services.ssm.model.GetParameterRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Active CloudFront signing key, swappable without restarting the application.
+ *
+ * The key is refreshed in the background from AWS Parameter Store or from local files. A new key is parsed
+ * and its signer warmed up before it is staged, and it becomes active once the overlap window has passed,
+ * so URLs keep being signed with the old key until CloudFront trusts the new one.
+ * The signing path only reads an AtomicReference and never blocks on a refresh.
+ */
+@Component
+public class CloudFrontKeyRing {
+
+    /**
+     * when disabled, the services sign with the key loaded at the startup
+     */
+    @Value("${cloudfront.key-rotation.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * where the next key is loaded from, parameter-store or file
+     */
+    @Value("${cloudfront.key-rotation.source:parameter-store}")
+    private String source;
+
+    @Value("${cloudfront.key-rotation.refresh-interval:PT5M}")
+    private Duration refreshInterval;
+
+    /**
+     * a new key is staged for this long before it is used for signing,
+     * eg: the time it takes to add the new public key to the CloudFront key group
+     */
+    @Value("${cloudfront.key-rotation.overlap-window:PT0S}")
+    private Duration overlapWindow;
+
+    /**
+     * parameter names of the key, required with the parameter-store source, eg: set by the dev profile
+     */
+    @Value("${cloudfront.key-rotation.parameter-store.private-key-parameter:}")
+    private String privateKeyParameterName;
+
+    @Value("${cloudfront.key-rotation.parameter-store.key-pair-id-parameter:}")
+    private String keyPairIdParameterName;
+
+    /**
+     * Parameter Store endpoint of spring.config.import, empty for the AWS endpoint of the region
+     */
+    @Value("${spring.cloud.aws.parameterstore.endpoint:}")
+    private String parameterStoreEndpoint;
+
+    @Value("${cloudfront.key-rotation.file.private-key-path:}")
+    private String privateKeyPath;
+
+    @Value("${cloudfront.key-rotation.file.key-pair-id-path:}")
+    private String keyPairIdPath;
+
+    /**
+     * signer of the key loaded at the startup, the first active key of the ring
+     */
+    @Autowired
+    private CloudFrontCannedPolicySigner cloudFrontCannedPolicySigner;
+
+    /**
+     * PEM encoded PKCS#1 private key(.pem) file content loaded at the startup
+     */
+    @Value("${aws.s3.object.cloudfront.private.sign.key}")
+    private String cloudfrontDistributionPrivateSignKey;
+
+    @Value("${cloudfront.distribution.keypair.id}")
+    private String cloudfrontDistributionKeyPairId;
+
+    @Value("${cloudfront.distribution.domain}")
+    private String cloudfrontDistributionDomainName;
+
+    private final Clock clock;
+
+    private final AtomicReference<KeyRingState> state = new AtomicReference<>();
+
+    /**
+     * content of the most recently loaded key, to skip parsing when nothing changed
+     */
+    private volatile KeyMaterial loadedKeyMaterial;
+
+    private SsmClient ssmClient;
+
+    private ScheduledExecutorService refreshExecutor;
+
+    private static final int WARM_UP_SIGNATURES = 32;
+
+    private static final Logger logger = LoggerFactory.getLogger(CloudFrontKeyRing.class);
+
+    public CloudFrontKeyRing() {
+        this(Clock.systemUTC());
+    }
+
+    CloudFrontKeyRing(Clock clock) {
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Signer of the key URLs are signed with right now
+     */
+    public CloudFrontCannedPolicySigner getActiveSigner() {
+        KeyRingState current = state.get();
+        if (current.staged() != null && !clock.instant().isBefore(current.stagedActiveFrom())) {
+            KeyRingState promoted = new KeyRingState(current.staged(), null, null);
+            if (state.compareAndSet(current, promoted)) {
+                logger.info("cloudfront signing key {} is active, key {} is retired", promoted.active().getKeyPairId(), current.active().getKeyPairId());
+            }
+            return promoted.active();
+        }
+        return current.active();
+    }
+
+    /**
+     * Load the key from the configured source and stage it when it differs from the active and staged keys
+     *
+     * @return true when a new key was staged
+     */
+    public boolean refresh() {
+        try {
+            KeyMaterial keyMaterial = switch (source) {
+                case "parameter-store" -> loadFromParameterStore();
+                case "file" -> loadFromFiles();
+                default -> throw new IllegalStateException(String.format("Unknown cloudfront.key-rotation.source: %s", source));
+            };
+            if (keyMaterial.equals(loadedKeyMaterial)) {
+                return false;
+            }
+            stage(keyMaterial);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // keep signing with the current key, the next refresh tries again
+            logger.error("Failed to refresh the cloudfront signing key from {}", source, e);
+            return false;
+        }
+    }
+
+    /**
+     * Parse and warm up the key, then stage it to become active after the overlap window
+     */
+    void stage(KeyMaterial keyMaterial) {
+        stage(keyMaterial, warmUp(createSigner(keyMaterial)));
+    }
+
+    private void stage(KeyMaterial keyMaterial, CloudFrontCannedPolicySigner signer) {
+        Instant activeFrom = clock.instant().plus(overlapWindow);
+
+        KeyRingState current;
+        KeyRingState next;
+        do {
+            current = state.get();
+            next = current == null
+                    ? new KeyRingState(signer, null, null)
+                    : new KeyRingState(current.active(), signer, activeFrom);
+        } while (!state.compareAndSet(current, next));
+        loadedKeyMaterial = keyMaterial;
+
+        logger.info("cloudfront signing key {} staged, active from {}", keyMaterial.keyPairId(), current == null ? "now" : activeFrom);
+    }
+
+    private CloudFrontCannedPolicySigner createSigner(KeyMaterial keyMaterial) {
+        try {
+            return new CloudFrontCannedPolicySigner(CloudFrontCannedPolicySigner.readPrivateKey(keyMaterial.privateKeyPem()),
+                    keyMaterial.keyPairId(), cloudfrontDistributionDomainName);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to generate the Cloudfront private key %s due to an IO exception", keyMaterial.keyPairId()), e);
+        }
+    }
+
+    /**
+     * sign a few URLs so the first requests after the flip don't pay for class loading, JIT compilation
+     * and signing context creation
+     */
+    private CloudFrontCannedPolicySigner warmUp(CloudFrontCannedPolicySigner signer) {
+        long expires = clock.instant().getEpochSecond();
+        for (int i = 0; i < WARM_UP_SIGNATURES; i++) {
+            signer.sign("warm-up/sample-file.csv", expires);
+        }
+        return signer;
+    }
+
+    private KeyMaterial loadFromParameterStore() {
+        return new KeyMaterial(parameterValue(keyPairIdParameterName), parameterValue(privateKeyParameterName));
+    }
+
+    private String parameterValue(String parameterName) {
+        return ssmClient.getParameter(GetParameterRequest.builder()
+                .name(parameterName)
+                .withDecryption(true)
+                .build()).parameter().value().trim();
+    }
+
+    private KeyMaterial loadFromFiles() throws IOException {
+        return new KeyMaterial(Files.readString(Path.of(keyPairIdPath)).trim(), Files.readString(Path.of(privateKeyPath)).trim());
+    }
+
+    @PostConstruct
+    private void loadInitialKey() {
+        if (!enabled) {
+            return;
+        }
+        requireSourceSettings();
+        // the startup key is already parsed into the signer bean, the material only tells refreshes it is loaded
+        stage(new KeyMaterial(cloudfrontDistributionKeyPairId.trim(), cloudfrontDistributionPrivateSignKey.trim()), warmUp(cloudFrontCannedPolicySigner));
+
+        if ("parameter-store".equals(source)) {
+            SsmClientBuilder ssmClientBuilder = SsmClient.builder()
+                    // explicit, the SDK refuses to pick one when an alternative HTTP client is on the classpath
+                    .httpClientBuilder(ApacheHttpClient.builder());
+            if (!parameterStoreEndpoint.isEmpty()) {
+                ssmClientBuilder.endpointOverride(URI.create(parameterStoreEndpoint));
+            }
+            ssmClient = ssmClientBuilder.build();
+        }
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cloudfront-key-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.scheduleWithFixedDelay(this::refresh, refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+        logger.info("cloudfront key rotation enabled, refreshing from {} every {}", source, refreshInterval);
+    }
+
+    /**
+     * fail the startup instead of refreshing from a location nobody configured
+     */
+    private void requireSourceSettings() {
+        switch (source) {
+            case "parameter-store" -> {
+                if (privateKeyParameterName.isBlank() || keyPairIdParameterName.isBlank()) {
+                    throw new IllegalStateException("cloudfront.key-rotation.source=parameter-store requires cloudfront.key-rotation.parameter-store.private-key-parameter "
+                            + "and cloudfront.key-rotation.parameter-store.key-pair-id-parameter");
+                }
+            }
+            case "file" -> {
+                if (privateKeyPath.isBlank() || keyPairIdPath.isBlank()) {
+                    throw new IllegalStateException("cloudfront.key-rotation.source=file requires cloudfront.key-rotation.file.private-key-path "
+                            + "and cloudfront.key-rotation.file.key-pair-id-path");
+                }
+            }
+            default -> throw new IllegalStateException(String.format("Unknown cloudfront.key-rotation.source: %s", source));
+        }
+    }
+
+    @PreDestroy
+    private void shutdownRefreshExecutor() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        if (ssmClient != null) {
+            ssmClient.close();
+        }
+    }
+
+    /**
+     * @param active           signs URLs now
+     * @param staged           next key, null when none is staged
+     * @param stagedActiveFrom the staged key signs URLs from this instant
+     */
+    private record KeyRingState(CloudFrontCannedPolicySigner active, CloudFrontCannedPolicySigner staged, Instant stagedActiveFrom) {
+    }
+
+    record KeyMaterial(String keyPairId, String privateKeyPem) {
+
+        @Override
+        public String toString() {
+            // never log the private key
+            return "KeyMaterial[keyPairId=" + keyPairId + "]";
+        }
+    }
+}
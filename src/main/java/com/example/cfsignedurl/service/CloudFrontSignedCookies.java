@@ -0,0 +1,133 @@
+package com.example.cfsignedurl.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Custom policy and its signature, as set in the CloudFront-Policy, CloudFront-Signature and
+ * CloudFront-Key-Pair-Id cookies.
+ *
+ * The policy resource may contain wildcards (eg: "testfolder/*"), so one signature authorises every
+ * object matching the S3 path pattern. The same values are used as the Policy, Signature and Key-Pair-Id
+ * query parameters of custom policy signed URLs, see toSignedUrl.
+ *
+ * @param s3PathPattern S3 object path pattern of the policy resource, "*" matches zero or more characters
+ *                      and "?" matches exactly one character
+ * @param policy        URL safe base64 encoded policy
+ * @param signature     URL safe base64 encoded SHA1withRSA signature of the policy
+ * @param keyPairId     CloudFront key pair id the policy is signed with
+ */
+public record CloudFrontSignedCookies(String s3PathPattern, String policy, String signature, String keyPairId) {
+
+    public static final String POLICY_COOKIE_NAME = "CloudFront-Policy";
+    public static final String SIGNATURE_COOKIE_NAME = "CloudFront-Signature";
+    public static final String KEY_PAIR_ID_COOKIE_NAME = "CloudFront-Key-Pair-Id";
+
+    public Map<String, String> toCookies() {
+        Map<String, String> cookies = new LinkedHashMap<>();
+        cookies.put(POLICY_COOKIE_NAME, policy);
+        cookies.put(SIGNATURE_COOKIE_NAME, signature);
+        cookies.put(KEY_PAIR_ID_COOKIE_NAME, keyPairId);
+        return cookies;
+    }
+
+    /**
+     * Whether the policy resource covers the given S3 object path
+     */
+    public boolean covers(String s3FilePath) {
+        return matches(s3PathPattern, s3FilePath);
+    }
+
+    /**
+     * Custom policy signed URL of the given resource, without signing again.
+     * The resource must be covered by the policy for CloudFront to accept the URL.
+     */
+    public String toSignedUrl(String resourceUrl) {
+        return resourceUrl
+                + (resourceUrl.indexOf('?') >= 0 ? "&" : "?")
+                + "Policy=" + policy
+                + "&Signature=" + signature
+                + "&Key-Pair-Id=" + keyPairId;
+    }
+
+    /**
+     * AWS:SourceIp of a custom policy, CloudFront only accepts CIDR ranges so a single IPv4 address becomes
+     * a /32 and a single IPv6 address a /128 range
+     *
+     * @param ipRange IP address or CIDR range, null or blank for no IP restriction
+     * @throws IllegalArgumentException when the value is neither
+     */
+    static String sourceIpRange(String ipRange) {
+        if (ipRange == null || ipRange.isBlank()) {
+            return null;
+        }
+        String range = ipRange.trim();
+        int slash = range.indexOf('/');
+        byte[] address = ipAddressOf(slash < 0 ? range : range.substring(0, slash));
+        if (address == null) {
+            throw new IllegalArgumentException(String.format("ip-range %s is not an IP address or CIDR range", ipRange));
+        }
+        int maxPrefixLength = address.length * 8;
+        if (slash < 0) {
+            return range + "/" + maxPrefixLength;
+        }
+        String prefixLength = range.substring(slash + 1);
+        if (prefixLength.isEmpty() || prefixLength.length() > 3 || !prefixLength.chars().allMatch(Character::isDigit)
+                || Integer.parseInt(prefixLength) > maxPrefixLength) {
+            throw new IllegalArgumentException(String.format("ip-range %s has an invalid prefix length, at most %d", ipRange, maxPrefixLength));
+        }
+        return range;
+    }
+
+    /**
+     * address bytes of an IP address literal, null for anything else so no host name is ever resolved
+     */
+    static byte[] ipAddressOf(String ip) {
+        if (ip.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (Character.digit(c, 16) < 0 && c != '.' && c != ':') {
+                return null;
+            }
+        }
+        if (ip.indexOf(':') < 0 && ip.chars().anyMatch(Character::isLetter)) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(ip).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    static boolean matches(String pattern, String path) {
+        // iterative wildcard matching with backtracking to the last "*"
+        int patternIndex = 0;
+        int pathIndex = 0;
+        int starIndex = -1;
+        int starMatchIndex = 0;
+        while (pathIndex < path.length()) {
+            if (patternIndex < pattern.length()
+                    && (pattern.charAt(patternIndex) == '?' || pattern.charAt(patternIndex) == path.charAt(pathIndex))) {
+                patternIndex++;
+                pathIndex++;
+            } else if (patternIndex < pattern.length() && pattern.charAt(patternIndex) == '*') {
+                starIndex = patternIndex++;
+                starMatchIndex = pathIndex;
+            } else if (starIndex >= 0) {
+                patternIndex = starIndex + 1;
+                pathIndex = ++starMatchIndex;
+            } else {
+                return false;
+            }
+        }
+        while (patternIndex < pattern.length() && pattern.charAt(patternIndex) == '*') {
+            patternIndex++;
+        }
+        return patternIndex == pattern.length();
+    }
+}
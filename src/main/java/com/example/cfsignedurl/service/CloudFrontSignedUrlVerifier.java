@@ -0,0 +1,500 @@
+package com.example.cfsignedurl.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.RSAKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verifies CloudFront signed URLs locally, the way CloudFront does, without sending a request through CloudFront.
+ *
+ * Canned policy URLs (Expires, Signature, Key-Pair-Id) and custom policy URLs (Policy, Signature, Key-Pair-Id)
+ * are both supported. The query string is scanned once, the URL safe base64 values are decoded into reusable
+ * buffers, and the SHA1withRSA signature is checked with a Signature taken from a pool of the key pair id,
+ * initialised once with its public key. The cheap checks (expiration, resource, dates) run before the signature.
+ *
+ * Public keys are known for the key the application signs with, the active key of the key ring and the
+ * "<key-pair-id>.pem" files (X.509 "BEGIN PUBLIC KEY" PEM, as uploaded to CloudFront) of the configured directory.
+ */
+@Service
+public class CloudFrontSignedUrlVerifier {
+
+    public enum Status {
+        VALID,
+        MALFORMED,
+        UNKNOWN_KEY,
+        EXPIRED,
+        NOT_YET_VALID,
+        RESOURCE_MISMATCH,
+        IP_MISMATCH,
+        INVALID_SIGNATURE
+    }
+
+    /**
+     * @param keyPairId null when the URL is malformed
+     * @param expires   end of the validity of the URL, null when the URL is malformed
+     */
+    public record Result(Status status, String keyPairId, Instant expires) {
+
+        public boolean isValid() {
+            return status == Status.VALID;
+        }
+    }
+
+    @Autowired
+    private CloudFrontCannedPolicySigner cannedPolicySigner;
+
+    @Autowired
+    private CloudFrontKeyRing cloudFrontKeyRing;
+
+    @Autowired
+    private SignedUrlMetrics signedUrlMetrics;
+
+    /**
+     * directory of "<key-pair-id>.pem" public keys accepted in addition to the keys the application signs with
+     */
+    @Value("${cloudfront.verifier.public-key-directory:}")
+    private String publicKeyDirectory;
+
+    private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+
+    private static final String EXPIRES = "Expires";
+    private static final String POLICY = "Policy";
+    private static final String SIGNATURE = "Signature";
+    private static final String KEY_PAIR_ID = "Key-Pair-Id";
+
+    private static final String POLICY_RESOURCE_PREFIX = "{\"Statement\":[{\"Resource\":\"";
+    private static final String POLICY_EPOCH_TIME_PREFIX = "\",\"Condition\":{\"DateLessThan\":{\"AWS:EpochTime\":";
+    private static final String POLICY_SUFFIX = "}}}]}";
+
+    private static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Clock clock;
+
+    private final Map<String, VerificationKey> verificationKeys = new ConcurrentHashMap<>();
+
+    private static final Logger logger = LoggerFactory.getLogger(CloudFrontSignedUrlVerifier.class);
+
+    public CloudFrontSignedUrlVerifier() {
+        this(Clock.systemUTC());
+    }
+
+    CloudFrontSignedUrlVerifier(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Accept URLs signed by the private key of the given public key
+     */
+    public void registerPublicKey(String keyPairId, PublicKey publicKey) {
+        verificationKeys.put(keyPairId, new VerificationKey(keyPairId, publicKey, DEFAULT_POOL_SIZE));
+    }
+
+    /**
+     * Verify the signed URL, the IP address condition of a custom policy is ignored
+     */
+    public Result verify(String signedUrl) {
+        return verify(signedUrl, null);
+    }
+
+    /**
+     * Verify the signed URL as if it was requested from the given IP address
+     *
+     * @param sourceIp optional, IP address the URL is requested from, checked against the IP address condition
+     *                 of a custom policy
+     */
+    public Result verify(String signedUrl, String sourceIp) {
+        Result result = verifyUrl(signedUrl, sourceIp);
+        signedUrlMetrics.recordVerification(result.status());
+        return result;
+    }
+
+    private Result verifyUrl(String signedUrl, String sourceIp) {
+        SignedUrl url = SignedUrl.parse(signedUrl);
+        if (url == null || url.signature() == null || url.keyPairId() == null || (url.expires() == null) == (url.policy() == null)) {
+            return new Result(Status.MALFORMED, null, null);
+        }
+        VerificationKey verificationKey = verificationKey(url.keyPairId());
+        if (verificationKey == null) {
+            return new Result(Status.UNKNOWN_KEY, url.keyPairId(), null);
+        }
+        return url.expires() != null ? verifyCannedPolicy(url, verificationKey) : verifyCustomPolicy(url, sourceIp, verificationKey);
+    }
+
+    private Result verifyCannedPolicy(SignedUrl url, VerificationKey verificationKey) {
+        long expiresEpochSeconds;
+        try {
+            expiresEpochSeconds = Long.parseLong(url.expires());
+        } catch (NumberFormatException e) {
+            return new Result(Status.MALFORMED, url.keyPairId(), null);
+        }
+        Instant expires = instantOfEpochSecond(expiresEpochSeconds);
+        if (expires == null) {
+            return new Result(Status.MALFORMED, url.keyPairId(), null);
+        }
+        if (!clock.instant().isBefore(expires)) {
+            return new Result(Status.EXPIRED, url.keyPairId(), expires);
+        }
+        // byte-wise identical to the policy CloudFrontCannedPolicySigner and both SDK signers sign
+        byte[] policy = (POLICY_RESOURCE_PREFIX + url.resourceUrl() + POLICY_EPOCH_TIME_PREFIX + expiresEpochSeconds + POLICY_SUFFIX)
+                .getBytes(StandardCharsets.UTF_8);
+        return new Result(verificationKey.verify(policy, policy.length, url.signature()), url.keyPairId(), expires);
+    }
+
+    private Result verifyCustomPolicy(SignedUrl url, String sourceIp, VerificationKey verificationKey) {
+        byte[] policy = decodeUrlSafeBase64(url.policy());
+        if (policy == null) {
+            return new Result(Status.MALFORMED, url.keyPairId(), null);
+        }
+        JsonNode statement;
+        try {
+            statement = objectMapper.readTree(policy).path("Statement").path(0);
+        } catch (IOException e) {
+            return new Result(Status.MALFORMED, url.keyPairId(), null);
+        }
+        JsonNode dateLessThan = statement.path("Condition").path("DateLessThan").path("AWS:EpochTime");
+        if (!statement.path("Resource").isTextual() || !dateLessThan.canConvertToLong()) {
+            return new Result(Status.MALFORMED, url.keyPairId(), null);
+        }
+        JsonNode dateGreaterThan = statement.path("Condition").path("DateGreaterThan").path("AWS:EpochTime");
+        Instant expires = instantOfEpochSecond(dateLessThan.asLong());
+        Instant notBefore = dateGreaterThan.canConvertToLong() ? instantOfEpochSecond(dateGreaterThan.asLong()) : Instant.MIN;
+        if (expires == null || notBefore == null) {
+            return new Result(Status.MALFORMED, url.keyPairId(), null);
+        }
+        Instant now = clock.instant();
+        if (!now.isBefore(expires)) {
+            return new Result(Status.EXPIRED, url.keyPairId(), expires);
+        }
+        if (now.isBefore(notBefore)) {
+            return new Result(Status.NOT_YET_VALID, url.keyPairId(), expires);
+        }
+        if (!CloudFrontSignedCookies.matches(statement.path("Resource").asText(), url.resourceUrl())) {
+            return new Result(Status.RESOURCE_MISMATCH, url.keyPairId(), expires);
+        }
+        JsonNode ipRange = statement.path("Condition").path("IpAddress").path("AWS:SourceIp");
+        if (sourceIp != null && ipRange.isTextual() && !inIpRange(sourceIp, ipRange.asText())) {
+            return new Result(Status.IP_MISMATCH, url.keyPairId(), expires);
+        }
+        return new Result(verificationKey.verify(policy, policy.length, url.signature()), url.keyPairId(), expires);
+    }
+
+    /**
+     * the epoch seconds of a URL are caller input, null when they are outside of the range of Instant
+     */
+    private static Instant instantOfEpochSecond(long epochSecond) {
+        if (epochSecond < Instant.MIN.getEpochSecond() || epochSecond > Instant.MAX.getEpochSecond()) {
+            return null;
+        }
+        return Instant.ofEpochSecond(epochSecond);
+    }
+
+    private VerificationKey verificationKey(String keyPairId) {
+        VerificationKey verificationKey = verificationKeys.get(keyPairId);
+        if (verificationKey == null && cloudFrontKeyRing.isEnabled()) {
+            // the key ring may have rotated to a key signed URLs were not verified with yet
+            CloudFrontCannedPolicySigner activeSigner = cloudFrontKeyRing.getActiveSigner();
+            if (activeSigner.getKeyPairId().equals(keyPairId)) {
+                verificationKey = verificationKeys.computeIfAbsent(keyPairId, id ->
+                        new VerificationKey(id, publicKeyOf(activeSigner.getPrivateKey()), DEFAULT_POOL_SIZE));
+            }
+        }
+        return verificationKey;
+    }
+
+    /**
+     * public key of an RSA private key holding its CRT parameters, as read from PKCS#1 and PKCS#8 PEM files
+     */
+    static PublicKey publicKeyOf(PrivateKey privateKey) {
+        if (!(privateKey instanceof RSAPrivateCrtKey rsaPrivateKey)) {
+            throw new IllegalArgumentException("The public key can only be derived from an RSA private key with CRT parameters");
+        }
+        try {
+            return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(rsaPrivateKey.getModulus(), rsaPrivateKey.getPublicExponent()));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to derive the RSA public key", e);
+        }
+    }
+
+    /**
+     * CloudFront url safe base64 variant, see CloudFrontCannedPolicySigner.toUrlSafe
+     *
+     * @return null when the value is not valid base64
+     */
+    static byte[] decodeUrlSafeBase64(String value) {
+        byte[] base64 = new byte[value.length()];
+        toBase64(value, base64);
+        try {
+            return Base64.getDecoder().decode(base64);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * decode into the given buffer, base64 is scratch space exactly as long as the value
+     *
+     * @return the number of decoded bytes, -1 when the value is not valid base64 or does not fit
+     */
+    private static int decodeUrlSafeBase64(String value, byte[] decoded, byte[] base64) {
+        toBase64(value, base64);
+        try {
+            return Base64.getDecoder().decode(base64, decoded);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * the standard base64 of a url safe base64 value, characters outside of both alphabets become an invalid '*'
+     */
+    private static void toBase64(String value, byte[] base64) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            base64[i] = (byte) switch (c) {
+                case '-' -> '+';
+                case '_' -> '=';
+                case '~' -> '/';
+                case '+', '/', '=' -> '*';
+                default -> c < 0x80 ? c : '*';
+            };
+        }
+    }
+
+    /**
+     * whether the IP address is in the IPv4 or IPv6 CIDR range (or equal to the address when there is no prefix length)
+     */
+    static boolean inIpRange(String ip, String ipRange) {
+        int slash = ipRange.indexOf('/');
+        byte[] address = CloudFrontSignedCookies.ipAddressOf(ip);
+        byte[] network = CloudFrontSignedCookies.ipAddressOf(slash < 0 ? ipRange : ipRange.substring(0, slash));
+        if (address == null || network == null || address.length != network.length) {
+            return false;
+        }
+        int prefixLength;
+        try {
+            prefixLength = slash < 0 ? network.length * 8 : Integer.parseInt(ipRange.substring(slash + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (prefixLength < 0 || prefixLength > network.length * 8) {
+            return false;
+        }
+        for (int bit = 0; bit < prefixLength; bit += 8) {
+            int mask = prefixLength - bit >= 8 ? 0xFF : (0xFF << (8 - (prefixLength - bit))) & 0xFF;
+            if ((address[bit / 8] & mask) != (network[bit / 8] & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @PostConstruct
+    private void loadPublicKeys() {
+        registerPublicKey(cannedPolicySigner.getKeyPairId(), publicKeyOf(cannedPolicySigner.getPrivateKey()));
+        if (publicKeyDirectory.isEmpty()) {
+            return;
+        }
+        try (DirectoryStream<Path> publicKeyFiles = Files.newDirectoryStream(Path.of(publicKeyDirectory), "*.pem")) {
+            for (Path publicKeyFile : publicKeyFiles) {
+                String fileName = publicKeyFile.getFileName().toString();
+                String keyPairId = fileName.substring(0, fileName.length() - ".pem".length());
+                registerPublicKey(keyPairId, readPublicKey(Files.readString(publicKeyFile)));
+                logger.info("cloudfront public key {} loaded from {}", keyPairId, publicKeyFile);
+            }
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+            throw new RuntimeException(String.format("Failed to load the Cloudfront public keys from %s. ERROR: %s", publicKeyDirectory, e.getMessage()), e);
+        }
+    }
+
+    private static PublicKey readPublicKey(String pem) throws GeneralSecurityException {
+        String base64 = pem.replace("-----BEGIN PUBLIC KEY-----", "").replace("-----END PUBLIC KEY-----", "");
+        return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(Base64.getMimeDecoder().decode(base64)));
+    }
+
+    /**
+     * Signing parameters of a signed URL, and the URL without them (the resource the policy is signed for)
+     */
+    record SignedUrl(String resourceUrl, String expires, String policy, String signature, String keyPairId) {
+
+        /**
+         * @return null when the URL has no query string or a signing parameter is repeated
+         */
+        static SignedUrl parse(String signedUrl) {
+            int queryStart = signedUrl.indexOf('?');
+            if (queryStart < 0) {
+                return null;
+            }
+            int queryEnd = signedUrl.indexOf('#', queryStart);
+            if (queryEnd < 0) {
+                queryEnd = signedUrl.length();
+            }
+            StringBuilder resourceUrl = new StringBuilder(queryEnd).append(signedUrl, 0, queryStart);
+            String expires = null;
+            String policy = null;
+            String signature = null;
+            String keyPairId = null;
+            int parameterStart = queryStart + 1;
+            while (parameterStart <= queryEnd) {
+                int parameterEnd = signedUrl.indexOf('&', parameterStart);
+                if (parameterEnd < 0 || parameterEnd > queryEnd) {
+                    parameterEnd = queryEnd;
+                }
+                int nameEnd = signedUrl.indexOf('=', parameterStart);
+                if (nameEnd < 0 || nameEnd > parameterEnd) {
+                    nameEnd = parameterEnd;
+                }
+                String value = nameEnd < parameterEnd ? signedUrl.substring(nameEnd + 1, parameterEnd) : "";
+                if (isParameter(signedUrl, parameterStart, nameEnd, EXPIRES)) {
+                    if (expires != null) {
+                        return null;
+                    }
+                    expires = value;
+                } else if (isParameter(signedUrl, parameterStart, nameEnd, POLICY)) {
+                    if (policy != null) {
+                        return null;
+                    }
+                    policy = value;
+                } else if (isParameter(signedUrl, parameterStart, nameEnd, SIGNATURE)) {
+                    if (signature != null) {
+                        return null;
+                    }
+                    signature = value;
+                } else if (isParameter(signedUrl, parameterStart, nameEnd, KEY_PAIR_ID)) {
+                    if (keyPairId != null) {
+                        return null;
+                    }
+                    keyPairId = value;
+                } else if (parameterEnd > parameterStart) {
+                    // other query parameters are part of the signed resource URL
+                    resourceUrl.append(resourceUrl.length() == queryStart ? '?' : '&').append(signedUrl, parameterStart, parameterEnd);
+                }
+                parameterStart = parameterEnd + 1;
+            }
+            return new SignedUrl(resourceUrl.toString(), expires, policy, signature, keyPairId);
+        }
+
+        private static boolean isParameter(String url, int nameStart, int nameEnd, String name) {
+            return nameEnd - nameStart == name.length() && url.startsWith(name, nameStart);
+        }
+    }
+
+    /**
+     * Public key of a key pair id and a pool of Signature verifiers initialised with it
+     */
+    private static final class VerificationKey {
+
+        private final String keyPairId;
+
+        private final PublicKey publicKey;
+
+        /**
+         * size of the RSA signature in bytes, which is the size of the key modulus
+         */
+        private final int signatureLength;
+
+        /**
+         * idle verification contexts, a context is used by one thread at a time
+         */
+        private final ArrayBlockingQueue<VerificationContext> verificationContexts;
+
+        private VerificationKey(String keyPairId, PublicKey publicKey, int poolSize) {
+            if (!(publicKey instanceof RSAKey rsaKey)) {
+                throw new IllegalArgumentException(String.format("CloudFront key pair id %s requires an RSA public key", keyPairId));
+            }
+            this.keyPairId = keyPairId;
+            this.publicKey = publicKey;
+            this.signatureLength = (rsaKey.getModulus().bitLength() + 7) / 8;
+            this.verificationContexts = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+            // fail fast on an unusable key
+            verificationContexts.offer(newVerificationContext());
+        }
+
+        private Status verify(byte[] policy, int policyLength, String encodedSignature) {
+            VerificationContext context = verificationContexts.poll();
+            if (context == null) {
+                context = newVerificationContext();
+            }
+            Status status = context.verify(policy, policyLength, encodedSignature);
+            // contexts beyond the pool capacity are simply dropped, as are contexts left in an unknown state
+            if (context.reusable) {
+                verificationContexts.offer(context);
+            }
+            return status;
+        }
+
+        private VerificationContext newVerificationContext() {
+            try {
+                Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+                signature.initVerify(publicKey);
+                return new VerificationContext(signature, signatureLength);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(String.format("Failed to initialise the %s verifier for key pair id %s", SIGNATURE_ALGORITHM, keyPairId), e);
+            }
+        }
+    }
+
+    /**
+     * Signature verifier and the buffers its signature is decoded into
+     */
+    private static final class VerificationContext {
+
+        private final Signature signature;
+
+        private final byte[] signatureBytes;
+
+        private final byte[] encodedSignature;
+
+        /**
+         * false once the verifier failed, it may not have been reset
+         */
+        private boolean reusable = true;
+
+        private VerificationContext(Signature signature, int signatureLength) {
+            this.signature = signature;
+            this.signatureBytes = new byte[signatureLength];
+            this.encodedSignature = new byte[4 * ((signatureLength + 2) / 3)];
+        }
+
+        private Status verify(byte[] policy, int policyLength, String encoded) {
+            // a valid signature is exactly as long as the key modulus, so it fills both buffers
+            if (encoded.length() != encodedSignature.length || decodeUrlSafeBase64(encoded, signatureBytes, encodedSignature) != signatureBytes.length) {
+                return Status.INVALID_SIGNATURE;
+            }
+            try {
+                signature.update(policy, 0, policyLength);
+                return signature.verify(signatureBytes) ? Status.VALID : Status.INVALID_SIGNATURE;
+            } catch (GeneralSecurityException e) {
+                reusable = false;
+                return Status.INVALID_SIGNATURE;
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.cfsignedurl.service;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit with a bounded, time limited wait queue.
+ *
+ * Up to limit operations run at the same time. Further operations wait in arrival order until one completes,
+ * but at most maxQueue of them and for at most queueTimeout, the others are turned away at once.
+ *
+ * The limit is fixed, or adapts to the latency reported by the completed operations between minLimit and maxLimit:
+ * AIMD: grows by 1/limit per completion while at least half of the limit is in use, and is multiplied by the
+ * backoff ratio on a failure or a latency above the threshold.
+ * VEGAS: estimates the operations queued downstream as limit * (1 - minimum latency / latency), grows while it is
+ * below 3 and shrinks while it is above 6. Failures are handled as in AIMD. The minimum latency is measured again
+ * after 30 * limit completions, so a lasting change of the downstream latency is picked up.
+ */
+public class ConcurrencyLimiter {
+
+    public enum Adaptation {
+        NONE,
+        AIMD,
+        VEGAS
+    }
+
+    public enum Admission {
+        ADMITTED,
+        QUEUE_FULL,
+        QUEUE_TIMEOUT
+    }
+
+    private static final int VEGAS_ALPHA = 3;
+    private static final int VEGAS_BETA = 6;
+    private static final int VEGAS_PROBE_MULTIPLIER = 30;
+
+    private final Adaptation adaptation;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int maxQueue;
+
+    private final long queueTimeoutNanos;
+
+    private final long latencyThresholdNanos;
+
+    private final double backoffRatio;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition permitReleased = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+
+    private long minLatencyNanos;
+    private long samplesSinceProbe;
+
+    public ConcurrencyLimiter(int limit, int maxQueue, Duration queueTimeout) {
+        this(Adaptation.NONE, limit, limit, limit, maxQueue, queueTimeout, Duration.ZERO, 1);
+    }
+
+    /**
+     * @param latencyThreshold AIMD only, completions slower than this shrink the limit
+     * @param backoffRatio     the limit is multiplied by this ratio when it shrinks after a failure
+     */
+    public ConcurrencyLimiter(Adaptation adaptation, int initialLimit, int minLimit, int maxLimit, int maxQueue,
+                              Duration queueTimeout, Duration latencyThreshold, double backoffRatio) {
+        this.adaptation = adaptation;
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+        this.maxQueue = Math.max(maxQueue, 0);
+        this.queueTimeoutNanos = queueTimeout.toNanos();
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * Start an operation, waiting in the queue when the limit is reached.
+     * The operation must be completed with release once admitted.
+     */
+    public Admission acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            // operations waiting in the queue go first
+            if (queued == 0 && inFlight < (int) limit) {
+                inFlight++;
+                return Admission.ADMITTED;
+            }
+            if (queued >= maxQueue) {
+                return Admission.QUEUE_FULL;
+            }
+            queued++;
+            try {
+                long remainingNanos = queueTimeoutNanos;
+                while (inFlight >= (int) limit) {
+                    if (remainingNanos <= 0) {
+                        return Admission.QUEUE_TIMEOUT;
+                    }
+                    remainingNanos = permitReleased.awaitNanos(remainingNanos);
+                }
+                inFlight++;
+                return Admission.ADMITTED;
+            } catch (InterruptedException e) {
+                // hand a signal this thread may have consumed to the next waiting operation
+                permitReleased.signal();
+                throw e;
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Complete an admitted operation
+     *
+     * @param latencyNanos time from the admission to the completion
+     * @param failed       the operation failed in a way that suggests overload downstream, eg: a 5xx response
+     */
+    public void release(long latencyNanos, boolean failed) {
+        lock.lock();
+        try {
+            adapt(latencyNanos, failed);
+            inFlight--;
+            // the limit may have grown, wake as many waiting operations as there are free permits
+            int permits = Math.min((int) limit - inFlight, queued);
+            for (int i = 0; i < permits; i++) {
+                permitReleased.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adapt(long latencyNanos, boolean failed) {
+        if (adaptation == Adaptation.NONE) {
+            return;
+        }
+        if (failed || (adaptation == Adaptation.AIMD && latencyNanos > latencyThresholdNanos)) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            return;
+        }
+        // a limit that is not used says nothing about the capacity downstream
+        boolean saturated = inFlight * 2 >= limit;
+        if (adaptation == Adaptation.AIMD) {
+            if (saturated) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            return;
+        }
+
+        if (++samplesSinceProbe > VEGAS_PROBE_MULTIPLIER * limit) {
+            samplesSinceProbe = 0;
+            minLatencyNanos = 0;
+        }
+        if (minLatencyNanos == 0 || latencyNanos < minLatencyNanos) {
+            minLatencyNanos = Math.max(latencyNanos, 1);
+            return;
+        }
+        double downstreamQueue = limit * (1 - (double) minLatencyNanos / latencyNanos);
+        double step = Math.max(1, Math.log10(limit));
+        if (downstreamQueue < VEGAS_ALPHA && saturated) {
+            limit = Math.min(maxLimit, limit + step);
+        } else if (downstreamQueue > VEGAS_BETA) {
+            limit = Math.max(minLimit, limit - step);
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.service.S3StreamingUploader.S3UploadOutputStream;
+import com.example.cfsignedurl.service.SignedUrlMetrics.SdkVersion;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Exports reports as CSV files to S3 and returns their CloudFront signed URLs.
+ *
+ * Rows are CSV encoded as they are produced and written straight into the pooled part buffers of
+ * S3StreamingUploader, which uploads the filled parts concurrently while the next rows are encoded.
+ * Memory use is bounded by the uploader's buffer pool, not by the report size, and a slow upload
+ * slows down the row source instead of buffering rows.
+ * A report is limited to the 10,000 parts of a multipart upload, about 80 GB with the default 8 MiB part size.
+ * The export fails as soon as a report outgrows that, without uploading the rest of it.
+ */
+@Service
+public class CsvReportExporter {
+
+    private static final char SEPARATOR = ',';
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    @Autowired
+    private S3StreamingUploader s3StreamingUploader;
+
+    @Autowired
+    private AWSS3ServiceSDKVersionTwo awss3ServiceSDKVersionTwo;
+
+    @Autowired
+    private SignedUrlMetrics signedUrlMetrics;
+
+    /**
+     * AWS S3 private bucket name
+     */
+    @Value("${s3.bucket}")
+    private String s3Bucket;
+
+    /**
+     * size of the character buffer in front of the upload stream
+     */
+    @Value("${s3.report.write-buffer-size:65536}")
+    private int writeBufferSize;
+
+    /**
+     * maximum number of rows of a report generated by the report endpoint
+     */
+    @Value("${s3.report.max-rows:1000000}")
+    private long maxRows;
+
+    private static final Logger logger = LoggerFactory.getLogger(CsvReportExporter.class);
+
+
+    public long getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * Upload the rows as a CSV file and sign its URL once the upload is complete
+     *
+     * @param header column names, null for no header row
+     * @param rows   row values, null values are written as empty fields
+     */
+    public String exportReport(String s3FilePath, List<String> header, Iterator<? extends List<?>> rows) throws IOException {
+        long uploadStart = signedUrlMetrics.start();
+        S3UploadOutputStream uploadStream = s3StreamingUploader.openUploadStream(s3Bucket, s3FilePath);
+        long rowCount = 0;
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(uploadStream, StandardCharsets.UTF_8), writeBufferSize);
+            if (header != null) {
+                writeRow(writer, header);
+            }
+            while (rows.hasNext()) {
+                writeRow(writer, rows.next());
+                rowCount++;
+            }
+            writer.flush();
+        } catch (IOException | RuntimeException e) {
+            uploadStream.abort();
+            signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2, uploadStart, e);
+            logger.error("report: {} export failed after {} rows. ERROR: {}", s3FilePath, rowCount, e.getMessage());
+            throw e;
+        }
+        try {
+            uploadStream.close();
+        } catch (IOException | RuntimeException e) {
+            signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2, uploadStart, e);
+            logger.error("report: {} upload failed. ERROR: {}", s3FilePath, e.getMessage());
+            throw e;
+        }
+        signedUrlMetrics.recordUpload(SdkVersion.SDK_V2, uploadStart, uploadStream.getBytesWritten());
+        logger.info("report: {} uploaded, {} rows, {} bytes", s3FilePath, rowCount, uploadStream.getBytesWritten());
+
+        try {
+            return awss3ServiceSDKVersionTwo.generateCloudFrontSignedUrlByS3ObjectPath(s3FilePath);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Upload the rows of the stream as a CSV file, the stream is closed once it is consumed
+     */
+    public String exportReport(String s3FilePath, List<String> header, Stream<? extends List<?>> rows) throws IOException {
+        try (rows) {
+            return exportReport(s3FilePath, header, rows.iterator());
+        }
+    }
+
+    /**
+     * Upload the rows published by the publisher as a CSV file. Rows are requested one by one and encoded on the
+     * publisher's thread, so the publisher is only asked for the next row once the previous one is buffered.
+     *
+     * @return completes with the signed URL once the upload is complete
+     */
+    public CompletableFuture<String> exportReport(String s3FilePath, List<String> header, Publisher<? extends List<?>> rows) {
+        CsvRowSubscriber subscriber = new CsvRowSubscriber(s3FilePath, header);
+        rows.subscribe(subscriber);
+        return subscriber.signedUrl;
+    }
+
+    /**
+     * RFC 4180 CSV row: fields containing a separator, a quote or a line break are quoted,
+     * quotes are escaped by doubling them
+     */
+    static void writeRow(Writer writer, List<?> row) throws IOException {
+        for (int i = 0; i < row.size(); i++) {
+            if (i > 0) {
+                writer.write(SEPARATOR);
+            }
+            Object value = row.get(i);
+            if (value != null) {
+                writeField(writer, value.toString());
+            }
+        }
+        writer.write(LINE_SEPARATOR);
+    }
+
+    private static void writeField(Writer writer, String field) throws IOException {
+        if (!requiresQuotes(field)) {
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < field.length(); i++) {
+            if (field.charAt(i) == '"') {
+                writer.write(field, start, i + 1 - start);
+                writer.write('"');
+                start = i + 1;
+            }
+        }
+        writer.write(field, start, field.length() - start);
+        writer.write('"');
+    }
+
+    private static boolean requiresQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == SEPARATOR || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the published rows to one upload stream. onNext encodes the row, so the next row is only
+     * requested once the previous one is in the upload buffers.
+     */
+    private class CsvRowSubscriber implements Subscriber<List<?>> {
+
+        private final String s3FilePath;
+
+        private final List<String> header;
+
+        private final CompletableFuture<String> signedUrl = new CompletableFuture<>();
+
+        private Subscription subscription;
+
+        private S3UploadOutputStream uploadStream;
+
+        private Writer writer;
+
+        private long uploadStart;
+
+        private CsvRowSubscriber(String s3FilePath, List<String> header) {
+            this.s3FilePath = s3FilePath;
+            this.header = header;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            uploadStart = signedUrlMetrics.start();
+            uploadStream = s3StreamingUploader.openUploadStream(s3Bucket, s3FilePath);
+            writer = new BufferedWriter(new OutputStreamWriter(uploadStream, StandardCharsets.UTF_8), writeBufferSize);
+            try {
+                if (header != null) {
+                    writeRow(writer, header);
+                }
+            } catch (IOException e) {
+                fail(new UncheckedIOException(e));
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<?> row) {
+            if (signedUrl.isDone()) {
+                return;
+            }
+            try {
+                writeRow(writer, row);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            fail(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (signedUrl.isDone()) {
+                return;
+            }
+            try {
+                writer.flush();
+                uploadStream.close();
+            } catch (IOException | RuntimeException e) {
+                signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2, uploadStart, e);
+                logger.error("report: {} upload failed. ERROR: {}", s3FilePath, e.getMessage());
+                signedUrl.completeExceptionally(e);
+                return;
+            }
+            signedUrlMetrics.recordUpload(SdkVersion.SDK_V2, uploadStart, uploadStream.getBytesWritten());
+            logger.info("report: {} uploaded, {} bytes", s3FilePath, uploadStream.getBytesWritten());
+            try {
+                signedUrl.complete(awss3ServiceSDKVersionTwo.generateCloudFrontSignedUrlByS3ObjectPath(s3FilePath));
+            } catch (Exception e) {
+                signedUrl.completeExceptionally(e);
+            }
+        }
+
+        private void fail(Throwable throwable) {
+            if (signedUrl.isDone()) {
+                return;
+            }
+            subscription.cancel();
+            uploadStream.abort();
+            signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2, uploadStart, throwable);
+            logger.error("report: {} export failed. ERROR: {}", s3FilePath, throwable.getMessage());
+            signedUrl.completeExceptionally(throwable);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.cfsignedurl.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Count based circuit breaker of the S3 uploads.
+ *
+ * closed: calls pass, the outcomes of the last window-size calls are kept. Once at least minimum-calls outcomes
+ * are known and the share of failures reaches the threshold, the breaker opens.
+ * open: calls are rejected without reaching S3 until the open duration has passed.
+ * half-open: the given number of trial calls pass, the breaker closes when all of them succeed and opens again
+ * on the first failure. Further calls are rejected until the trials are done.
+ */
+public class S3CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int minimumCalls;
+
+    private final double failureRateThreshold;
+
+    private final long openDurationNanos;
+
+    private final int halfOpenCalls;
+
+    private final LongSupplier nanoClock;
+
+    /**
+     * outcomes of the last calls in the closed state, true for a failure
+     */
+    private final boolean[] outcomes;
+
+    private int nextOutcome;
+    private int recordedOutcomes;
+    private int failedOutcomes;
+
+    private State state = State.CLOSED;
+    private long openedAtNanos;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+    private long openedCount;
+
+    private static final Logger logger = LoggerFactory.getLogger(S3CircuitBreaker.class);
+
+    public S3CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, Duration openDuration, int halfOpenCalls) {
+        this(windowSize, minimumCalls, failureRateThreshold, openDuration, halfOpenCalls, System::nanoTime);
+    }
+
+    S3CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, Duration openDuration, int halfOpenCalls, LongSupplier nanoClock) {
+        this.outcomes = new boolean[Math.max(windowSize, 1)];
+        this.minimumCalls = Math.max(Math.min(minimumCalls, outcomes.length), 1);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+        this.halfOpenCalls = Math.max(halfOpenCalls, 1);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return false when the call must not be made, otherwise the caller reports its outcome with one of the on* methods
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (nanoClock.getAsLong() - openedAtNanos < openDurationNanos) {
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSuccesses = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits == 0) {
+                return false;
+            }
+            halfOpenPermits--;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++halfOpenSuccesses >= halfOpenCalls) {
+                resetOutcomes();
+                transitionTo(State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            recordOutcome(false);
+        }
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            recordOutcome(true);
+            if (recordedOutcomes >= minimumCalls && (double) failedOutcomes / recordedOutcomes >= failureRateThreshold) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * the call was abandoned without an outcome (eg: interrupted), its half-open trial is handed to the next call
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && halfOpenSuccesses + halfOpenPermits < halfOpenCalls) {
+            halfOpenPermits++;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * number of times the breaker opened
+     */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    private void recordOutcome(boolean failure) {
+        if (recordedOutcomes == outcomes.length) {
+            if (outcomes[nextOutcome]) {
+                failedOutcomes--;
+            }
+        } else {
+            recordedOutcomes++;
+        }
+        outcomes[nextOutcome] = failure;
+        if (failure) {
+            failedOutcomes++;
+        }
+        nextOutcome = (nextOutcome + 1) % outcomes.length;
+    }
+
+    private void resetOutcomes() {
+        nextOutcome = 0;
+        recordedOutcomes = 0;
+        failedOutcomes = 0;
+    }
+
+    private void open() {
+        openedAtNanos = nanoClock.getAsLong();
+        openedCount++;
+        transitionTo(State.OPEN);
+    }
+
+    private void transitionTo(State newState) {
+        if (state != newState) {
+            logger.warn("S3 circuit breaker {} -> {}", state, newState);
+            state = newState;
+        }
+    }
+}
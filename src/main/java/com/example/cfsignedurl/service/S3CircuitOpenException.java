@@ -0,0 +1,13 @@
+package com.example.cfsignedurl.service;
+
+/**
+ * An S3 upload was rejected without reaching S3 because the S3 circuit breaker is open
+ */
+public class S3CircuitOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public S3CircuitOpenException(String message) {
+        super(message);
+    }
+}
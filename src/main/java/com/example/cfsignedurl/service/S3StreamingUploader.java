@@ -0,0 +1,457 @@
+package com.example.cfsignedurl.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads streams to S3 without staging them on disk.
+ *
+ * Payloads in memory that are smaller than a part are uploaded with a single PutObject request straight from
+ * the caller's array, without a pooled buffer.
+ * Streamed content is written into part sized buffers taken from a bounded pool shared by all uploads.
+ * Content that ends within the first buffer is copied out of it, so the buffer goes back to the pool before
+ * the single PutObject request is sent. Larger content is uploaded as an S3 multipart upload, where each filled
+ * buffer is uploaded as a part on the part upload executor while the next buffer is being filled.
+ * Writers wait up to buffer-wait-timeout while all buffers are in use, so the pooled memory is
+ * buffer-count * part-size regardless of the object sizes or the number of concurrent uploads.
+ * S3 accepts at most 10,000 parts per multipart upload, so a stream holds at most 10,000 * part-size bytes
+ * (about 80 GB with the default 8 MiB part size), a write beyond that fails the upload with an IOException.
+ */
+@Component
+public class S3StreamingUploader {
+
+    private static final int MINIMUM_PART_SIZE = 5 * 1024 * 1024;
+
+    /**
+     * parts of a multipart upload accepted by S3
+     */
+    private static final int MAXIMUM_PARTS = 10_000;
+
+    @Autowired
+    private S3Client s3Client;
+
+    /**
+     * size of a multipart upload part, payloads smaller than this are uploaded with a single PutObject request.
+     * S3 requires at least 5MB for every part except the last one.
+     */
+    @Value("${s3.upload.part-size:8388608}")
+    private int partSize;
+
+    /**
+     * number of parts uploaded concurrently across all uploads
+     */
+    @Value("${s3.upload.concurrency:4}")
+    private int concurrency;
+
+    /**
+     * number of part buffers shared by all uploads, defaults to twice the concurrency
+     */
+    @Value("${s3.upload.buffer-count:0}")
+    private int bufferCount;
+
+    /**
+     * a writer waiting longer than this for a free buffer fails its upload with an IOException
+     */
+    @Value("${s3.upload.buffer-wait-timeout:PT10S}")
+    private Duration bufferWaitTimeout;
+
+    private ArrayBlockingQueue<ByteBuffer> buffers;
+
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+
+    private ExecutorService partUploadExecutor;
+
+    private static final Logger logger = LoggerFactory.getLogger(S3StreamingUploader.class);
+
+
+    public int getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * @return the largest object a stream can upload, MAXIMUM_PARTS parts of the part size
+     */
+    private long maximumUploadSize() {
+        return (long) MAXIMUM_PARTS * partSize;
+    }
+
+    /**
+     * Upload the remaining content of the given stream to S3. The stream is not closed.
+     *
+     * @return the number of bytes uploaded
+     */
+    public long upload(String s3Bucket, String s3FilePath, InputStream inputStream) throws IOException {
+        S3UploadOutputStream uploadStream = openUploadStream(s3Bucket, s3FilePath);
+        try {
+            uploadStream.transferFrom(inputStream);
+        } catch (IOException | RuntimeException e) {
+            uploadStream.abort();
+            throw e;
+        }
+        uploadStream.close();
+        return uploadStream.getBytesWritten();
+    }
+
+    /**
+     * Upload the given content to S3, with a single PutObject request from the given array when it is smaller
+     * than a part, as a multipart upload otherwise. The array must not change during the upload.
+     *
+     * @return the number of bytes uploaded
+     */
+    public long upload(String s3Bucket, String s3FilePath, byte[] content) throws IOException {
+        if (content.length >= partSize) {
+            return upload(s3Bucket, s3FilePath, new ByteArrayInputStream(content));
+        }
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(s3Bucket)
+                .key(s3FilePath)
+                .build();
+        s3Client.putObject(putObjectRequest, requestBodyOf(content, content.length));
+        return content.length;
+    }
+
+    /**
+     * Upload the remaining content of the given buffer to S3, with a single PutObject request when it is smaller
+     * than a part, as a multipart upload otherwise. The position of the buffer is not changed.
+     *
+     * @return the number of bytes uploaded
+     */
+    public long upload(String s3Bucket, String s3FilePath, ByteBuffer byteBuffer) throws IOException {
+        if (byteBuffer.remaining() >= partSize) {
+            S3UploadOutputStream uploadStream = openUploadStream(s3Bucket, s3FilePath);
+            try {
+                uploadStream.write(byteBuffer.duplicate());
+            } catch (IOException | RuntimeException e) {
+                uploadStream.abort();
+                throw e;
+            }
+            uploadStream.close();
+            return uploadStream.getBytesWritten();
+        }
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(s3Bucket)
+                .key(s3FilePath)
+                .build();
+        s3Client.putObject(putObjectRequest, RequestBody.fromRemainingByteBuffer(byteBuffer));
+        return byteBuffer.remaining();
+    }
+
+    /**
+     * Open a stream that uploads everything written to it to the given S3 object. The object is created
+     * when the stream is closed, unless the stream is aborted first.
+     */
+    public S3UploadOutputStream openUploadStream(String s3Bucket, String s3FilePath) {
+        return new S3UploadOutputStream(s3Bucket, s3FilePath);
+    }
+
+    private ByteBuffer acquireBuffer() throws IOException {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (allocatedBuffers.getAndIncrement() < bufferCount) {
+            return ByteBuffer.allocate(partSize);
+        }
+        allocatedBuffers.decrementAndGet();
+        try {
+            buffer = buffers.poll(bufferWaitTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            if (buffer == null) {
+                throw new IOException(String.format("No upload buffer became available within %s, all %d are in use", bufferWaitTimeout, bufferCount));
+            }
+            return buffer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an upload buffer");
+        }
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    private static RequestBody requestBodyOf(ByteBuffer buffer) {
+        return requestBodyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * request body reading the array without copying it, a new stream for every attempt of the SDK
+     */
+    private static RequestBody requestBodyOf(byte[] content, int length) {
+        return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(content, 0, length), length, "application/octet-stream");
+    }
+
+    @PostConstruct
+    private void createBufferPool() {
+        if (partSize < MINIMUM_PART_SIZE) {
+            throw new IllegalStateException(String.format("s3.upload.part-size must be at least %d bytes", MINIMUM_PART_SIZE));
+        }
+        if (bufferCount <= 0) {
+            bufferCount = concurrency * 2;
+        }
+        buffers = new ArrayBlockingQueue<>(bufferCount);
+        partUploadExecutor = Executors.newFixedThreadPool(concurrency);
+        logger.info("streaming uploads use {} buffers of {} bytes and {} part upload threads", bufferCount, partSize, concurrency);
+    }
+
+    @PreDestroy
+    private void shutdownPartUploadExecutor() {
+        partUploadExecutor.shutdown();
+    }
+
+    /**
+     * OutputStream writing into pooled part buffers. Not thread safe, one writer per stream.
+     */
+    public class S3UploadOutputStream extends OutputStream {
+
+        private final String s3Bucket;
+
+        private final String s3FilePath;
+
+        private ByteBuffer currentBuffer;
+
+        private String uploadId;
+
+        private final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+
+        private long bytesWritten;
+
+        private boolean closed;
+
+        private S3UploadOutputStream(String s3Bucket, String s3FilePath) {
+            this.s3Bucket = s3Bucket;
+            this.s3FilePath = s3FilePath;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            writableBuffer().put((byte) b);
+            bytesWritten++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                ByteBuffer buffer = writableBuffer();
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+                bytesWritten += chunk;
+            }
+        }
+
+        /**
+         * Write the remaining content of the given buffer into the part buffers
+         */
+        public void write(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                ByteBuffer buffer = writableBuffer();
+                int chunk = Math.min(source.remaining(), buffer.remaining());
+                buffer.put(source.slice(source.position(), chunk));
+                source.position(source.position() + chunk);
+                bytesWritten += chunk;
+            }
+        }
+
+        /**
+         * Read the remaining content of the given stream straight into the part buffers
+         */
+        public void transferFrom(InputStream inputStream) throws IOException {
+            while (true) {
+                ByteBuffer buffer = writableBuffer();
+                int read = inputStream.read(buffer.array(), buffer.position(), buffer.remaining());
+                if (read < 0) {
+                    return;
+                }
+                buffer.position(buffer.position() + read);
+                bytesWritten += read;
+            }
+        }
+
+        /**
+         * Upload the buffered content and complete the upload
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (uploadId == null) {
+                putObjectFromCurrentBuffer();
+                return;
+            }
+            try {
+                if (currentBuffer != null && currentBuffer.position() > 0) {
+                    submitCurrentBuffer();
+                }
+                // the buffer acquired after the last full part when the content is a multiple of the part size
+                releaseCurrentBuffer();
+                List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+                for (CompletableFuture<CompletedPart> part : parts) {
+                    completedParts.add(join(part));
+                }
+                completedParts.sort(Comparator.comparing(CompletedPart::partNumber));
+                s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                        .bucket(s3Bucket)
+                        .key(s3FilePath)
+                        .uploadId(uploadId)
+                        .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                        .build());
+                logger.debug("file: {} uploaded in {} parts, {} bytes", s3FilePath, completedParts.size(), bytesWritten);
+            } catch (IOException | RuntimeException e) {
+                releaseCurrentBuffer();
+                abortMultipartUpload();
+                throw e;
+            }
+        }
+
+        /**
+         * Discard everything written so far, the S3 object is not created
+         */
+        public void abort() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            releaseCurrentBuffer();
+            if (uploadId != null) {
+                abortMultipartUpload();
+            }
+        }
+
+        private ByteBuffer writableBuffer() throws IOException {
+            if (closed) {
+                throw new IOException(String.format("Upload stream of %s is closed", s3FilePath));
+            }
+            if (currentBuffer != null && !currentBuffer.hasRemaining()) {
+                if (uploadId == null) {
+                    uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                            .bucket(s3Bucket)
+                            .key(s3FilePath)
+                            .build()).uploadId();
+                }
+                submitCurrentBuffer();
+            }
+            if (currentBuffer == null) {
+                currentBuffer = acquireBuffer();
+            }
+            return currentBuffer;
+        }
+
+        private void submitCurrentBuffer() throws IOException {
+            // fail fast instead of uploading the remaining parts of a failed upload
+            for (CompletableFuture<CompletedPart> part : parts) {
+                if (part.isCompletedExceptionally()) {
+                    join(part);
+                }
+            }
+            if (parts.size() == MAXIMUM_PARTS) {
+                throw new IOException(String.format("file: %s exceeds the %d parts of a multipart upload, at most %d bytes with a part size of %d bytes",
+                        s3FilePath, MAXIMUM_PARTS, maximumUploadSize(), partSize));
+            }
+            ByteBuffer buffer = currentBuffer;
+            currentBuffer = null;
+            int partNumber = parts.size() + 1;
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    String eTag = s3Client.uploadPart(UploadPartRequest.builder()
+                            .bucket(s3Bucket)
+                            .key(s3FilePath)
+                            .uploadId(uploadId)
+                            .partNumber(partNumber)
+                            .contentLength((long) buffer.position())
+                            .build(), requestBodyOf(buffer)).eTag();
+                    return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+                } finally {
+                    releaseBuffer(buffer);
+                }
+            }, partUploadExecutor));
+        }
+
+        /**
+         * the content is copied out of the pooled buffer, so the buffer isn't held for the whole PutObject request
+         */
+        private void putObjectFromCurrentBuffer() {
+            byte[] content = currentBuffer == null ? new byte[0] : Arrays.copyOf(currentBuffer.array(), currentBuffer.position());
+            releaseCurrentBuffer();
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                    .bucket(s3Bucket)
+                    .key(s3FilePath)
+                    .build();
+            s3Client.putObject(putObjectRequest, requestBodyOf(content, content.length));
+        }
+
+        private void releaseCurrentBuffer() {
+            if (currentBuffer != null) {
+                releaseBuffer(currentBuffer);
+                currentBuffer = null;
+            }
+        }
+
+        /**
+         * Abort the multipart upload once the parts in flight are done, so no part outlives the upload
+         */
+        private void abortMultipartUpload() {
+            parts.forEach(part -> part.exceptionally(e -> null).join());
+            try {
+                s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(s3Bucket)
+                        .key(s3FilePath)
+                        .uploadId(uploadId)
+                        .build());
+            } catch (RuntimeException e) {
+                logger.error("Failed to abort the multipart upload of file: {}. ERROR: {}", s3FilePath, e.getMessage());
+            }
+        }
+
+        /**
+         * join the part upload, rethrowing the S3 exception it failed with
+         */
+        private CompletedPart join(CompletableFuture<CompletedPart> part) {
+            try {
+                return part.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+    }
+}
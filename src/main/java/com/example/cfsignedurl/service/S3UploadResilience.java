@@ -0,0 +1,806 @@
+package com.example.cfsignedurl.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Retries, hedging and circuit breaking of the S3 uploads of all SDK versions.
+ *
+ * Failures are classified: throttling (503 SlowDown, 429) and transient failures (other 5xx, S3 request timeouts,
+ * connection and socket errors) are retried with exponential backoff and full jitter, throttling with a longer
+ * initial backoff. Other failures (eg: 403 AccessDenied) fail the upload at once.
+ * Every retry and every hedge takes a token from the retry budget, every successful upload refills a fraction of
+ * a token, so while S3 fails most uploads the retries are limited to that fraction of the traffic.
+ * With hedging enabled an upload still running after the configured percentile of the recent upload latencies
+ * is sent a second time, the first successful attempt wins and the other one is cancelled. PUTs of the same
+ * content to the same key are idempotent, so either attempt may complete.
+ * The circuit breaker counts throttling and transient failures and rejects uploads while S3 is degraded.
+ *
+ * When disabled the uploads are sent once and only retried by the SDK clients themselves.
+ */
+@Component
+public class S3UploadResilience {
+
+    /**
+     * what the resilience layer may do with an upload, depending on the content source of the upload
+     */
+    public enum Replay {
+        /**
+         * the content can only be read once, the upload is sent once (the circuit breaker still applies)
+         */
+        NONE,
+        /**
+         * the content can be read again after a failed attempt, the upload is retried but not hedged
+         */
+        SEQUENTIAL,
+        /**
+         * every attempt reads its own copy of the content, the upload is retried and hedged
+         */
+        CONCURRENT
+    }
+
+    public enum FailureKind {
+        THROTTLED,
+        TRANSIENT,
+        PERMANENT
+    }
+
+    /**
+     * an upload attempt, invoked again for every retry and hedge
+     */
+    @FunctionalInterface
+    public interface S3Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    @Value("${s3.resilience.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * attempts per upload including the first one
+     */
+    @Value("${s3.resilience.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${s3.resilience.initial-backoff:PT0.05S}")
+    private Duration initialBackoff;
+
+    /**
+     * initial backoff after a throttling response, S3 asks to slow down
+     */
+    @Value("${s3.resilience.throttled-initial-backoff:PT0.5S}")
+    private Duration throttledInitialBackoff;
+
+    @Value("${s3.resilience.max-backoff:PT5S}")
+    private Duration maxBackoff;
+
+    /**
+     * retries and hedges that may be sent in a burst
+     */
+    @Value("${s3.resilience.retry-budget.max-tokens:20}")
+    private int retryBudgetMaxTokens;
+
+    /**
+     * tokens refilled by a successful upload, 0.1 allows one retry or hedge per ten successful uploads
+     */
+    @Value("${s3.resilience.retry-budget.token-ratio:0.1}")
+    private double retryBudgetTokenRatio;
+
+    @Value("${s3.resilience.hedging.enabled:false}")
+    private boolean hedgingEnabled;
+
+    /**
+     * an upload is hedged when it takes longer than this percentile of the recent upload latencies
+     */
+    @Value("${s3.resilience.hedging.percentile:0.95}")
+    private double hedgingPercentile;
+
+    /**
+     * lower bound of the hedge delay, so fast uploads are not hedged because of a small jitter
+     */
+    @Value("${s3.resilience.hedging.min-delay:PT0.02S}")
+    private Duration hedgingMinDelay;
+
+    /**
+     * number of recent upload latencies the percentile is taken from, no upload is hedged before it is filled
+     */
+    @Value("${s3.resilience.hedging.window-size:1000}")
+    private int hedgingWindowSize;
+
+    @Value("${s3.resilience.circuit-breaker.enabled:true}")
+    private boolean circuitBreakerEnabled;
+
+    @Value("${s3.resilience.circuit-breaker.window-size:50}")
+    private int circuitBreakerWindowSize;
+
+    @Value("${s3.resilience.circuit-breaker.minimum-calls:20}")
+    private int circuitBreakerMinimumCalls;
+
+    @Value("${s3.resilience.circuit-breaker.failure-rate-threshold:0.5}")
+    private double circuitBreakerFailureRateThreshold;
+
+    @Value("${s3.resilience.circuit-breaker.open-duration:PT10S}")
+    private Duration circuitBreakerOpenDuration;
+
+    @Value("${s3.resilience.circuit-breaker.half-open-calls:5}")
+    private int circuitBreakerHalfOpenCalls;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private S3CircuitBreaker circuitBreaker;
+
+    private RetryBudget retryBudget;
+
+    private LatencyWindow latencyWindow;
+
+    /**
+     * threads running the hedged attempts of blocking uploads, at most this many hedged attempts run at once
+     */
+    @Value("${s3.resilience.hedging.threads:8}")
+    private int hedgingThreads;
+
+    /**
+     * starts and runs the hedged attempts of blocking uploads, the primary attempts run on the calling threads
+     */
+    private ScheduledThreadPoolExecutor hedgeExecutor;
+
+    private final Map<FailureKind, LongAdder> failedAttempts = new EnumMap<>(FailureKind.class);
+    private final Map<FailureKind, LongAdder> retries = new EnumMap<>(FailureKind.class);
+    private final LongAdder attemptsExhausted = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+    private final LongAdder circuitRejected = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private final LongAdder hedgesLost = new LongAdder();
+
+    /**
+     * AWS error codes of throttling responses, S3 answers 503 SlowDown
+     */
+    private static final Set<String> THROTTLING_ERROR_CODES = Set.of("SlowDown", "Throttling", "ThrottlingException",
+            "RequestLimitExceeded", "TooManyRequests", "TooManyRequestsException", "RequestThrottled");
+
+    /**
+     * AWS error codes of failures worth retrying that are not answered with a 5xx, S3 answers 400 RequestTimeout
+     */
+    private static final Set<String> TRANSIENT_ERROR_CODES = Set.of("RequestTimeout", "RequestTimeoutException", "PriorRequestNotComplete");
+
+    private static final Logger logger = LoggerFactory.getLogger(S3UploadResilience.class);
+
+    public S3UploadResilience() {
+        for (FailureKind failureKind : FailureKind.values()) {
+            failedAttempts.put(failureKind, new LongAdder());
+            retries.put(failureKind, new LongAdder());
+        }
+    }
+
+    S3UploadResilience(int maxAttempts, Duration backoff, int retryBudgetMaxTokens, double retryBudgetTokenRatio,
+                       boolean hedgingEnabled, int hedgingWindowSize, S3CircuitBreaker circuitBreaker) {
+        this();
+        this.enabled = true;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = backoff;
+        this.throttledInitialBackoff = backoff;
+        this.maxBackoff = backoff;
+        this.retryBudgetMaxTokens = retryBudgetMaxTokens;
+        this.retryBudgetTokenRatio = retryBudgetTokenRatio;
+        this.hedgingEnabled = hedgingEnabled;
+        this.hedgingPercentile = 0.5;
+        this.hedgingMinDelay = Duration.ZERO;
+        this.hedgingWindowSize = hedgingWindowSize;
+        this.hedgingThreads = 2;
+        createState();
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Send a blocking upload with the retries, hedging and circuit breaking its content source allows
+     *
+     * @return the result of the successful attempt
+     * @throws E the failure of the last attempt, or S3CircuitOpenException when the upload was not sent
+     */
+    public <T, E extends Exception> T execute(String s3FilePath, Replay replay, S3Call<T, E> call) throws E {
+        if (!enabled) {
+            return call.call();
+        }
+        int attemptsOfCall = replay == Replay.NONE ? 1 : maxAttempts;
+        for (int attempt = 1; ; attempt++) {
+            acquireCircuit(s3FilePath);
+            long attemptStart = System.nanoTime();
+            try {
+                T result = hedgingEnabled && replay == Replay.CONCURRENT ? hedged(s3FilePath, call) : call.call();
+                onAttemptSuccess(attemptStart);
+                return result;
+            } catch (Exception e) {
+                Exception failure = unwrap(e);
+                long backoffMillis = retryBackoffMillis(s3FilePath, attempt, attemptsOfCall, failure);
+                if (backoffMillis < 0) {
+                    throw S3UploadResilience.<E>asThrown(failure);
+                }
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    throw S3UploadResilience.<E>asThrown(failure);
+                }
+            }
+        }
+    }
+
+    /**
+     * Non blocking variant of execute, the upload is retried on the common pool's delayed executor
+     *
+     * @param call starts an attempt, every attempt must read its own copy of the content
+     */
+    public <T> CompletableFuture<T> executeAsync(String s3FilePath, Supplier<CompletableFuture<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attemptAsync(s3FilePath, call, 1, result);
+        return result;
+    }
+
+    /**
+     * Read a stream that ends within the limit, so its upload can be retried and hedged from the copy
+     *
+     * Only limit + 1 bytes are marked: a longer stream is reset to where it was and has to be uploaded once while
+     * it is read, rather than keeping every byte read on the heap for a reset.
+     *
+     * @return the remaining content of the stream, null when the stream does not support mark or is longer than the limit
+     */
+    public static byte[] readReplayableContent(InputStream inputStream, int limit) throws IOException {
+        if (!inputStream.markSupported()) {
+            return null;
+        }
+        inputStream.mark(limit + 1);
+        byte[] content = inputStream.readNBytes(limit + 1);
+        if (content.length <= limit) {
+            return content;
+        }
+        inputStream.reset();
+        return null;
+    }
+
+    public S3CircuitBreaker.State getCircuitState() {
+        return circuitBreaker != null ? circuitBreaker.getState() : S3CircuitBreaker.State.CLOSED;
+    }
+
+    public long getRetryCount(FailureKind failureKind) {
+        return retries.get(failureKind).sum();
+    }
+
+    public long getBudgetExhaustedCount() {
+        return budgetExhausted.sum();
+    }
+
+    public long getCircuitRejectedCount() {
+        return circuitRejected.sum();
+    }
+
+    public long getHedgesWonCount() {
+        return hedgesWon.sum();
+    }
+
+    public long getHedgesLostCount() {
+        return hedgesLost.sum();
+    }
+
+    /**
+     * retry and hedge tokens left in the budget
+     */
+    public double getRetryBudgetTokens() {
+        return retryBudget.tokens();
+    }
+
+    /**
+     * the delay after which an upload is hedged, null until enough upload latencies are known
+     */
+    public Duration getHedgeDelay() {
+        long hedgeDelayNanos = hedgeDelayNanos();
+        return hedgeDelayNanos < 0 ? null : Duration.ofNanos(hedgeDelayNanos);
+    }
+
+    /**
+     * throttling and transient failures are retried, everything else is permanent
+     */
+    public static FailureKind classify(Throwable failure) {
+        Throwable cause = unwrap(failure);
+        if (cause instanceof S3CircuitOpenException || isAbort(cause)) {
+            return FailureKind.PERMANENT;
+        }
+        if (cause instanceof AwsServiceException awsServiceException) {
+            String errorCode = awsServiceException.awsErrorDetails() != null ? awsServiceException.awsErrorDetails().errorCode() : null;
+            return classify(awsServiceException.statusCode(), errorCode, awsServiceException.isThrottlingException());
+        }
+        if (SdkVersionOneExceptions.isServiceException(cause)) {
+            return classify(SdkVersionOneExceptions.statusCode(cause), SdkVersionOneExceptions.errorCode(cause), false);
+        }
+        // no response from S3: connection failures, socket and attempt timeouts
+        if (cause instanceof SdkClientException || SdkVersionOneExceptions.isClientException(cause)
+                || cause instanceof IOException || cause instanceof UncheckedIOException) {
+            return FailureKind.TRANSIENT;
+        }
+        return FailureKind.PERMANENT;
+    }
+
+    private static FailureKind classify(int statusCode, String errorCode, boolean throttling) {
+        if (throttling || statusCode == 429 || (errorCode != null && THROTTLING_ERROR_CODES.contains(errorCode))) {
+            return FailureKind.THROTTLED;
+        }
+        if (statusCode >= 500 || statusCode == 408 || (errorCode != null && TRANSIENT_ERROR_CODES.contains(errorCode))) {
+            return FailureKind.TRANSIENT;
+        }
+        return FailureKind.PERMANENT;
+    }
+
+    private void acquireCircuit(String s3FilePath) {
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            circuitRejected.increment();
+            throw new S3CircuitOpenException(String.format("S3 circuit breaker is open, upload of %s rejected", s3FilePath));
+        }
+    }
+
+    private void onAttemptSuccess(long attemptStart) {
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess();
+        }
+        latencyWindow.record(System.nanoTime() - attemptStart);
+        retryBudget.deposit();
+    }
+
+    /**
+     * Report the failed attempt to the circuit breaker and decide whether it is retried
+     *
+     * @return the backoff before the next attempt, -1 when the upload fails with this failure
+     */
+    private long retryBackoffMillis(String s3FilePath, int attempt, int attemptsOfCall, Throwable failure) {
+        FailureKind failureKind = classify(failure);
+        failedAttempts.get(failureKind).increment();
+        if (circuitBreaker != null) {
+            if (failureKind != FailureKind.PERMANENT) {
+                circuitBreaker.onFailure();
+            } else if (isAbort(failure)) {
+                circuitBreaker.onIgnored();
+            } else {
+                // S3 answered, eg: 403 AccessDenied, it is not degraded
+                circuitBreaker.onSuccess();
+            }
+        }
+        if (failureKind == FailureKind.PERMANENT) {
+            return -1;
+        }
+        if (attempt >= attemptsOfCall) {
+            if (attemptsOfCall > 1) {
+                attemptsExhausted.increment();
+                logger.warn("file: {} upload failed after {} attempts", s3FilePath, attempt);
+            }
+            return -1;
+        }
+        if (!retryBudget.tryWithdraw()) {
+            budgetExhausted.increment();
+            logger.warn("file: {} upload not retried, the retry budget is exhausted", s3FilePath);
+            return -1;
+        }
+        retries.get(failureKind).increment();
+        long backoffMillis = backoffMillis(attempt, failureKind);
+        logger.warn("file: {} upload attempt {} failed with {} ({}), retrying in {} ms",
+                s3FilePath, attempt, SignedUrlMetrics.errorCode(failure), failureKind, backoffMillis);
+        return backoffMillis;
+    }
+
+    /**
+     * exponential backoff with full jitter
+     */
+    private long backoffMillis(int attempt, FailureKind failureKind) {
+        long base = failureKind == FailureKind.THROTTLED ? throttledInitialBackoff.toMillis() : initialBackoff.toMillis();
+        long backoff = Math.min(maxBackoff.toMillis(), base << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+
+    /**
+     * The primary attempt runs on the calling thread, the hedged attempt on one of the hedging threads. When the hedged
+     * attempt wins, the calling thread is interrupted so the SDK aborts the request of the primary attempt.
+     */
+    private <T, E extends Exception> T hedged(String s3FilePath, S3Call<T, E> call) throws Exception {
+        long hedgeDelayNanos = hedgeDelayNanos();
+        if (hedgeDelayNanos < 0) {
+            return call.call();
+        }
+        Hedge<T> hedge = new Hedge<>();
+        CallingThread callingThread = new CallingThread();
+        hedge.first.whenComplete((value, throwable) -> callingThread.interruptIfRunning());
+        // a hedge whose thread only frees up after the upload completed is skipped by launchSecondary
+        ScheduledFuture<?> secondary = hedgeExecutor.schedule(() -> {
+            if (hedge.launchSecondary(s3FilePath)) {
+                runHedgedAttempt(call, hedge, true);
+            }
+        }, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        try {
+            runHedgedAttempt(call, hedge, false);
+            if (callingThread.finish()) {
+                // the interrupt of the slower primary attempt is not meant for the caller
+                Thread.interrupted();
+            }
+            return hedge.first.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException(String.format("Upload of %s was interrupted", s3FilePath));
+        } finally {
+            // interrupts the blocking SDK call of a slower hedged attempt, the SDK aborts its request
+            secondary.cancel(true);
+        }
+    }
+
+    /**
+     * the thread running the primary attempt of a hedged upload, interrupted when the hedged attempt wins
+     */
+    private static class CallingThread {
+
+        private final Thread thread = Thread.currentThread();
+        private boolean running = true;
+        private boolean interrupted;
+
+        private synchronized void interruptIfRunning() {
+            if (running && Thread.currentThread() != thread) {
+                interrupted = true;
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * @return true when the primary attempt was interrupted because the hedged attempt won
+         */
+        private synchronized boolean finish() {
+            running = false;
+            return interrupted;
+        }
+    }
+
+    private static <T, E extends Exception> void runHedgedAttempt(S3Call<T, E> call, Hedge<T> hedge, boolean secondary) {
+        try {
+            hedge.complete(call.call(), null, secondary);
+        } catch (Exception e) {
+            hedge.complete(null, e, secondary);
+        }
+    }
+
+    private <T> void attemptAsync(String s3FilePath, Supplier<CompletableFuture<T>> call, int attempt, CompletableFuture<T> result) {
+        CompletableFuture<T> attemptFuture;
+        long attemptStart = System.nanoTime();
+        try {
+            acquireCircuit(s3FilePath);
+            attemptFuture = hedgingEnabled ? hedgedAsync(s3FilePath, call) : call.get();
+        } catch (RuntimeException e) {
+            attemptFuture = CompletableFuture.failedFuture(e);
+        }
+        attemptFuture.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                onAttemptSuccess(attemptStart);
+                result.complete(value);
+                return;
+            }
+            Throwable failure = unwrap(throwable);
+            if (failure instanceof S3CircuitOpenException) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            long backoffMillis = retryBackoffMillis(s3FilePath, attempt, maxAttempts, failure);
+            if (backoffMillis < 0) {
+                result.completeExceptionally(failure);
+            } else {
+                CompletableFuture.delayedExecutor(backoffMillis, TimeUnit.MILLISECONDS)
+                        .execute(() -> attemptAsync(s3FilePath, call, attempt + 1, result));
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> hedgedAsync(String s3FilePath, Supplier<CompletableFuture<T>> call) {
+        long hedgeDelayNanos = hedgeDelayNanos();
+        if (hedgeDelayNanos < 0) {
+            return call.get();
+        }
+        Hedge<T> hedge = new Hedge<>();
+        CompletableFuture<T> primary = call.get();
+        primary.whenComplete((value, throwable) -> hedge.complete(value, throwable, false));
+        CompletableFuture.delayedExecutor(hedgeDelayNanos, TimeUnit.NANOSECONDS).execute(() -> {
+            if (hedge.launchSecondary(s3FilePath)) {
+                CompletableFuture<T> secondary;
+                try {
+                    secondary = call.get();
+                } catch (RuntimeException e) {
+                    hedge.complete(null, e, true);
+                    return;
+                }
+                secondary.whenComplete((value, throwable) -> hedge.complete(value, throwable, true));
+                hedge.first.whenComplete((value, throwable) -> secondary.cancel(true));
+            }
+        });
+        // cancelling the future of the SDK aborts its request
+        hedge.first.whenComplete((value, throwable) -> primary.cancel(true));
+        return hedge.first;
+    }
+
+    private long hedgeDelayNanos() {
+        long percentileNanos = latencyWindow.percentileNanos();
+        return percentileNanos < 0 ? -1 : Math.max(percentileNanos, hedgingMinDelay.toNanos());
+    }
+
+    /**
+     * the primary and the hedged attempt of an upload, completes with the first successful one
+     */
+    private class Hedge<T> {
+
+        private final CompletableFuture<T> first = new CompletableFuture<>();
+        private final AtomicInteger launched = new AtomicInteger(1);
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicBoolean secondaryLaunched = new AtomicBoolean();
+        private final AtomicBoolean succeeded = new AtomicBoolean();
+
+        /**
+         * @return true when the secondary attempt should be started
+         */
+        private boolean launchSecondary(String s3FilePath) {
+            if (first.isDone()) {
+                return false;
+            }
+            if (!retryBudget.tryWithdraw()) {
+                budgetExhausted.increment();
+                return false;
+            }
+            // counted before checking again, so a primary failing meanwhile waits for the secondary
+            launched.incrementAndGet();
+            if (first.isDone()) {
+                return false;
+            }
+            secondaryLaunched.set(true);
+            logger.debug("file: {} upload is slower than the hedge delay, hedged", s3FilePath);
+            return true;
+        }
+
+        private void complete(T value, Throwable throwable, boolean secondary) {
+            if (throwable == null) {
+                // the outcome is counted before the waiting upload thread is released
+                if (succeeded.compareAndSet(false, true)) {
+                    if (secondaryLaunched.get()) {
+                        (secondary ? hedgesWon : hedgesLost).increment();
+                    }
+                    first.complete(value);
+                }
+            } else if (failed.incrementAndGet() >= launched.get()) {
+                first.completeExceptionally(unwrap(throwable));
+            }
+        }
+    }
+
+    /**
+     * token bucket of the retries and hedges, counted in thousandths of a token
+     */
+    private static class RetryBudget {
+
+        private final long maxMilliTokens;
+        private final long depositMilliTokens;
+        private final AtomicLong milliTokens;
+
+        private RetryBudget(int maxTokens, double tokenRatio) {
+            this.maxMilliTokens = maxTokens * 1000L;
+            this.depositMilliTokens = Math.round(tokenRatio * 1000);
+            this.milliTokens = new AtomicLong(maxMilliTokens);
+        }
+
+        private boolean tryWithdraw() {
+            long current = milliTokens.get();
+            while (current >= 1000) {
+                if (milliTokens.compareAndSet(current, current - 1000)) {
+                    return true;
+                }
+                current = milliTokens.get();
+            }
+            return false;
+        }
+
+        private void deposit() {
+            if (milliTokens.get() < maxMilliTokens) {
+                milliTokens.accumulateAndGet(depositMilliTokens, (current, deposit) -> Math.min(maxMilliTokens, current + deposit));
+            }
+        }
+
+        private double tokens() {
+            return milliTokens.get() / 1000.0;
+        }
+    }
+
+    /**
+     * latencies of the last successful uploads, the percentile is recomputed every RECOMPUTE_INTERVAL uploads
+     */
+    private static class LatencyWindow {
+
+        private static final int RECOMPUTE_INTERVAL = 64;
+
+        private final long[] latencies;
+        private final double percentile;
+        private int next;
+        private int size;
+        private long recorded;
+        private volatile long percentileNanos = -1;
+
+        private LatencyWindow(int windowSize, double percentile) {
+            this.latencies = new long[Math.max(windowSize, 1)];
+            this.percentile = percentile;
+        }
+
+        private synchronized void record(long latencyNanos) {
+            latencies[next] = latencyNanos;
+            next = (next + 1) % latencies.length;
+            if (size < latencies.length) {
+                size++;
+            }
+            recorded++;
+            if (size == latencies.length && (recorded % RECOMPUTE_INTERVAL == 0 || percentileNanos < 0)) {
+                long[] sorted = Arrays.copyOf(latencies, size);
+                Arrays.sort(sorted);
+                percentileNanos = sorted[Math.min((int) (percentile * size), size - 1)];
+            }
+        }
+
+        private long percentileNanos() {
+            return percentileNanos;
+        }
+    }
+
+    /**
+     * the attempt was interrupted or cancelled, eg: the slower attempt of a hedged upload
+     */
+    private static boolean isAbort(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof CancellationException
+                    || cause instanceof software.amazon.awssdk.core.exception.AbortedException
+                    || SdkVersionOneExceptions.isAbort(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Exception unwrap(Exception exception) {
+        Throwable cause = unwrap((Throwable) exception);
+        return cause instanceof Exception causeException ? causeException : exception;
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * the failures are thrown by the call, so they are either an E or unchecked
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E asThrown(Exception failure) {
+        return (E) failure;
+    }
+
+    private void createState() {
+        retryBudget = new RetryBudget(retryBudgetMaxTokens, retryBudgetTokenRatio);
+        latencyWindow = new LatencyWindow(hedgingWindowSize, hedgingPercentile);
+        if (circuitBreakerEnabled) {
+            circuitBreaker = new S3CircuitBreaker(circuitBreakerWindowSize, circuitBreakerMinimumCalls, circuitBreakerFailureRateThreshold,
+                    circuitBreakerOpenDuration, circuitBreakerHalfOpenCalls);
+        }
+        if (hedgingEnabled) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            hedgeExecutor = new ScheduledThreadPoolExecutor(hedgingThreads, runnable -> {
+                Thread thread = new Thread(runnable, "s3-hedge-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            // the hedges of uploads completing before the hedge delay are cancelled, don't keep them queued
+            hedgeExecutor.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    @PostConstruct
+    private void initialize() {
+        createState();
+        if (!enabled) {
+            return;
+        }
+        logger.info("S3 upload resilience enabled: {} attempts, hedging {}, circuit breaker {}", maxAttempts, hedgingEnabled, circuitBreakerEnabled);
+        for (FailureKind failureKind : FailureKind.values()) {
+            FunctionCounter.builder("cfsignedurl.upload.attempts.failed", failedAttempts.get(failureKind), LongAdder::sum)
+                    .description("failed S3 upload attempts")
+                    .tag("kind", failureKind.name().toLowerCase())
+                    .register(meterRegistry);
+            if (failureKind != FailureKind.PERMANENT) {
+                FunctionCounter.builder("cfsignedurl.upload.retries", retries.get(failureKind), LongAdder::sum)
+                        .description("S3 upload retries")
+                        .tag("kind", failureKind.name().toLowerCase())
+                        .register(meterRegistry);
+            }
+        }
+        registerGaveUpCounter("attempts", attemptsExhausted);
+        registerGaveUpCounter("budget", budgetExhausted);
+        registerGaveUpCounter("circuit-open", circuitRejected);
+        FunctionCounter.builder("cfsignedurl.upload.hedges", hedgesWon, LongAdder::sum)
+                .description("hedged S3 uploads")
+                .tag("outcome", "won")
+                .register(meterRegistry);
+        FunctionCounter.builder("cfsignedurl.upload.hedges", hedgesLost, LongAdder::sum)
+                .description("hedged S3 uploads")
+                .tag("outcome", "lost")
+                .register(meterRegistry);
+        TimeGauge.builder("cfsignedurl.upload.hedge.delay", latencyWindow, TimeUnit.NANOSECONDS,
+                        window -> window.percentileNanos() < 0 ? Double.NaN : hedgeDelayNanos())
+                .description("time after which an S3 upload is hedged")
+                .register(meterRegistry);
+        Gauge.builder("cfsignedurl.upload.retry.budget", retryBudget, RetryBudget::tokens)
+                .description("S3 upload retries and hedges left in the retry budget")
+                .register(meterRegistry);
+        if (circuitBreaker != null) {
+            Gauge.builder("cfsignedurl.s3.circuit.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+                    .description("S3 circuit breaker state: 0 closed, 1 open, 2 half-open")
+                    .register(meterRegistry);
+            FunctionCounter.builder("cfsignedurl.s3.circuit.opened", circuitBreaker, S3CircuitBreaker::getOpenedCount)
+                    .description("times the S3 circuit breaker opened")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * uploads that failed with a retryable failure but were not retried, tagged by the reason
+     */
+    private void registerGaveUpCounter(String reason, LongAdder count) {
+        FunctionCounter.builder("cfsignedurl.upload.retries.denied", count, LongAdder::sum)
+                .description("S3 uploads failed or rejected without a further attempt")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void shutdownHedgeExecutor() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+}
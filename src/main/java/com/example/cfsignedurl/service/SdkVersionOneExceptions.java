@@ -0,0 +1,75 @@
+package com.example.cfsignedurl.service;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * Checks of SDK v1 exceptions for the failure handling shared by both SDK versions.
+ *
+ * The SDK v1 exception classes are only loaded by the nested class, which is only used once the failure is an
+ * exception of SDK v1. With s3.sdk-v1.enabled=false there is no such failure, so SDK v1 stays unloaded.
+ */
+final class SdkVersionOneExceptions {
+
+    private static final String SDK_VERSION_ONE_PACKAGE = "com.amazonaws.";
+
+    private SdkVersionOneExceptions() {
+    }
+
+    static boolean isServiceException(Throwable failure) {
+        return isSdkVersionOne(failure) && Checks.isServiceException(failure);
+    }
+
+    /**
+     * failures without a response from AWS, service exceptions are client exceptions as well in SDK v1
+     */
+    static boolean isClientException(Throwable failure) {
+        return isSdkVersionOne(failure) && Checks.isClientException(failure);
+    }
+
+    static boolean isAbort(Throwable failure) {
+        return isSdkVersionOne(failure) && Checks.isAbort(failure);
+    }
+
+    /**
+     * HTTP status code of a service exception
+     */
+    static int statusCode(Throwable serviceException) {
+        return Checks.statusCode(serviceException);
+    }
+
+    /**
+     * AWS error code of a service exception, null for other failures
+     */
+    static String errorCode(Throwable failure) {
+        return isServiceException(failure) ? Checks.errorCode(failure) : null;
+    }
+
+    private static boolean isSdkVersionOne(Throwable failure) {
+        return failure.getClass().getName().startsWith(SDK_VERSION_ONE_PACKAGE);
+    }
+
+    private static final class Checks {
+
+        private static boolean isServiceException(Throwable failure) {
+            return failure instanceof AmazonServiceException;
+        }
+
+        private static boolean isClientException(Throwable failure) {
+            return failure instanceof AmazonClientException;
+        }
+
+        private static boolean isAbort(Throwable failure) {
+            return failure instanceof AbortedException;
+        }
+
+        private static int statusCode(Throwable serviceException) {
+            return ((AmazonServiceException) serviceException).getStatusCode();
+        }
+
+        private static String errorCode(Throwable serviceException) {
+            return ((AmazonServiceException) serviceException).getErrorCode();
+        }
+    }
+}
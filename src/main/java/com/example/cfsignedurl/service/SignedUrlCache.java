@@ -0,0 +1,225 @@
+package com.example.cfsignedurl.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * In-memory cache of CloudFront signed URLs keyed by key pair id and S3 object path.
+ *
+ * Expiration dates are rounded up to the configured bucket (eg: the hour), so all requests for the same
+ * object within a bucket produce the same expiration date and therefore reuse one signature instead of
+ * paying one RSA private key operation per request.
+ * A cached URL is only returned while it is valid for at least the configured minimum remaining validity.
+ * Entries that fall below that are evicted: once per expiry bucket the first request sweeps them, so URLs of
+ * objects that are never requested again don't stay in memory. When the cache exceeds the configured maximum size
+ * one thread evicts entries down to 90% of it, concurrent requests can add a few entries above the maximum meanwhile.
+ */
+@Component
+public class SignedUrlCache {
+
+    /**
+     * when disabled every request is signed
+     */
+    @Value("${cloudfront.signed-url-cache.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * expiration dates are rounded up to a multiple of this duration
+     */
+    @Value("${cloudfront.signed-url-cache.expiry-bucket:PT1H}")
+    private Duration expiryBucket;
+
+    /**
+     * a cached URL is never returned with less validity than this
+     */
+    @Value("${cloudfront.signed-url-cache.min-remaining-validity:PT1H}")
+    private Duration minRemainingValidity;
+
+    /**
+     * maximum number of cached URLs
+     */
+    @Value("${cloudfront.signed-url-cache.maximum-size:10000}")
+    private int maximumSize;
+
+    private final Clock clock;
+
+    private final Map<CacheKey, CachedSignedUrl> cachedSignedUrls = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean evictionInProgress = new AtomicBoolean();
+
+    /**
+     * epoch second of the next sweep of unusable entries
+     */
+    private final AtomicLong nextSweepEpochSeconds = new AtomicLong();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    private static final Logger logger = LoggerFactory.getLogger(SignedUrlCache.class);
+
+    public SignedUrlCache() {
+        this(Clock.systemUTC());
+    }
+
+    SignedUrlCache(Clock clock) {
+        this.clock = clock;
+    }
+
+    SignedUrlCache(Clock clock, Duration expiryBucket, Duration minRemainingValidity, int maximumSize) {
+        this(clock);
+        this.enabled = true;
+        this.expiryBucket = expiryBucket;
+        this.minRemainingValidity = minRemainingValidity;
+        this.maximumSize = maximumSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Return the cached signed URL of the given S3 object, or sign and cache a new one.
+     *
+     * @param keyPairId         CloudFront key pair id the URL is signed with
+     * @param s3FilePath        S3 object path
+     * @param retentionDuration minimum validity of a newly signed URL
+     * @param signer            signs the object for the given (bucketed) expiration date
+     */
+    public String getSignedUrl(String keyPairId, String s3FilePath, Duration retentionDuration, Function<Instant, String> signer) {
+        long now = clock.instant().getEpochSecond();
+        sweepIfDue(now);
+        CacheKey cacheKey = new CacheKey(keyPairId, s3FilePath);
+
+        CachedSignedUrl cachedSignedUrl = cachedSignedUrls.get(cacheKey);
+        if (cachedSignedUrl != null) {
+            if (isUsable(cachedSignedUrl, now)) {
+                hitCount.increment();
+                return cachedSignedUrl.url();
+            }
+            if (cachedSignedUrls.remove(cacheKey, cachedSignedUrl)) {
+                evictionCount.increment();
+            }
+        }
+        missCount.increment();
+
+        long expiresEpochSeconds = bucketedExpiration(now + retentionDuration.getSeconds());
+        String signedUrl = signer.apply(Instant.ofEpochSecond(expiresEpochSeconds));
+
+        CachedSignedUrl signed = new CachedSignedUrl(signedUrl, expiresEpochSeconds);
+        if (isUsable(signed, now)) {
+            cachedSignedUrls.put(cacheKey, signed);
+            if (cachedSignedUrls.size() > maximumSize) {
+                evict(now);
+            }
+        }
+        return signedUrl;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public int size() {
+        return cachedSignedUrls.size();
+    }
+
+    private boolean isUsable(CachedSignedUrl cachedSignedUrl, long now) {
+        return cachedSignedUrl.expiresEpochSeconds() - now >= minRemainingValidity.getSeconds();
+    }
+
+    /**
+     * round the given expiration up to the next bucket boundary
+     */
+    private long bucketedExpiration(long expiresEpochSeconds) {
+        long bucketSeconds = expiryBucket.getSeconds();
+        if (bucketSeconds <= 1) {
+            return expiresEpochSeconds;
+        }
+        return Math.floorDiv(expiresEpochSeconds + bucketSeconds - 1, bucketSeconds) * bucketSeconds;
+    }
+
+    /**
+     * Remove the entries that are no longer usable, at most once per expiry bucket. Entries expire at bucket
+     * boundaries, so a sweep per bucket removes every entry at most one bucket after it became unusable.
+     */
+    private void sweepIfDue(long now) {
+        long nextSweep = nextSweepEpochSeconds.get();
+        if (now < nextSweep || !nextSweepEpochSeconds.compareAndSet(nextSweep, now + Math.max(1, expiryBucket.getSeconds()))) {
+            return;
+        }
+        if (!evictionInProgress.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int evicted = removeUnusable(now);
+            evictionCount.add(evicted);
+            logger.debug("swept {} expired signed urls, cache size: {}", evicted, cachedSignedUrls.size());
+        } finally {
+            evictionInProgress.set(false);
+        }
+    }
+
+    /**
+     * Remove entries that are no longer usable and, if the cache is still full, arbitrary entries
+     * until it is back to 90% of the maximum size. Only one thread evicts at a time, the others carry on.
+     */
+    private void evict(long now) {
+        if (!evictionInProgress.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int evicted = removeUnusable(now);
+            int targetSize = maximumSize - maximumSize / 10;
+            Iterator<CachedSignedUrl> iterator = cachedSignedUrls.values().iterator();
+            while (cachedSignedUrls.size() > targetSize && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evicted++;
+            }
+            evictionCount.add(evicted);
+            logger.debug("evicted {} signed urls, cache size: {}", evicted, cachedSignedUrls.size());
+        } finally {
+            evictionInProgress.set(false);
+        }
+    }
+
+    private int removeUnusable(long now) {
+        int removed = 0;
+        Iterator<CachedSignedUrl> iterator = cachedSignedUrls.values().iterator();
+        while (iterator.hasNext()) {
+            if (!isUsable(iterator.next(), now)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private record CacheKey(String keyPairId, String s3FilePath) {
+    }
+
+    private record CachedSignedUrl(String url, long expiresEpochSeconds) {
+    }
+}
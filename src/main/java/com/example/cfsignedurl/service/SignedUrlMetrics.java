@@ -0,0 +1,222 @@
+package com.example.cfsignedurl.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage latency and throughput meters of the upload and sign flow, exposed through Actuator
+ * (eg: /actuator/prometheus).
+ *
+ * Meters are registered once and kept in fields, so recording on the hot path is a map free
+ * timer/counter update. Failed upload timers are tagged with the AWS error code and registered
+ * on the first failure with that code.
+ */
+@Component
+public class SignedUrlMetrics {
+
+    public enum SdkVersion {
+        SDK_V1("sdk-v1"),
+        SDK_V2("sdk-v2"),
+        SDK_V2_ASYNC("sdk-v2-async");
+
+        private final String tag;
+
+        SdkVersion(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    static final String PAYLOAD_BUILD = "cfsignedurl.payload.build";
+    static final String UPLOAD = "cfsignedurl.upload";
+    static final String UPLOAD_BYTES = "cfsignedurl.upload.bytes";
+    static final String SIGNING = "cfsignedurl.signing";
+    static final String SIGNATURES = "cfsignedurl.signatures";
+    static final String REQUEST = "cfsignedurl.request";
+    static final String KEY_LOAD = "cfsignedurl.key.load";
+    static final String FIRST_SIGNING = "cfsignedurl.startup.first.signing";
+    static final String VERIFICATIONS = "cfsignedurl.verifications";
+
+    private static final String SUCCESS = "success";
+    private static final String FAILURE = "failure";
+    private static final String NO_ERROR_CODE = "none";
+    private static final String CLIENT_ERROR_CODE = "client";
+    private static final String CIRCUIT_OPEN_ERROR_CODE = "CircuitOpen";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<SdkVersion, SdkMeters> sdkMeters = new EnumMap<>(SdkVersion.class);
+
+    private final Map<CloudFrontSignedUrlVerifier.Status, Counter> verifications = new EnumMap<>(CloudFrontSignedUrlVerifier.Status.class);
+
+    /**
+     * failed upload timers by sdk version and AWS error code
+     */
+    private final Map<String, Timer> failedUploadTimers = new ConcurrentHashMap<>();
+
+    /**
+     * JVM uptime when the first URL was signed, -1 until then
+     */
+    private final AtomicLong firstSigningUptimeMillis = new AtomicLong(-1);
+
+    public SignedUrlMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (SdkVersion sdkVersion : SdkVersion.values()) {
+            sdkMeters.put(sdkVersion, new SdkMeters(sdkVersion));
+        }
+        for (CloudFrontSignedUrlVerifier.Status status : CloudFrontSignedUrlVerifier.Status.values()) {
+            verifications.put(status, Counter.builder(VERIFICATIONS)
+                    .description("signed URLs verified locally, by verification result")
+                    .tag("result", status.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        TimeGauge.builder(FIRST_SIGNING, firstSigningUptimeMillis, TimeUnit.MILLISECONDS,
+                        uptimeMillis -> uptimeMillis.get() < 0 ? Double.NaN : uptimeMillis.get())
+                .description("time from the JVM start to the first signed CloudFront URL")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return the start time to pass to the record methods
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void recordPayloadBuild(SdkVersion sdkVersion, long startNanos) {
+        record(sdkMeters.get(sdkVersion).payloadBuild, startNanos);
+    }
+
+    public void recordUpload(SdkVersion sdkVersion, long startNanos, long bytes) {
+        SdkMeters meters = sdkMeters.get(sdkVersion);
+        record(meters.successfulUpload, startNanos);
+        meters.uploadBytes.increment(bytes);
+    }
+
+    /**
+     * @param failure the exception the upload failed with, tagged with its AWS error code when it has one
+     */
+    public void recordFailedUpload(SdkVersion sdkVersion, long startNanos, Throwable failure) {
+        String errorCode = errorCode(failure);
+        Timer timer = failedUploadTimers.computeIfAbsent(sdkVersion.tag + "/" + errorCode, key -> uploadTimer(sdkVersion, FAILURE, errorCode));
+        record(timer, startNanos);
+    }
+
+    public void recordSigning(SdkVersion sdkVersion, long startNanos) {
+        SdkMeters meters = sdkMeters.get(sdkVersion);
+        record(meters.signing, startNanos);
+        meters.signatures.increment();
+        if (firstSigningUptimeMillis.get() < 0) {
+            firstSigningUptimeMillis.compareAndSet(-1, ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+    }
+
+    /**
+     * JVM uptime in milliseconds when the first URL was signed, -1 when no URL was signed yet
+     */
+    public long getFirstSigningUptimeMillis() {
+        return firstSigningUptimeMillis.get();
+    }
+
+    public void recordRequest(SdkVersion sdkVersion, long startNanos, boolean successful) {
+        SdkMeters meters = sdkMeters.get(sdkVersion);
+        record(successful ? meters.successfulRequest : meters.failedRequest, startNanos);
+    }
+
+    public void recordVerification(CloudFrontSignedUrlVerifier.Status status) {
+        verifications.get(status).increment();
+    }
+
+    public void recordKeyLoad(String source, long startNanos) {
+        record(Timer.builder(KEY_LOAD)
+                .description("time to load and parse the CloudFront private key")
+                .tag("source", source)
+                .register(meterRegistry), startNanos);
+    }
+
+    /**
+     * the AWS error code of the exception or of its cause, "client" for failures without a response from AWS
+     * and "CircuitOpen" for uploads rejected by the S3 circuit breaker
+     */
+    public static String errorCode(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof S3CircuitOpenException) {
+                return CIRCUIT_OPEN_ERROR_CODE;
+            }
+            if (cause instanceof AwsServiceException awsServiceException && awsServiceException.awsErrorDetails() != null
+                    && awsServiceException.awsErrorDetails().errorCode() != null) {
+                return awsServiceException.awsErrorDetails().errorCode();
+            }
+            String sdkVersionOneErrorCode = SdkVersionOneExceptions.errorCode(cause);
+            if (sdkVersionOneErrorCode != null) {
+                return sdkVersionOneErrorCode;
+            }
+        }
+        return CLIENT_ERROR_CODE;
+    }
+
+    private static void record(Timer timer, long startNanos) {
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer uploadTimer(SdkVersion sdkVersion, String outcome, String errorCode) {
+        return Timer.builder(UPLOAD)
+                .description("time to upload a payload to S3")
+                .tag("sdk", sdkVersion.tag)
+                .tag("outcome", outcome)
+                .tag("error.code", errorCode)
+                .register(meterRegistry);
+    }
+
+    private class SdkMeters {
+
+        private final Timer payloadBuild;
+        private final Timer successfulUpload;
+        private final Counter uploadBytes;
+        private final Timer signing;
+        private final Counter signatures;
+        private final Timer successfulRequest;
+        private final Timer failedRequest;
+
+        private SdkMeters(SdkVersion sdkVersion) {
+            payloadBuild = Timer.builder(PAYLOAD_BUILD)
+                    .description("time to build the payload uploaded to S3")
+                    .tag("sdk", sdkVersion.tag)
+                    .register(meterRegistry);
+            successfulUpload = uploadTimer(sdkVersion, SUCCESS, NO_ERROR_CODE);
+            uploadBytes = Counter.builder(UPLOAD_BYTES)
+                    .description("bytes uploaded to S3")
+                    .baseUnit("bytes")
+                    .tag("sdk", sdkVersion.tag)
+                    .register(meterRegistry);
+            signing = Timer.builder(SIGNING)
+                    .description("time to sign a CloudFront URL")
+                    .tag("sdk", sdkVersion.tag)
+                    .register(meterRegistry);
+            signatures = Counter.builder(SIGNATURES)
+                    .description("CloudFront URLs signed")
+                    .tag("sdk", sdkVersion.tag)
+                    .register(meterRegistry);
+            successfulRequest = requestTimer(sdkVersion, SUCCESS);
+            failedRequest = requestTimer(sdkVersion, FAILURE);
+        }
+
+        private Timer requestTimer(SdkVersion sdkVersion, String outcome) {
+            return Timer.builder(REQUEST)
+                    .description("time to upload a payload and sign its CloudFront URL")
+                    .tag("sdk", sdkVersion.tag)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.service.SignedUrlMetrics.SdkVersion;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent upload and sign requests of one SDK version for the same S3 object path into one.
+ *
+ * The first request for a path registers a future in a concurrent map and runs the upload and signing,
+ * requests of the same SDK version for the same path arriving meanwhile wait on that future and share its signed
+ * URL or failure. Requests of different SDK versions never share a flight, so each endpoint keeps measuring its own SDK.
+ * The future is removed once it completes, so the next request for the path runs a new upload.
+ * Only the map bin of the path is locked while registering, requests for different paths never wait on each other.
+ */
+@Component
+public class UploadCoalescer {
+
+    /**
+     * when disabled every request runs its own upload and signing
+     */
+    @Value("${s3.upload.coalescing.enabled:false}")
+    private boolean enabled;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<FlightKey, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder coalescedCount = new LongAdder();
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadCoalescer.class);
+
+    public UploadCoalescer() {
+    }
+
+    UploadCoalescer(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Run the upload and signing of the path, or wait for the one already running for the path
+     *
+     * @param uploadAndSign returns the signed URL, null when the upload failed
+     */
+    public String uploadAndSign(SdkVersion sdkVersion, String s3FilePath, Supplier<String> uploadAndSign) {
+        if (!enabled) {
+            return uploadAndSign.get();
+        }
+        FlightKey flightKey = new FlightKey(sdkVersion, s3FilePath);
+        CompletableFuture<String> flight = new CompletableFuture<>();
+        CompletableFuture<String> runningFlight = inFlight.putIfAbsent(flightKey, flight);
+        if (runningFlight != null) {
+            return join(s3FilePath, runningFlight);
+        }
+        try {
+            String cloudFrontSignedUrl = uploadAndSign.get();
+            land(flightKey, flight);
+            flight.complete(cloudFrontSignedUrl);
+            return cloudFrontSignedUrl;
+        } catch (RuntimeException | Error e) {
+            land(flightKey, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Non blocking variant, callers for a path already in flight get a future of the running upload and signing
+     *
+     * @param uploadAndSign starts the upload and signing, the future completes with null when the upload failed
+     */
+    public CompletableFuture<String> uploadAndSignAsync(SdkVersion sdkVersion, String s3FilePath, Supplier<CompletableFuture<String>> uploadAndSign) {
+        if (!enabled) {
+            return uploadAndSign.get();
+        }
+        FlightKey flightKey = new FlightKey(sdkVersion, s3FilePath);
+        CompletableFuture<String> flight = new CompletableFuture<>();
+        CompletableFuture<String> runningFlight = inFlight.putIfAbsent(flightKey, flight);
+        if (runningFlight != null) {
+            coalescedCount.increment();
+            logger.debug("file: {} upload already in flight, request coalesced", s3FilePath);
+            return runningFlight.thenApply(cloudFrontSignedUrl -> cloudFrontSignedUrl);
+        }
+        CompletableFuture<String> started;
+        try {
+            started = uploadAndSign.get();
+        } catch (RuntimeException | Error e) {
+            land(flightKey, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        started.whenComplete((cloudFrontSignedUrl, throwable) -> {
+            land(flightKey, flight);
+            if (throwable != null) {
+                flight.completeExceptionally(throwable);
+            } else {
+                flight.complete(cloudFrontSignedUrl);
+            }
+        });
+        return started;
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private String join(String s3FilePath, CompletableFuture<String> runningFlight) {
+        coalescedCount.increment();
+        logger.debug("file: {} upload already in flight, request coalesced", s3FilePath);
+        try {
+            return runningFlight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * remove the completed flight before completing it, requests arriving after that start a new upload
+     */
+    private void land(FlightKey flightKey, CompletableFuture<String> flight) {
+        inFlight.remove(flightKey, flight);
+    }
+
+    @PostConstruct
+    private void registerMeters() {
+        FunctionCounter.builder("cfsignedurl.upload.coalesced", coalescedCount, LongAdder::sum)
+                .description("requests that shared the upload and signing of a concurrent request for the same S3 object")
+                .register(meterRegistry);
+        Gauge.builder("cfsignedurl.upload.in.flight", inFlight, Map::size)
+                .description("S3 objects with an upload and signing in flight")
+                .register(meterRegistry);
+    }
+
+    private record FlightKey(SdkVersion sdkVersion, String s3FilePath) {
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.cfsignedurl.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Skips S3 uploads of payloads identical to the object already stored at the same key.
+ *
+ * The MD5 digest of the payload is compared with the digest of the last upload to the key, kept in a bounded
+ * in-memory index. On an index miss the ETag of the stored object is looked up, which is the MD5 of the content
+ * for objects uploaded with a single PUT (without SSE-KMS). The ETag of a multipart upload ends with -N and is not
+ * a digest of the content, such an object is always uploaded again. Index entries expire after the configured time,
+ * so objects deleted or replaced by other writers are uploaded again at the latest after that time.
+ *
+ * Streamed payloads are digested while they are uploaded, so they are always uploaded. Their digest is indexed,
+ * so a later upload of the same content from memory is skipped.
+ * Non blocking uploads only consult the index, every PUT to a key goes through one of the upload methods so the
+ * index never holds the digest of content that was replaced.
+ */
+@Component
+public class UploadDeduplicator {
+
+    /**
+     * when disabled every payload is uploaded
+     */
+    @Value("${s3.upload.dedup.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * look up the ETag of the stored object when the key is not in the index
+     */
+    @Value("${s3.upload.dedup.remote-check:true}")
+    private boolean remoteCheckEnabled;
+
+    @Value("${s3.upload.dedup.index-ttl:PT10M}")
+    private Duration indexTtl;
+
+    /**
+     * maximum number of keys in the index
+     */
+    @Value("${s3.upload.dedup.maximum-size:10000}")
+    private int maximumSize;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Clock clock;
+
+    private final Map<String, UploadedDigest> uploadedDigests = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean evictionInProgress = new AtomicBoolean();
+
+    private final LongAdder skippedUploadCount = new LongAdder();
+    private final LongAdder savedBytes = new LongAdder();
+    private final LongAdder remoteCheckCount = new LongAdder();
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(UploadDeduplicator::newMd5);
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadDeduplicator.class);
+
+    public UploadDeduplicator() {
+        this(Clock.systemUTC());
+    }
+
+    UploadDeduplicator(Clock clock) {
+        this.clock = clock;
+    }
+
+    UploadDeduplicator(Clock clock, boolean remoteCheckEnabled, Duration indexTtl, int maximumSize) {
+        this(clock);
+        this.enabled = true;
+        this.remoteCheckEnabled = remoteCheckEnabled;
+        this.indexTtl = indexTtl;
+        this.maximumSize = maximumSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Upload the payload unless the same content is already stored at the key
+     *
+     * @param upload     uploads the payload, returns false when the upload failed
+     * @param remoteETag ETag of the object stored at the given key, null when there is none
+     * @return true when the content is stored at the key, either uploaded now or before
+     */
+    public boolean uploadIfChanged(String s3FilePath, byte[] content, BooleanSupplier upload, Function<String, String> remoteETag) {
+        if (!enabled) {
+            return upload.getAsBoolean();
+        }
+        String digest = digest(content);
+        long now = clock.millis();
+
+        UploadedDigest uploadedDigest = uploadedDigests.get(s3FilePath);
+        if (uploadedDigest != null && uploadedDigest.digest().equals(digest) && !isExpired(uploadedDigest, now)) {
+            skipUpload(s3FilePath, content.length, "index");
+            return true;
+        }
+        if (remoteCheckEnabled && (uploadedDigest == null || isExpired(uploadedDigest, now))) {
+            remoteCheckCount.increment();
+            String eTag = remoteETag.apply(s3FilePath);
+            if (eTag != null && !isMultipartETag(eTag) && stripQuotes(eTag).equals(digest)) {
+                index(s3FilePath, digest, now);
+                skipUpload(s3FilePath, content.length, "ETag");
+                return true;
+            }
+        }
+
+        boolean uploaded = upload.getAsBoolean();
+        if (uploaded) {
+            index(s3FilePath, digest, now);
+        } else {
+            uploadedDigests.remove(s3FilePath);
+        }
+        return uploaded;
+    }
+
+    /**
+     * Upload the streamed payload, digesting it while it is read, and index its digest
+     *
+     * @param upload uploads the stream it is given to its end, returns false when the upload failed
+     * @return true when the content is stored at the key
+     */
+    public boolean uploadIfChanged(String s3FilePath, InputStream content, Predicate<InputStream> upload) {
+        if (!enabled) {
+            return upload.test(content);
+        }
+        // not the thread's digest, the upload may digest other payloads while it reads the stream
+        MessageDigest md5 = newMd5();
+        boolean uploaded = upload.test(new DigestInputStream(content, md5));
+        if (uploaded) {
+            index(s3FilePath, HexFormat.of().formatHex(md5.digest()), clock.millis());
+        } else {
+            uploadedDigests.remove(s3FilePath);
+        }
+        return uploaded;
+    }
+
+    /**
+     * Non blocking variant for payloads in memory. Only the index is consulted, an ETag lookup would block.
+     * The key is removed from the index while the upload runs, a concurrent upload of the replaced content
+     * is not skipped because of it.
+     *
+     * @param upload starts the upload of the payload, the future completes with false when the upload failed
+     * @return completes with true when the content is stored at the key, either uploaded now or before
+     */
+    public CompletableFuture<Boolean> uploadIfChangedAsync(String s3FilePath, ByteBuffer content, Supplier<CompletableFuture<Boolean>> upload) {
+        if (!enabled) {
+            return upload.get();
+        }
+        String digest = digest(content);
+        long now = clock.millis();
+
+        UploadedDigest uploadedDigest = uploadedDigests.get(s3FilePath);
+        if (uploadedDigest != null && uploadedDigest.digest().equals(digest) && !isExpired(uploadedDigest, now)) {
+            skipUpload(s3FilePath, content.remaining(), "index");
+            return CompletableFuture.completedFuture(true);
+        }
+        uploadedDigests.remove(s3FilePath);
+        return upload.get().thenApply(uploaded -> {
+            if (uploaded) {
+                index(s3FilePath, digest, clock.millis());
+            }
+            return uploaded;
+        });
+    }
+
+    public long getSkippedUploadCount() {
+        return skippedUploadCount.sum();
+    }
+
+    public long getSavedBytes() {
+        return savedBytes.sum();
+    }
+
+    public long getRemoteCheckCount() {
+        return remoteCheckCount.sum();
+    }
+
+    public int size() {
+        return uploadedDigests.size();
+    }
+
+    /**
+     * hex encoded MD5 digest, the format of S3 ETags
+     */
+    static String digest(byte[] content) {
+        MessageDigest md5 = MD5.get();
+        md5.reset();
+        return HexFormat.of().formatHex(md5.digest(content));
+    }
+
+    /**
+     * digest of the remaining content, the position of the buffer is not changed
+     */
+    static String digest(ByteBuffer content) {
+        MessageDigest md5 = MD5.get();
+        md5.reset();
+        md5.update(content.duplicate());
+        return HexFormat.of().formatHex(md5.digest());
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void skipUpload(String s3FilePath, int length, String matchedBy) {
+        skippedUploadCount.increment();
+        savedBytes.add(length);
+        logger.debug("file: {} is unchanged ({} match), upload skipped", s3FilePath, matchedBy);
+    }
+
+    private void index(String s3FilePath, String digest, long now) {
+        uploadedDigests.put(s3FilePath, new UploadedDigest(digest, now));
+        if (uploadedDigests.size() > maximumSize) {
+            evict(now);
+        }
+    }
+
+    private boolean isExpired(UploadedDigest uploadedDigest, long now) {
+        return now - uploadedDigest.indexedAtMillis() >= indexTtl.toMillis();
+    }
+
+    /**
+     * the ETag of a multipart upload is the MD5 of the part digests followed by -N, N being the number of parts
+     */
+    private static boolean isMultipartETag(String eTag) {
+        return stripQuotes(eTag).indexOf('-') >= 0;
+    }
+
+    private static String stripQuotes(String eTag) {
+        return eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\"") ? eTag.substring(1, eTag.length() - 1) : eTag;
+    }
+
+    /**
+     * Remove expired entries and, if the index is still full, arbitrary entries until it is back to 90%
+     * of the maximum size. Only one thread evicts at a time, the others carry on.
+     */
+    private void evict(long now) {
+        if (!evictionInProgress.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            uploadedDigests.values().removeIf(uploadedDigest -> isExpired(uploadedDigest, now));
+            int targetSize = maximumSize - maximumSize / 10;
+            Iterator<UploadedDigest> iterator = uploadedDigests.values().iterator();
+            while (uploadedDigests.size() > targetSize && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        } finally {
+            evictionInProgress.set(false);
+        }
+    }
+
+    @PostConstruct
+    private void registerMeters() {
+        FunctionCounter.builder("cfsignedurl.upload.dedup.skipped", skippedUploadCount, LongAdder::sum)
+                .description("S3 uploads skipped because the content was unchanged")
+                .register(meterRegistry);
+        FunctionCounter.builder("cfsignedurl.upload.dedup.saved.bytes", savedBytes, LongAdder::sum)
+                .description("bytes not uploaded because the content was unchanged")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        FunctionCounter.builder("cfsignedurl.upload.dedup.remote.checks", remoteCheckCount, LongAdder::sum)
+                .description("ETag lookups of objects missing from the index")
+                .register(meterRegistry);
+    }
+
+    private record UploadedDigest(String digest, long indexedAtMillis) {
+    }
+}
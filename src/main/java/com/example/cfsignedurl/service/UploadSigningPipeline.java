@@ -0,0 +1,281 @@
+package com.example.cfsignedurl.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Runs the upload and the signing of one S3 object in the configured mode.
+ *
+ * The signature only depends on the S3 path and the expiration date, so it does not have to wait for the upload.
+ * serial: upload, then sign (the original behaviour).
+ * pipelined: sign on the signing executor while the calling thread uploads. The URL is returned once the upload
+ * is acknowledged, and discarded when the upload fails.
+ * write-behind: sign and return the URL immediately, the upload runs in the background and a failed upload is
+ * retried with exponential backoff, capped at s3.write-behind.max-backoff, until it succeeds. The URL may return 404
+ * until the upload is done.
+ *
+ * The pending uploads are drained when the lifecycle stops, after the web server stopped taking requests and before
+ * any bean is destroyed, so the S3 clients are still open while the uploads complete and are retried. Uploads still
+ * pending when s3.write-behind.shutdown-timeout elapses are dropped, their signed URLs never resolve. The pending
+ * and dropped uploads are published as the cfsignedurl.upload.write-behind.pending and .dropped meters.
+ */
+@Component
+public class UploadSigningPipeline implements SmartLifecycle {
+
+    /**
+     * stops after the web server, which stops in the phases just below SmartLifecycle.DEFAULT_PHASE
+     */
+    static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+    public enum Mode {
+        SERIAL,
+        PIPELINED,
+        WRITE_BEHIND
+    }
+
+    @Value("${cloudfront.upload-signing.mode:serial}")
+    private String mode;
+
+    /**
+     * number of threads signing in pipelined mode, defaults to the number of available processors
+     */
+    @Value("${cloudfront.upload-signing.signing-threads:0}")
+    private int signingThreads;
+
+    @Value("${s3.write-behind.threads:4}")
+    private int writeBehindThreads;
+
+    @Value("${s3.write-behind.initial-backoff:PT0.2S}")
+    private Duration initialBackoff;
+
+    @Value("${s3.write-behind.max-backoff:PT30S}")
+    private Duration maxBackoff;
+
+    /**
+     * upper bound of the uploads held in memory, further requests upload in pipelined mode until some complete
+     */
+    @Value("${s3.write-behind.max-pending:1000}")
+    private int maxPending;
+
+    /**
+     * how long the shutdown keeps retrying pending write-behind uploads before dropping them
+     */
+    @Value("${s3.write-behind.shutdown-timeout:PT30S}")
+    private Duration shutdownTimeout;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Mode pipelineMode;
+
+    private ExecutorService signingExecutor;
+
+    private ScheduledExecutorService writeBehindExecutor;
+
+    private final AtomicInteger pendingUploads = new AtomicInteger();
+
+    private final LongAdder droppedUploads = new LongAdder();
+
+    private volatile boolean running;
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSigningPipeline.class);
+
+
+    public Mode getMode() {
+        return pipelineMode;
+    }
+
+    public int getPendingUploads() {
+        return pendingUploads.get();
+    }
+
+    public long getDroppedUploads() {
+        return droppedUploads.sum();
+    }
+
+    /**
+     * Upload the object and sign its URL in the configured mode
+     *
+     * @param s3FilePath S3 object path, used for logging
+     * @param upload     uploads the object and returns false when the upload failed. It is invoked again for every
+     *                   retry in write-behind mode, so it must not consume a one-shot stream.
+     * @param signer     signs the URL of the object
+     * @return the signed URL, null when the upload failed
+     */
+    public String uploadAndSign(String s3FilePath, BooleanSupplier upload, Supplier<String> signer) {
+        return switch (pipelineMode) {
+            case SERIAL -> upload.getAsBoolean() ? signer.get() : null;
+            case PIPELINED -> uploadWhileSigning(upload, signer);
+            case WRITE_BEHIND -> signAndUploadBehind(s3FilePath, upload, signer);
+        };
+    }
+
+    private String uploadWhileSigning(BooleanSupplier upload, Supplier<String> signer) {
+        CompletableFuture<String> signedUrl = CompletableFuture.supplyAsync(signer, signingExecutor);
+        if (!upload.getAsBoolean()) {
+            signedUrl.cancel(false);
+            return null;
+        }
+        try {
+            return signedUrl.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    private String signAndUploadBehind(String s3FilePath, BooleanSupplier upload, Supplier<String> signer) {
+        if (writeBehindExecutor.isShutdown()) {
+            return uploadWhileSigning(upload, signer);
+        }
+        if (pendingUploads.incrementAndGet() > maxPending) {
+            pendingUploads.decrementAndGet();
+            logger.warn("file: {} uploaded in pipelined mode, {} write-behind uploads are pending", s3FilePath, maxPending);
+            return uploadWhileSigning(upload, signer);
+        }
+        String signedUrl;
+        try {
+            signedUrl = signer.get();
+        } catch (RuntimeException e) {
+            pendingUploads.decrementAndGet();
+            throw e;
+        }
+        submitUpload(s3FilePath, upload, 1, 0);
+        return signedUrl;
+    }
+
+    private void submitUpload(String s3FilePath, BooleanSupplier upload, int attempt, long delayMillis) {
+        try {
+            writeBehindExecutor.schedule(() -> attemptUpload(s3FilePath, upload, attempt), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // only rejected once the shutdown timeout elapsed
+            dropUploads(1);
+            logger.error("file: {} write-behind upload dropped at shutdown after {} attempts, its signed URL will not resolve", s3FilePath, attempt - 1);
+        }
+    }
+
+    private void attemptUpload(String s3FilePath, BooleanSupplier upload, int attempt) {
+        boolean uploaded;
+        try {
+            uploaded = upload.getAsBoolean();
+        } catch (RuntimeException e) {
+            logger.error("file: {} write-behind upload attempt {} failed. ERROR: {}", s3FilePath, attempt, e.getMessage());
+            uploaded = false;
+        }
+        if (uploaded) {
+            pendingUploads.decrementAndGet();
+            return;
+        }
+        long backoffMillis = backoffMillis(attempt);
+        logger.warn("file: {} write-behind upload attempt {} failed, retrying in {} ms", s3FilePath, attempt, backoffMillis);
+        submitUpload(s3FilePath, upload, attempt + 1, backoffMillis);
+    }
+
+    private void dropUploads(int count) {
+        pendingUploads.addAndGet(-count);
+        droppedUploads.add(count);
+    }
+
+    /**
+     * exponential backoff with full jitter
+     */
+    private long backoffMillis(int attempt) {
+        long backoff = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(attempt - 1, 20));
+        return (long) (Math.random() * backoff);
+    }
+
+    @PostConstruct
+    private void createExecutors() {
+        pipelineMode = Mode.valueOf(mode.trim().toUpperCase().replace('-', '_'));
+        if (pipelineMode != Mode.SERIAL) {
+            signingExecutor = Executors.newFixedThreadPool(signingThreads > 0 ? signingThreads : Runtime.getRuntime().availableProcessors(),
+                    namedThreads("upload-signing"));
+        }
+        if (pipelineMode == Mode.WRITE_BEHIND) {
+            writeBehindExecutor = Executors.newScheduledThreadPool(writeBehindThreads, namedThreads("s3-write-behind"));
+            Gauge.builder("cfsignedurl.upload.write-behind.pending", pendingUploads, AtomicInteger::get)
+                    .description("write-behind uploads not yet stored in S3")
+                    .register(meterRegistry);
+            FunctionCounter.builder("cfsignedurl.upload.write-behind.dropped", droppedUploads, LongAdder::sum)
+                    .description("write-behind uploads dropped at shutdown, their signed URLs never resolve")
+                    .register(meterRegistry);
+        }
+        logger.info("upload and signing run in {} mode", pipelineMode);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        shutdownExecutors();
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * also runs on destruction in case the lifecycle was never started, a second call returns immediately
+     */
+    @PreDestroy
+    private void shutdownExecutors() {
+        if (signingExecutor != null) {
+            signingExecutor.shutdown();
+        }
+        if (writeBehindExecutor != null && !writeBehindExecutor.isShutdown()) {
+            // failed uploads keep being retried on the executor until they are stored or the timeout elapses
+            long deadline = System.nanoTime() + shutdownTimeout.toNanos();
+            try {
+                while (pendingUploads.get() > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(Math.min(50, Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            int queued = writeBehindExecutor.shutdownNow().size();
+            if (queued > 0) {
+                dropUploads(queued);
+            }
+            if (pendingUploads.get() > 0 || queued > 0) {
+                logger.error("{} write-behind uploads did not complete before the shutdown and are lost", queued + pendingUploads.get());
+            }
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + "-" + threadNumber.incrementAndGet());
+    }
+}
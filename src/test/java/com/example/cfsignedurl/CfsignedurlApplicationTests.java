@@ -1,9 +1,17 @@
 package com.example.cfsignedurl;
 
+import com.example.cfsignedurl.standin.GeneratedSigningKeyInitializer;
+import com.example.cfsignedurl.standin.S3StandInConfigs;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
 
 @SpringBootTest
+@ActiveProfiles(S3StandInConfigs.PROFILE)
+@Import(S3StandInConfigs.class)
+@ContextConfiguration(initializers = GeneratedSigningKeyInitializer.class)
 class CfsignedurlApplicationTests {
 
 	@Test
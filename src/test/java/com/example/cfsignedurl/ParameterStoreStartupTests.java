@@ -0,0 +1,83 @@
+package com.example.cfsignedurl;
+
+import com.example.cfsignedurl.service.CloudFrontKeyRing;
+import com.example.cfsignedurl.standin.S3StandInConfigs;
+import com.example.cfsignedurl.standin.SsmStandIn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Starts the application with the dev profile, which imports its configuration from Parameter Store, and with
+ * the key rotation reloading the signing key from Parameter Store, both served by the SSM stand-in.
+ * S3 is still served by the S3 stand-in.
+ */
+class ParameterStoreStartupTests {
+
+    private static final String PARAMETER_PATH = "/config/application_dev/";
+
+    /**
+     * the SDK clients built without explicit settings take their region and credentials from these
+     */
+    private static final Map<String, String> AWS_SYSTEM_PROPERTIES = Map.of(
+            "aws.region", "us-east-1",
+            "aws.accessKeyId", "stand-in",
+            "aws.secretAccessKey", "stand-in");
+
+    private final Map<String, String> previousSystemProperties = new HashMap<>();
+
+    private final SsmStandIn ssmStandIn = new SsmStandIn();
+
+    @BeforeEach
+    void startSsmStandIn() throws Exception {
+        AWS_SYSTEM_PROPERTIES.forEach((name, value) -> previousSystemProperties.put(name, System.setProperty(name, value)));
+        ssmStandIn.start();
+        putSigningKey("K-PARAMETER-STORE-1");
+    }
+
+    @AfterEach
+    void stopSsmStandIn() {
+        ssmStandIn.stop();
+        previousSystemProperties.forEach((name, value) -> {
+            if (value == null) {
+                System.clearProperty(name);
+            } else {
+                System.setProperty(name, value);
+            }
+        });
+    }
+
+    @Test
+    void signingKeyIsImportedAndRotatedFromParameterStore() throws Exception {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(CfsignedurlApplication.class, S3StandInConfigs.class)
+                .profiles("dev", S3StandInConfigs.PROFILE)
+                .run("--server.port=0",
+                        "--spring.cloud.aws.parameterstore.endpoint=" + ssmStandIn.getEndpoint(),
+                        "--cloudfront.key-rotation.enabled=true",
+                        "--cloudfront.key-rotation.refresh-interval=PT0.1S")) {
+            CloudFrontKeyRing keyRing = context.getBean(CloudFrontKeyRing.class);
+            assertThat(keyRing.getActiveSigner().getKeyPairId()).isEqualTo("K-PARAMETER-STORE-1");
+
+            putSigningKey("K-PARAMETER-STORE-2");
+
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (!"K-PARAMETER-STORE-2".equals(keyRing.getActiveSigner().getKeyPairId()) && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertThat(keyRing.getActiveSigner().getKeyPairId()).isEqualTo("K-PARAMETER-STORE-2");
+        }
+    }
+
+    private void putSigningKey(String keyPairId) {
+        ssmStandIn.putParameter(PARAMETER_PATH + "aws.s3.object.cloudfront.private.sign.key",
+                TestFixtures.privateKeyPem(TestFixtures.generateRsaKeyPair().getPrivate()));
+        ssmStandIn.putParameter(PARAMETER_PATH + "cloudfront.distribution.keypair.id", keyPairId);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.cfsignedurl.config;
+
+import com.example.cfsignedurl.service.ConcurrencyLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdmissionControlFilterTests {
+
+    @Test
+    void uploadsAboveTheLimitAreRejectedWithoutBlockingSigning() throws Exception {
+        AdmissionControlProperties properties = new AdmissionControlProperties();
+        properties.setRetryAfter(Duration.ofMillis(1500));
+        properties.getUpload().setLimit(1);
+        properties.getUpload().setMaxQueue(0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AdmissionControlFilter filter = new AdmissionControlFilter(properties, meterRegistry);
+
+        AtomicReference<MockHttpServletResponse> secondUpload = new AtomicReference<>();
+        AtomicReference<MockHttpServletResponse> signing = new AtomicReference<>();
+        // the second upload and the signing request arrive while the first upload holds the only upload permit
+        MockFilterChain firstUploadChain = new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                secondUpload.set(filter(filter, "/upload/2/sdk-v2/signed-url"));
+                signing.set(filter(filter, "/sdk-v2/signed-urls"));
+            }
+        };
+        MockHttpServletResponse firstUpload = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/upload/1/sdk-v2/signed-url"), firstUpload, firstUploadChain);
+
+        assertThat(firstUpload.getStatus()).isEqualTo(200);
+        assertThat(secondUpload.get().getStatus()).isEqualTo(429);
+        assertThat(secondUpload.get().getHeader("Retry-After")).isEqualTo("2");
+        assertThat(signing.get().getStatus()).isEqualTo(200);
+        assertThat(meterRegistry.get(AdmissionControlFilter.REJECTED).tag("operation", "upload").tag("reason", "queue-full").counter().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get(AdmissionControlFilter.IN_FLIGHT).tag("operation", "upload").gauge().value()).isZero();
+    }
+
+    @Test
+    void asyncUploadHoldsItsPermitUntilItCompletes() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        MockAsyncContext asyncContext = startAsyncUpload(new AdmissionControlFilter(new AdmissionControlProperties(), meterRegistry));
+
+        assertThat(uploadsInFlight(meterRegistry)).isEqualTo(1);
+        asyncContext.complete();
+
+        assertThat(uploadsInFlight(meterRegistry)).isZero();
+    }
+
+    @Test
+    void asyncUploadReleasesItsPermitOnTimeout() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        MockAsyncContext asyncContext = startAsyncUpload(new AdmissionControlFilter(new AdmissionControlProperties(), meterRegistry));
+
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+        assertThat(uploadsInFlight(meterRegistry)).isZero();
+        // the container completes the request after the timeout, the permit must not be released twice
+        asyncContext.complete();
+
+        assertThat(uploadsInFlight(meterRegistry)).isZero();
+    }
+
+    @Test
+    void asyncUploadReleasesItsPermitOnError() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        MockAsyncContext asyncContext = startAsyncUpload(new AdmissionControlFilter(new AdmissionControlProperties(), meterRegistry));
+
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onError(new AsyncEvent(asyncContext, new IllegalStateException("connection reset")));
+        }
+        assertThat(uploadsInFlight(meterRegistry)).isZero();
+        asyncContext.complete();
+
+        assertThat(uploadsInFlight(meterRegistry)).isZero();
+    }
+
+    @Test
+    void serverErrorsShrinkAnAimdLimit() throws Exception {
+        AdmissionControlProperties properties = new AdmissionControlProperties();
+        properties.getUpload().setAdaptation(ConcurrencyLimiter.Adaptation.AIMD);
+        properties.getUpload().setLimit(16);
+        properties.getUpload().setMinLimit(1);
+        properties.getUpload().setBackoffRatio(0.5);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AdmissionControlFilter filter = new AdmissionControlFilter(properties, meterRegistry);
+        MockFilterChain failingChain = new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                ((MockHttpServletResponse) response).setStatus(503);
+            }
+        };
+
+        filter.doFilter(new MockHttpServletRequest("GET", "/upload/1/sdk-v2/signed-url"), new MockHttpServletResponse(), failingChain);
+        filter.doFilter(new MockHttpServletRequest("GET", "/upload/2/sdk-v2/signed-url"), new MockHttpServletResponse(), failingChain);
+
+        assertThat(meterRegistry.get(AdmissionControlFilter.LIMIT).tag("operation", "upload").gauge().value()).isEqualTo(4);
+        assertThat(uploadsInFlight(meterRegistry)).isZero();
+    }
+
+    /**
+     * an upload whose controller returned a CompletableFuture, the request is still in async processing
+     */
+    private static MockAsyncContext startAsyncUpload(AdmissionControlFilter filter) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/upload/1/sdk-v2-async/signed-url");
+        request.setAsyncSupported(true);
+        MockFilterChain asyncChain = new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                request.startAsync(request, response);
+            }
+        };
+        filter.doFilter(request, new MockHttpServletResponse(), asyncChain);
+        return (MockAsyncContext) request.getAsyncContext();
+    }
+
+    private static double uploadsInFlight(SimpleMeterRegistry meterRegistry) {
+        return meterRegistry.get(AdmissionControlFilter.IN_FLIGHT).tag("operation", "upload").gauge().value();
+    }
+
+    private static MockHttpServletResponse filter(AdmissionControlFilter filter, String path) {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try {
+            filter.doFilter(new MockHttpServletRequest("GET", path), response, new MockFilterChain());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.cfsignedurl.config;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.example.cfsignedurl.standin.S3StandIn;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3ConnectionPoolMetricsTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final S3ConnectionPoolMetrics connectionPoolMetrics = new S3ConnectionPoolMetrics(meterRegistry);
+
+    private final S3HttpClientProperties httpClientProperties = new S3HttpClientProperties();
+
+    private final S3StandIn s3StandIn = new S3StandIn(Duration.ZERO, Duration.ZERO, 0);
+
+    @BeforeEach
+    void startStandIn() throws Exception {
+        httpClientProperties.setMaxConnections(8);
+        s3StandIn.start();
+    }
+
+    @AfterEach
+    void stopStandIn() {
+        s3StandIn.stop();
+    }
+
+    @Test
+    void sdkVersionTwoRequestsUpdateThePoolGauges() {
+        try (S3Client s3Client = S3Client.builder()
+                .endpointOverride(s3StandIn.getEndpoint())
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("stand-in", "stand-in")))
+                .forcePathStyle(true)
+                .httpClient(S3HttpClients.syncHttpClient(httpClientProperties))
+                .overrideConfiguration(S3HttpClients.overrideConfiguration(httpClientProperties, connectionPoolMetrics.metricPublisher("s3Client")))
+                .build()) {
+
+            s3Client.putObject(builder -> builder.bucket("cf-signed-url-test").key("testfolder/sample-file-1.csv"), RequestBody.fromString("1,abcd"));
+            s3Client.putObject(builder -> builder.bucket("cf-signed-url-test").key("testfolder/sample-file-2.csv"), RequestBody.fromString("2,abcd"));
+        }
+
+        assertThat(meterRegistry.get(S3ConnectionPoolMetrics.POOL_MAX).tag("client", "s3Client").gauge().value()).isEqualTo(8);
+        // the pool state is reported before the connection is leased, the second request finds the first connection idle
+        assertThat(meterRegistry.get(S3ConnectionPoolMetrics.POOL_AVAILABLE).tag("client", "s3Client").gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.get(S3ConnectionPoolMetrics.POOL_PENDING).tag("client", "s3Client").gauge().value()).isZero();
+        assertThat(meterRegistry.get(S3ConnectionPoolMetrics.POOL_ACQUIRE).tag("client", "s3Client").timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void sdkVersionOneRequestsUpdateThePoolGauges() {
+        AmazonS3 amazonS3 = AmazonS3ClientBuilder.standard()
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(s3StandIn.getEndpoint().toString(), "us-east-1"))
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("stand-in", "stand-in")))
+                .withPathStyleAccessEnabled(true)
+                .disableChunkedEncoding()
+                .withClientConfiguration(S3HttpClients.clientConfiguration(httpClientProperties))
+                .withMetricsCollector(connectionPoolMetrics.requestMetricCollector("amazonS3", httpClientProperties.getMaxConnections()))
+                .build();
+        try {
+            amazonS3.putObject("cf-signed-url-test", "testfolder/sample-file-1.csv", "1,abcd");
+            amazonS3.putObject("cf-signed-url-test", "testfolder/sample-file-2.csv", "2,abcd");
+        } finally {
+            amazonS3.shutdown();
+        }
+
+        assertThat(meterRegistry.get(S3ConnectionPoolMetrics.POOL_MAX).tag("client", "amazonS3").gauge().value()).isEqualTo(8);
+        assertThat(meterRegistry.get(S3ConnectionPoolMetrics.POOL_AVAILABLE).tag("client", "amazonS3").gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.get(S3ConnectionPoolMetrics.POOL_PENDING).tag("client", "amazonS3").gauge().value()).isZero();
+    }
+}
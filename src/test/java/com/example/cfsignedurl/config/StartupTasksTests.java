@@ -0,0 +1,67 @@
+package com.example.cfsignedurl.config;
+
+import com.example.cfsignedurl.standin.GeneratedSigningKeyInitializer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the real BeanConfigs, without the S3 stand-in, with lazy initialization. The clients are built
+ * without any request to AWS, so only a region is required.
+ */
+@SpringBootTest(properties = {
+        "spring.main.lazy-initialization=true",
+        "s3.bucket=cf-signed-url-test",
+        "cloudfront.distribution.domain=stand-in.cloudfront.net",
+        "cloudfront.distribution.link-retention-duration-days=7"
+})
+@ContextConfiguration(initializers = GeneratedSigningKeyInitializer.class)
+class StartupTasksTests {
+
+    private static final String REGION_PROPERTY = "aws.region";
+
+    private static String previousRegion;
+
+    @Autowired
+    private ConfigurableApplicationContext applicationContext;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeAll
+    static void setRegion() {
+        previousRegion = System.setProperty(REGION_PROPERTY, "us-east-1");
+    }
+
+    @AfterAll
+    static void restoreRegion() {
+        if (previousRegion == null) {
+            System.clearProperty(REGION_PROPERTY);
+        } else {
+            System.setProperty(REGION_PROPERTY, previousRegion);
+        }
+    }
+
+    @Test
+    void lazyBeanConfigsAreCreatedAfterTheStartupTasksShutDown() {
+        assertThat(applicationContext.getBeanFactory().containsSingleton("beanConfigs")).isFalse();
+
+        assertThat(applicationContext.getBean(S3Client.class)).isNotNull();
+        // only the requested client is built, the clients of the other SDK versions register their pool meters on first use
+        assertThat(meterRegistry.find(S3ConnectionPoolMetrics.POOL_LEASED).tag("client", "s3Client").gauge()).isNotNull();
+        assertThat(meterRegistry.find(S3ConnectionPoolMetrics.POOL_LEASED).tag("client", "amazonS3").gauge()).isNull();
+        assertThat(meterRegistry.find(S3ConnectionPoolMetrics.POOL_LEASED).tag("client", "s3AsyncClient").gauge()).isNull();
+
+        assertThat(applicationContext.getBean(S3AsyncClient.class)).isNotNull();
+        assertThat(meterRegistry.find(S3ConnectionPoolMetrics.POOL_LEASED).tag("client", "s3AsyncClient").gauge()).isNotNull();
+    }
+}
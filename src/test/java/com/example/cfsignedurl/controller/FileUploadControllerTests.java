@@ -0,0 +1,108 @@
+package com.example.cfsignedurl.controller;
+
+import com.example.cfsignedurl.service.AWSS3AsyncServiceSDKVersionTwo;
+import com.example.cfsignedurl.service.AWSS3ServiceSDKVersionTwo;
+import com.example.cfsignedurl.service.CloudFrontSignedUrlVerifier;
+import com.example.cfsignedurl.standin.GeneratedSigningKeyInitializer;
+import com.example.cfsignedurl.standin.S3StandIn;
+import com.example.cfsignedurl.standin.S3StandInConfigs;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SDK v2 async upload endpoint against the S3 stand-in, through the S3AsyncClient bean of the stand-in profile,
+ * with the upload deduplication enabled
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "s3.upload.dedup.enabled=true")
+@ActiveProfiles(S3StandInConfigs.PROFILE)
+@Import(S3StandInConfigs.class)
+@ContextConfiguration(initializers = GeneratedSigningKeyInitializer.class)
+class FileUploadControllerTests {
+
+    @LocalServerPort
+    private int port;
+
+    @Value("${server.servlet.context-path}")
+    private String contextPath;
+
+    @Value("${s3.bucket}")
+    private String s3Bucket;
+
+    @Autowired
+    private S3StandIn s3StandIn;
+
+    @Autowired
+    private AWSS3AsyncServiceSDKVersionTwo awss3AsyncServiceSDKVersionTwo;
+
+    @Autowired
+    private AWSS3ServiceSDKVersionTwo awss3ServiceSDKVersionTwo;
+
+    @Autowired
+    private CloudFrontSignedUrlVerifier cloudFrontSignedUrlVerifier;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @Test
+    void asyncEndpointUploadsAndSigns() throws Exception {
+        HttpResponse<String> response = get("/upload/async-1/sdk-v2-async/signed-url");
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).startsWith("https://stand-in.cloudfront.net/testfolder/sample-file-async-1.csv?");
+        assertThat(cloudFrontSignedUrlVerifier.verify(response.body()).isValid()).isTrue();
+        assertThat(s3StandIn.containsObject(s3Bucket, "testfolder/sample-file-async-1.csv")).isTrue();
+    }
+
+    @Test
+    void failedAsyncUploadCompletesWithoutAUrl() throws Exception {
+        s3StandIn.denyUploads(s3Bucket, "testfolder/sample-file-async-denied.csv");
+
+        assertThat(awss3AsyncServiceSDKVersionTwo.getCloudFrontSignedUrl("async-denied").get(10, TimeUnit.SECONDS)).isNull();
+
+        HttpResponse<String> response = get("/upload/async-denied/sdk-v2-async/signed-url");
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isEmpty();
+        assertThat(s3StandIn.containsObject(s3Bucket, "testfolder/sample-file-async-denied.csv")).isFalse();
+    }
+
+    @Test
+    void syncUploadAfterAnAsyncUploadOfOtherContentIsNotSkipped() throws Exception {
+        String s3FilePath = "testfolder/sample-file-dedup-1.csv";
+        assertThat(awss3ServiceSDKVersionTwo.getCloudFrontSignedUrl("dedup-1")).isNotNull();
+
+        ByteBuffer otherContent = ByteBuffer.wrap("dedup-1,efgh".getBytes(StandardCharsets.UTF_8));
+        assertThat(awss3AsyncServiceSDKVersionTwo.uploadObjectToAmazonS3(otherContent, s3FilePath).get(10, TimeUnit.SECONDS)).isTrue();
+
+        // the index no longer holds the digest of the first upload, so the original content is stored again
+        assertThat(awss3ServiceSDKVersionTwo.getCloudFrontSignedUrl("dedup-1")).isNotNull();
+        assertThat(s3StandIn.getPutRequests(s3Bucket, s3FilePath)).isEqualTo(3);
+    }
+
+    @Test
+    void reportWithMoreRowsThanTheMaximumIsRejected() throws Exception {
+        HttpResponse<String> response = get("/upload/report-1/sdk-v2/report/signed-url?rows=9223372036854775807");
+
+        assertThat(response.statusCode()).isEqualTo(400);
+        assertThat(s3StandIn.containsObject(s3Bucket, "testfolder/report-report-1.csv")).isFalse();
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return httpClient.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + contextPath + path)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+}
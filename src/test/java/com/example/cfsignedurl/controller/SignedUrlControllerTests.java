@@ -0,0 +1,148 @@
+package com.example.cfsignedurl.controller;
+
+import com.example.cfsignedurl.service.CloudFrontSignedCookies;
+import com.example.cfsignedurl.service.CloudFrontSignedUrlVerifier;
+import com.example.cfsignedurl.standin.GeneratedSigningKeyInitializer;
+import com.example.cfsignedurl.standin.S3StandInConfigs;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Batch signing and signed cookie endpoints against the S3 stand-in profile, with batch chunks smaller than the batch
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "cloudfront.batch-signing.chunk-size=3",
+        "cloudfront.batch-signing.max-batch-size=" + SignedUrlControllerTests.MAX_BATCH_SIZE
+})
+@ActiveProfiles(S3StandInConfigs.PROFILE)
+@Import(S3StandInConfigs.class)
+@ContextConfiguration(initializers = GeneratedSigningKeyInitializer.class)
+class SignedUrlControllerTests {
+
+    static final int MAX_BATCH_SIZE = 10;
+
+    @LocalServerPort
+    private int port;
+
+    @Value("${server.servlet.context-path}")
+    private String contextPath;
+
+    @Autowired
+    private CloudFrontSignedUrlVerifier cloudFrontSignedUrlVerifier;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @Test
+    void batchesAreSignedInRequestOrderWithBothSdkVersions() throws Exception {
+        List<String> s3FilePaths = IntStream.range(0, 8).mapToObj(i -> "testfolder/sample-file-" + i + ".csv").toList();
+
+        for (String sdkVersion : List.of("sdk-v1", "sdk-v2")) {
+            HttpResponse<String> response = post("/" + sdkVersion + "/signed-urls", objectMapper.writeValueAsString(s3FilePaths));
+
+            assertThat(response.statusCode()).as(sdkVersion).isEqualTo(200);
+            assertThat(response.headers().firstValue("Content-Type")).hasValueSatisfying(contentType -> assertThat(contentType).startsWith("application/json"));
+            JsonNode signedUrls = objectMapper.readTree(response.body());
+            assertThat(signedUrls).as(sdkVersion).hasSize(s3FilePaths.size());
+            for (int i = 0; i < s3FilePaths.size(); i++) {
+                assertThat(signedUrls.get(i).get("path").asText()).isEqualTo(s3FilePaths.get(i));
+                String signedUrl = signedUrls.get(i).get("url").asText();
+                assertThat(signedUrl).startsWith("https://stand-in.cloudfront.net/" + s3FilePaths.get(i) + "?");
+                assertThat(cloudFrontSignedUrlVerifier.verify(signedUrl).isValid()).as(signedUrl).isTrue();
+            }
+        }
+    }
+
+    @Test
+    void emptyBatchesAreRejected() throws Exception {
+        assertThat(post("/sdk-v2/signed-urls", "[]").statusCode()).isEqualTo(400);
+    }
+
+    @Test
+    void batchesOverTheMaximumSizeAreRejectedWhileTheyAreRead() throws Exception {
+        List<String> s3FilePaths = IntStream.range(0, MAX_BATCH_SIZE + 1).mapToObj(i -> "testfolder/sample-file-" + i + ".csv").toList();
+        String oversizedBatch = objectMapper.writeValueAsString(s3FilePaths);
+
+        assertThat(post("/sdk-v1/signed-urls", oversizedBatch).statusCode()).isEqualTo(400);
+        assertThat(post("/sdk-v2/signed-urls", oversizedBatch).statusCode()).isEqualTo(400);
+        assertThat(post("/signed-urls/verify", oversizedBatch).statusCode()).isEqualTo(400);
+        // the elements over the limit are never parsed
+        String batchWithTrailingGarbage = oversizedBatch.substring(0, oversizedBatch.length() - 1) + ", {\"not\": \"read\"";
+        assertThat(post("/sdk-v2/signed-urls", batchWithTrailingGarbage).statusCode()).isEqualTo(400);
+    }
+
+    @Test
+    void batchesOfOtherValuesThanStringsAreRejected() throws Exception {
+        assertThat(post("/sdk-v2/signed-urls", "[\"testfolder/sample-file-1.csv\", 2]").statusCode()).isEqualTo(400);
+        assertThat(post("/sdk-v2/signed-urls", "{\"path\": \"testfolder/sample-file-1.csv\"}").statusCode()).isEqualTo(400);
+    }
+
+    @Test
+    void signedCookiesCarryTheRequestedPolicyWithBothSdkVersions() throws Exception {
+        Instant activeFrom = Instant.now().minus(Duration.ofMinutes(5)).truncatedTo(ChronoUnit.SECONDS);
+
+        for (String sdkVersion : List.of("sdk-v1", "sdk-v2")) {
+            HttpResponse<String> response = get("/" + sdkVersion + "/signed-cookies?path-pattern=testfolder/*&active-from=" + activeFrom + "&ip-range=192.0.2.10");
+            assertThat(response.statusCode()).as(sdkVersion).isEqualTo(200);
+            JsonNode cookies = objectMapper.readTree(response.body());
+            CloudFrontSignedCookies signedCookies = new CloudFrontSignedCookies("testfolder/*", cookies.get(CloudFrontSignedCookies.POLICY_COOKIE_NAME).asText(),
+                    cookies.get(CloudFrontSignedCookies.SIGNATURE_COOKIE_NAME).asText(), cookies.get(CloudFrontSignedCookies.KEY_PAIR_ID_COOKIE_NAME).asText());
+
+            // CloudFront's URL safe base64: '-' for '+', '_' for '=' and '~' for '/'
+            JsonNode statement = objectMapper.readTree(Base64.getDecoder().decode(signedCookies.policy().replace('-', '+').replace('_', '=').replace('~', '/')))
+                    .path("Statement").path(0);
+            assertThat(statement.path("Resource").asText()).as(sdkVersion).isEqualTo("https://stand-in.cloudfront.net/testfolder/*");
+            JsonNode condition = statement.path("Condition");
+            assertThat(condition.path("DateLessThan").path("AWS:EpochTime").asLong())
+                    .isCloseTo(Instant.now().plus(Duration.ofDays(7)).getEpochSecond(), within(60L));
+            assertThat(condition.path("DateGreaterThan").path("AWS:EpochTime").asLong()).isEqualTo(activeFrom.getEpochSecond());
+            assertThat(condition.path("IpAddress").path("AWS:SourceIp").asText()).isEqualTo("192.0.2.10/32");
+
+            String signedUrl = signedCookies.toSignedUrl("https://stand-in.cloudfront.net/testfolder/sample-file-1.csv");
+            assertThat(cloudFrontSignedUrlVerifier.verify(signedUrl, "192.0.2.10").status()).as(sdkVersion).isEqualTo(CloudFrontSignedUrlVerifier.Status.VALID);
+            assertThat(cloudFrontSignedUrlVerifier.verify(signedUrl, "192.0.2.11").status()).isEqualTo(CloudFrontSignedUrlVerifier.Status.IP_MISMATCH);
+        }
+    }
+
+    @Test
+    void signedCookiesOfAnInvalidIpRangeAreRejected() throws Exception {
+        assertThat(get("/sdk-v1/signed-cookies?path-pattern=testfolder/*&ip-range=example.com").statusCode()).isEqualTo(400);
+        assertThat(get("/sdk-v2/signed-cookies?path-pattern=testfolder/*&ip-range=192.0.2.0/33").statusCode()).isEqualTo(400);
+    }
+
+    private HttpResponse<String> get(String pathAndQuery) throws Exception {
+        return httpClient.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + contextPath + pathAndQuery)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + contextPath + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
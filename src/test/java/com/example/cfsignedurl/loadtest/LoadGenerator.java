@@ -0,0 +1,149 @@
+package com.example.cfsignedurl.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+
+/**
+ * Closed loop load generator: every worker sends a request, waits for the response and sends the next one,
+ * so the offered load is the given concurrency. A GET request fails when the response is not a 200 with a body.
+ */
+class LoadGenerator {
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final AtomicLong requestCounter = new AtomicLong();
+
+    /**
+     * @param uriOfRequest URI of the nth request, so every request uploads a different object
+     */
+    LoadReport run(String name, LongFunction<URI> uriOfRequest, int concurrency, Duration warmUp, Duration duration) throws Exception {
+        return runRequests(name, requestNumber -> send(uriOfRequest.apply(requestNumber)), concurrency, warmUp, duration);
+    }
+
+    /**
+     * @param request sends the nth request, returns false or throws when the request failed
+     */
+    LoadReport runRequests(String name, LongPredicate request, int concurrency, Duration warmUp, Duration duration) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        try {
+            runWorkers(workers, request, concurrency, warmUp);
+
+            long start = System.nanoTime();
+            List<WorkerResult> results = runWorkers(workers, request, concurrency, duration);
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+            return LoadReport.of(name, concurrency, elapsed, results);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private List<WorkerResult> runWorkers(ExecutorService workers, LongPredicate request, int concurrency, Duration duration) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<WorkerResult>> futures = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            futures.add(workers.submit(() -> runWorker(request, deadline)));
+        }
+        List<WorkerResult> results = new ArrayList<>(concurrency);
+        for (Future<WorkerResult> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    private WorkerResult runWorker(LongPredicate request, long deadline) {
+        long[] latencies = new long[1024];
+        int requests = 0;
+        long errors = 0;
+        while (System.nanoTime() < deadline) {
+            long requestStart = System.nanoTime();
+            try {
+                if (!request.test(requestCounter.incrementAndGet())) {
+                    errors++;
+                }
+            } catch (RuntimeException e) {
+                errors++;
+            }
+            if (requests == latencies.length) {
+                latencies = Arrays.copyOf(latencies, requests * 2);
+            }
+            latencies[requests++] = System.nanoTime() - requestStart;
+        }
+        return new WorkerResult(Arrays.copyOf(latencies, requests), errors);
+    }
+
+    private boolean send(URI uri) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == 200 && !response.body().isEmpty();
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private record WorkerResult(long[] latencies, long errors) {
+    }
+
+    /**
+     * @param latencyPercentiles p50, p99 and p999 latencies
+     */
+    record LoadReport(String name, int concurrency, long requests, long errors, Duration elapsed, Duration[] latencyPercentiles) {
+
+        private static LoadReport of(String name, int concurrency, Duration elapsed, List<WorkerResult> results) {
+            long[] latencies = results.stream().flatMapToLong(result -> Arrays.stream(result.latencies())).sorted().toArray();
+            long errors = results.stream().mapToLong(WorkerResult::errors).sum();
+            return new LoadReport(name, concurrency, latencies.length, errors, elapsed, new Duration[]{
+                    percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999)});
+        }
+
+        private static Duration percentile(long[] sortedLatencies, double percentile) {
+            if (sortedLatencies.length == 0) {
+                return Duration.ZERO;
+            }
+            int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+            return Duration.ofNanos(sortedLatencies[Math.max(index, 0)]);
+        }
+
+        double requestsPerSecond() {
+            return requests / (elapsed.toNanos() / 1e9);
+        }
+
+        double errorRate() {
+            return requests == 0 ? 0 : (double) errors / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-14s concurrency %4d  %9.1f req/s  p50 %8.2f ms  p99 %8.2f ms  p999 %8.2f ms  errors %6.2f%% (%d of %d)",
+                    name, concurrency, requestsPerSecond(),
+                    millis(latencyPercentiles[0]), millis(latencyPercentiles[1]), millis(latencyPercentiles[2]),
+                    errorRate() * 100, errors, requests);
+        }
+
+        private static double millis(Duration duration) {
+            return duration.toNanos() / 1e6;
+        }
+    }
+}
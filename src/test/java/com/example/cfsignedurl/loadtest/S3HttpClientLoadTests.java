@@ -0,0 +1,160 @@
+package com.example.cfsignedurl.loadtest;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.example.cfsignedurl.config.S3HttpClientProperties;
+import com.example.cfsignedurl.config.S3HttpClientProperties.AsyncClientType;
+import com.example.cfsignedurl.config.S3HttpClientProperties.SyncClientType;
+import com.example.cfsignedurl.config.S3HttpClients;
+import com.example.cfsignedurl.loadtest.LoadGenerator.LoadReport;
+import com.example.cfsignedurl.standin.S3StandIn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the throughput and latency of the S3 HTTP client settings with S3 puts against the S3 stand-in:
+ * the pool size of each client and the HTTP client implementations of the SDK v2 clients.
+ * A concurrency above the pool size shows the time requests wait for a connection.
+ * Excluded from the test task, run with "./gradlew loadTest",
+ * eg: ./gradlew loadTest -Dloadtest.concurrency=64 -Dloadtest.max-connections=16,64,256 -Ds3.stand-in.latency=PT0.05S
+ */
+@Tag("load")
+class S3HttpClientLoadTests {
+
+    private static final String BUCKET = "cf-signed-url-test";
+
+    private static final String PAYLOAD = "1,abcd\n2,efgh\n3,ijkl\n";
+
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+
+    private final List<Integer> maxConnections = parseInts(System.getProperty("loadtest.max-connections", "8,50,200"));
+
+    private final Duration warmUp = Duration.parse(System.getProperty("loadtest.warm-up", "PT5S"));
+
+    private final Duration duration = Duration.parse(System.getProperty("loadtest.duration", "PT10S"));
+
+    private final S3StandIn s3StandIn = new S3StandIn(Duration.parse(System.getProperty("s3.stand-in.latency", "PT0.02S")),
+            Duration.parse(System.getProperty("s3.stand-in.latency-jitter", "PT0.01S")),
+            Double.parseDouble(System.getProperty("s3.stand-in.error-rate", "0")));
+
+    private final LoadGenerator loadGenerator = new LoadGenerator();
+
+    private static final Logger logger = LoggerFactory.getLogger(S3HttpClientLoadTests.class);
+
+    @BeforeEach
+    void startStandIn() throws Exception {
+        s3StandIn.start();
+    }
+
+    @AfterEach
+    void stopStandIn() {
+        s3StandIn.stop();
+    }
+
+    @Test
+    void httpClientSettings() throws Exception {
+        List<LoadReport> reports = new ArrayList<>();
+        for (int poolSize : maxConnections) {
+            S3HttpClientProperties properties = new S3HttpClientProperties();
+            properties.setMaxConnections(poolSize);
+            reports.add(sdkVersionOne(properties));
+            reports.add(sdkVersionTwo(properties));
+            reports.add(sdkVersionTwoAsync(properties));
+        }
+
+        // the URLConnection client has no pool of its own and the CRT client's pool size is its max concurrency
+        S3HttpClientProperties urlConnection = new S3HttpClientProperties();
+        urlConnection.setType(SyncClientType.URL_CONNECTION);
+        reports.add(sdkVersionTwo(urlConnection));
+        S3HttpClientProperties crt = new S3HttpClientProperties();
+        crt.setAsyncType(AsyncClientType.CRT);
+        reports.add(sdkVersionTwoAsync(crt));
+
+        logger.info("S3 stand-in served {} requests, {} failed by error injection", s3StandIn.getRequests(), s3StandIn.getInjectedErrors());
+        reports.forEach(report -> logger.info("{}", report));
+
+        assertThat(reports).allSatisfy(report -> assertThat(report.requests()).isPositive());
+    }
+
+    private LoadReport sdkVersionOne(S3HttpClientProperties properties) throws Exception {
+        AmazonS3 amazonS3 = AmazonS3ClientBuilder.standard()
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(s3StandIn.getEndpoint().toString(), "us-east-1"))
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("stand-in", "stand-in")))
+                .withPathStyleAccessEnabled(true)
+                .disableChunkedEncoding()
+                .withClientConfiguration(S3HttpClients.clientConfiguration(properties))
+                .build();
+        try {
+            return loadGenerator.runRequests(name("sdk-v1", properties), requestNumber -> {
+                amazonS3.putObject(BUCKET, key(requestNumber), PAYLOAD);
+                return true;
+            }, concurrency, warmUp, duration);
+        } finally {
+            amazonS3.shutdown();
+        }
+    }
+
+    private LoadReport sdkVersionTwo(S3HttpClientProperties properties) throws Exception {
+        try (S3Client s3Client = S3Client.builder()
+                .endpointOverride(s3StandIn.getEndpoint())
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("stand-in", "stand-in")))
+                .forcePathStyle(true)
+                .httpClient(S3HttpClients.syncHttpClient(properties))
+                .build()) {
+            return loadGenerator.runRequests(name("sdk-v2-" + properties.getType(), properties), requestNumber -> s3Client.putObject(
+                    builder -> builder.bucket(BUCKET).key(key(requestNumber)), RequestBody.fromString(PAYLOAD)).sdkHttpResponse().isSuccessful(),
+                    concurrency, warmUp, duration);
+        }
+    }
+
+    private LoadReport sdkVersionTwoAsync(S3HttpClientProperties properties) throws Exception {
+        try (S3AsyncClient s3AsyncClient = S3AsyncClient.builder()
+                .endpointOverride(s3StandIn.getEndpoint())
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("stand-in", "stand-in")))
+                .forcePathStyle(true)
+                .httpClient(S3HttpClients.asyncHttpClient(properties))
+                .build()) {
+            return loadGenerator.runRequests(name("sdk-v2-async-" + properties.getAsyncType(), properties), requestNumber -> s3AsyncClient.putObject(
+                    builder -> builder.bucket(BUCKET).key(key(requestNumber)), AsyncRequestBody.fromString(PAYLOAD)).join().sdkHttpResponse().isSuccessful(),
+                    concurrency, warmUp, duration);
+        }
+    }
+
+    private static String name(String client, S3HttpClientProperties properties) {
+        return String.format("%s max-connections=%d", client.toLowerCase(), properties.getMaxConnections());
+    }
+
+    private static String key(long requestNumber) {
+        return String.format("load/http-client-%d.csv", requestNumber);
+    }
+
+    private static List<Integer> parseInts(String values) {
+        List<Integer> ints = new ArrayList<>();
+        for (String value : values.split(",")) {
+            ints.add(Integer.parseInt(value.trim()));
+        }
+        return ints;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.cfsignedurl.loadtest;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures the time from the JVM start to the application being ready and to its first signed URL, for the
+ * startup options of the application. Every run starts StartupTimeProbe in a new JVM, so class loading and
+ * JIT compilation are part of the measurement as they are for a newly scaled out instance.
+ * Excluded from the test task, run with "./gradlew loadTest -Dloadtest.startup-runs=5".
+ */
+@Tag("load")
+class StartupTimeLoadTests {
+
+    private static final Map<String, List<String>> STARTUP_OPTIONS = new LinkedHashMap<>();
+
+    static {
+        STARTUP_OPTIONS.put("default", List.of());
+        STARTUP_OPTIONS.put("sequential", List.of("--startup.parallel.enabled=false"));
+        STARTUP_OPTIONS.put("lazy", List.of("--spring.main.lazy-initialization=true"));
+        STARTUP_OPTIONS.put("sdk-v2-only", List.of("--s3.sdk-v1.enabled=false", "--s3.sdk-v2-async.enabled=false"));
+        STARTUP_OPTIONS.put("warm-up", List.of("--startup.warm-up.enabled=true"));
+    }
+
+    private final int runs = Integer.getInteger("loadtest.startup-runs", 3);
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimeLoadTests.class);
+
+    @Test
+    void timeToFirstSignedUrl() throws Exception {
+        List<String> reports = new ArrayList<>();
+        for (Map.Entry<String, List<String>> startupOption : STARTUP_OPTIONS.entrySet()) {
+            long[] readyMillis = new long[runs];
+            long[] firstSignedUrlMillis = new long[runs];
+            for (int run = 0; run < runs; run++) {
+                long[] uptimes = probe(startupOption.getValue());
+                readyMillis[run] = uptimes[0];
+                firstSignedUrlMillis[run] = uptimes[1];
+            }
+            reports.add(String.format("%-12s runs %2d  ready median %6d ms  first signed url median %6d ms  min %6d ms  max %6d ms",
+                    startupOption.getKey(), runs, median(readyMillis), median(firstSignedUrlMillis),
+                    Arrays.stream(firstSignedUrlMillis).min().orElse(0), Arrays.stream(firstSignedUrlMillis).max().orElse(0)));
+        }
+        reports.forEach(report -> logger.info("{}", report));
+
+        assertThat(reports).hasSize(STARTUP_OPTIONS.size());
+    }
+
+    /**
+     * @return JVM uptime in milliseconds when the application was ready and when the first signed URL arrived
+     */
+    private static long[] probe(List<String> applicationArguments) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"),
+                StartupTimeProbe.class.getName()));
+        command.addAll(applicationArguments);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        String result = null;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = output.readLine(); line != null; line = output.readLine()) {
+                if (line.startsWith(StartupTimeProbe.RESULT_PREFIX)) {
+                    result = line.substring(StartupTimeProbe.RESULT_PREFIX.length());
+                }
+            }
+        }
+        if (!process.waitFor(2, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+        }
+        assertThat(result).as("startup probe result of %s", applicationArguments).isNotNull();
+        String[] uptimes = result.split(",");
+        return new long[]{Long.parseLong(uptimes[0]), Long.parseLong(uptimes[1])};
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.cfsignedurl.loadtest;
+
+import com.example.cfsignedurl.CfsignedurlApplication;
+import com.example.cfsignedurl.standin.GeneratedSigningKeyInitializer;
+import com.example.cfsignedurl.standin.S3StandInConfigs;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Starts the application against the S3 stand-in in a fresh JVM, requests one signed URL from the SDK v2
+ * upload endpoint and prints the JVM uptime when the application was ready and when the signed URL arrived.
+ * Application properties are passed as arguments, eg: --spring.main.lazy-initialization=true
+ */
+class StartupTimeProbe {
+
+    static final String RESULT_PREFIX = "startup-time-probe:";
+
+    public static void main(String[] args) throws Exception {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(CfsignedurlApplication.class, S3StandInConfigs.class)
+                .profiles(S3StandInConfigs.PROFILE)
+                .initializers(new GeneratedSigningKeyInitializer())
+                .properties("server.port=0")
+                .run(args);
+        long readyUptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        URI uri = URI.create(String.format("http://localhost:%s%s/upload/startup-probe/sdk-v2/signed-url",
+                context.getEnvironment().getProperty("local.server.port"), context.getEnvironment().getProperty("server.servlet.context-path")));
+        HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+        long firstSignedUrlUptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        if (response.statusCode() != 200 || response.body().isEmpty()) {
+            throw new IllegalStateException(String.format("%s returned %d", uri, response.statusCode()));
+        }
+        System.out.println(RESULT_PREFIX + readyUptimeMillis + "," + firstSignedUrlUptimeMillis);
+        context.close();
+        System.exit(0);
+    }
+}
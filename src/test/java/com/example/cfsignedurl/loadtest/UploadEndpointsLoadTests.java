@@ -0,0 +1,76 @@
+package com.example.cfsignedurl.loadtest;
+
+import com.example.cfsignedurl.loadtest.LoadGenerator.LoadReport;
+import com.example.cfsignedurl.standin.GeneratedSigningKeyInitializer;
+import com.example.cfsignedurl.standin.S3StandIn;
+import com.example.cfsignedurl.standin.S3StandInConfigs;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives the upload endpoints of FileUploadController against the S3 stand-in and reports the throughput,
+ * latency percentiles and error rate of each. Excluded from the test task, run with "./gradlew loadTest",
+ * eg: ./gradlew loadTest -Dloadtest.concurrency=64 -Dloadtest.duration=PT30S -Ds3.stand-in.error-rate=0.01
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles(S3StandInConfigs.PROFILE)
+@Import(S3StandInConfigs.class)
+@ContextConfiguration(initializers = GeneratedSigningKeyInitializer.class)
+class UploadEndpointsLoadTests {
+
+    @LocalServerPort
+    private int port;
+
+    @Value("${server.servlet.context-path}")
+    private String contextPath;
+
+    @Value("${loadtest.endpoints:sdk-v1,sdk-v2,sdk-v2-async}")
+    private List<String> endpoints;
+
+    @Value("${loadtest.concurrency:16}")
+    private int concurrency;
+
+    @Value("${loadtest.warm-up:PT5S}")
+    private Duration warmUp;
+
+    @Value("${loadtest.duration:PT10S}")
+    private Duration duration;
+
+    @Autowired
+    private S3StandIn s3StandIn;
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadEndpointsLoadTests.class);
+
+    @Test
+    void uploadEndpoints() throws Exception {
+        LoadGenerator loadGenerator = new LoadGenerator();
+        List<LoadReport> reports = new ArrayList<>();
+        for (String endpoint : endpoints) {
+            reports.add(loadGenerator.run(endpoint,
+                    requestNumber -> URI.create(String.format("http://localhost:%d%s/upload/load-%d/%s/signed-url", port, contextPath, requestNumber, endpoint)),
+                    concurrency, warmUp, duration));
+        }
+
+        logger.info("S3 stand-in served {} requests, {} failed by error injection", s3StandIn.getRequests(), s3StandIn.getInjectedErrors());
+        reports.forEach(report -> logger.info("{}", report));
+
+        assertThat(reports).allSatisfy(report -> assertThat(report.requests()).isPositive());
+    }
+}
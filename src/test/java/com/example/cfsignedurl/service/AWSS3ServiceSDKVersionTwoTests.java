@@ -0,0 +1,141 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.standin.GeneratedSigningKeyInitializer;
+import com.example.cfsignedurl.standin.S3StandIn;
+import com.example.cfsignedurl.standin.S3StandInConfigs;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Uploads of the SDK services against the S3 stand-in, with the resilience layer enabled
+ */
+@SpringBootTest(properties = {
+        "s3.resilience.enabled=true",
+        "s3.resilience.max-attempts=3",
+        "s3.resilience.throttled-initial-backoff=PT0.01S",
+        "s3.upload.part-size=" + AWSS3ServiceSDKVersionTwoTests.PART_SIZE
+})
+@ActiveProfiles(S3StandInConfigs.PROFILE)
+@Import(S3StandInConfigs.class)
+@ContextConfiguration(initializers = GeneratedSigningKeyInitializer.class)
+class AWSS3ServiceSDKVersionTwoTests {
+
+    static final int PART_SIZE = 5 * 1024 * 1024;
+
+    @Value("${s3.bucket}")
+    private String s3Bucket;
+
+    @Autowired
+    private S3StandIn s3StandIn;
+
+    @Autowired
+    private AWSS3ServiceSDKVersionTwo awss3ServiceSDKVersionTwo;
+
+    @Autowired
+    private AWSS3ServiceSDKVersionOne awss3ServiceSDKVersionOne;
+
+    @Test
+    void largeBufferedStreamIsUploadedWithoutMarkingItsWholeContent() {
+        long size = 8L * PART_SIZE + 123;
+        long bytesReceived = s3StandIn.getBytesReceived();
+        MarkTrackingInputStream content = new MarkTrackingInputStream(new GeneratedInputStream(size));
+
+        assertThat(awss3ServiceSDKVersionTwo.uploadObjectToAmazonS3(content, "testfolder/large-stream.csv")).isTrue();
+
+        assertThat(s3StandIn.containsObject(s3Bucket, "testfolder/large-stream.csv")).isTrue();
+        assertThat(s3StandIn.getBytesReceived() - bytesReceived).isGreaterThanOrEqualTo(size);
+        // a BufferedInputStream grows its buffer up to the read limit of the mark
+        assertThat(content.largestReadLimit).isLessThanOrEqualTo(PART_SIZE + 1);
+    }
+
+    @Test
+    void smallBufferedStreamIsUploaded() {
+        MarkTrackingInputStream content = new MarkTrackingInputStream(new GeneratedInputStream(1024));
+
+        assertThat(awss3ServiceSDKVersionTwo.uploadObjectToAmazonS3(content, "testfolder/small-stream.csv")).isTrue();
+
+        assertThat(s3StandIn.containsObject(s3Bucket, "testfolder/small-stream.csv")).isTrue();
+    }
+
+    @Test
+    void throttledUploadIsSentOncePerResilienceAttempt() {
+        s3StandIn.throttleUploads(s3Bucket, "testfolder/throttled-v2.csv");
+
+        assertThat(awss3ServiceSDKVersionTwo.uploadObjectToAmazonS3("a,b,c".getBytes(StandardCharsets.UTF_8), "testfolder/throttled-v2.csv")).isFalse();
+
+        // the SDK client does not retry on its own while the resilience layer retries the upload
+        assertThat(s3StandIn.getPutRequests(s3Bucket, "testfolder/throttled-v2.csv")).isEqualTo(3);
+    }
+
+    @Test
+    void throttledSdkVersionOneUploadIsSentOncePerResilienceAttempt() {
+        s3StandIn.throttleUploads(s3Bucket, "testfolder/throttled-v1.csv");
+        byte[] content = "a,b,c".getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+
+        assertThat(awss3ServiceSDKVersionOne.uploadObjectToAWSS3(content, "testfolder/throttled-v1.csv", metadata)).isFalse();
+
+        assertThat(s3StandIn.getPutRequests(s3Bucket, "testfolder/throttled-v1.csv")).isEqualTo(3);
+    }
+
+    private static class MarkTrackingInputStream extends BufferedInputStream {
+
+        private int largestReadLimit;
+
+        private MarkTrackingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            largestReadLimit = Math.max(largestReadLimit, readLimit);
+            super.mark(readLimit);
+        }
+    }
+
+    /**
+     * content of the given size generated while it is read, so the test itself holds no payload
+     */
+    private static class GeneratedInputStream extends InputStream {
+
+        private long remaining;
+
+        private GeneratedInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return 'a' + (int) (remaining % 26);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int chunk = (int) Math.min(length, remaining);
+            for (int i = 0; i < chunk; i++) {
+                bytes[offset + i] = (byte) ('a' + (int) (--remaining % 26));
+            }
+            return chunk;
+        }
+    }
+}
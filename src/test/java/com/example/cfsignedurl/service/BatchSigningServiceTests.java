@@ -0,0 +1,123 @@
+package com.example.cfsignedurl.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchSigningServiceTests {
+
+    private static final Function<String, String> SIGNER = s3FilePath -> "https://abcd.cloudfront.net/" + s3FilePath + "?Signature=x";
+
+    private final BatchSigningService batchSigningService = new BatchSigningService();
+
+    @AfterEach
+    void shutdownSigningPool() {
+        ReflectionTestUtils.invokeMethod(batchSigningService, "shutdownSigningPool");
+    }
+
+    @Test
+    void signedUrlsAreWrittenInRequestOrderAcrossChunks() throws Exception {
+        createSigningPool(4);
+        List<String> s3FilePaths = IntStream.range(0, 10).mapToObj(i -> "testfolder/sample-file-" + i + ".csv").toList();
+        // signatures complete out of order within a chunk
+        Function<String, String> slowSigner = s3FilePath -> {
+            sleepQuietly(ThreadLocalRandom.current().nextInt(5));
+            return SIGNER.apply(s3FilePath);
+        };
+
+        JsonNode signedUrls = new ObjectMapper().readTree(write(batchSigningService.signBatch(s3FilePaths, slowSigner)));
+
+        assertThat(signedUrls.isArray()).isTrue();
+        assertThat(signedUrls).hasSize(10);
+        for (int i = 0; i < s3FilePaths.size(); i++) {
+            assertThat(signedUrls.get(i).get("path").asText()).isEqualTo(s3FilePaths.get(i));
+            assertThat(signedUrls.get(i).get("url").asText()).isEqualTo(SIGNER.apply(s3FilePaths.get(i)));
+        }
+    }
+
+    @Test
+    void onlyTheFirstChunkIsSignedBeforeTheBatchIsWritten() throws Exception {
+        createSigningPool(4);
+        AtomicInteger signatures = new AtomicInteger();
+
+        BatchSigningService.SignedUrlBatch signedUrlBatch = batchSigningService.signBatch(List.of("a", "b", "c", "d", "e", "f"), s3FilePath -> {
+            signatures.incrementAndGet();
+            return SIGNER.apply(s3FilePath);
+        });
+        assertThat(signatures).hasValue(4);
+
+        write(signedUrlBatch);
+        assertThat(signatures).hasValue(6);
+    }
+
+    @Test
+    void failureOfTheFirstChunkIsThrownBeforeAnythingIsWritten() {
+        createSigningPool(4);
+
+        assertThatThrownBy(() -> batchSigningService.signBatch(List.of("a", "b"), s3FilePath -> {
+            throw new IllegalStateException("signing key unavailable");
+        })).hasMessage("Failed to sign the batch").hasRootCauseMessage("signing key unavailable");
+    }
+
+    @Test
+    void failureOfALaterChunkLeavesTheJsonArrayUnterminated() {
+        createSigningPool(2);
+        BatchSigningService.SignedUrlBatch signedUrlBatch = batchSigningService.signBatch(List.of("a", "b", "c"), s3FilePath -> {
+            if (s3FilePath.equals("c")) {
+                throw new IllegalStateException("signing key unavailable");
+            }
+            return SIGNER.apply(s3FilePath);
+        });
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        assertThatThrownBy(() -> signedUrlBatch.writeTo(outputStream)).hasMessage("Failed to sign the batch");
+        String written = outputStream.toString(StandardCharsets.UTF_8);
+        assertThat(written).startsWith("[{\"path\":\"a\"").doesNotEndWith("]");
+        assertThatThrownBy(() -> new ObjectMapper().readTree(written)).isInstanceOf(JsonProcessingException.class);
+    }
+
+    @Test
+    void nonPositiveChunkSizeIsRejected() {
+        ReflectionTestUtils.setField(batchSigningService, "chunkSize", 0);
+
+        assertThatThrownBy(() -> ReflectionTestUtils.invokeMethod(batchSigningService, "createSigningPool"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("cloudfront.batch-signing.chunk-size");
+        // the pool of the other tests
+        createSigningPool(1);
+    }
+
+    private void createSigningPool(int chunkSize) {
+        ReflectionTestUtils.setField(batchSigningService, "concurrency", 2);
+        ReflectionTestUtils.setField(batchSigningService, "chunkSize", chunkSize);
+        ReflectionTestUtils.invokeMethod(batchSigningService, "createSigningPool");
+    }
+
+    private static String write(BatchSigningService.SignedUrlBatch signedUrlBatch) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        signedUrlBatch.writeTo(outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.TestFixtures;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BulkPresignJobTests {
+
+    private static final String DOMAIN = "abcd.cloudfront.net";
+    private static final String KEY_PAIR_ID = "K2JCJMDEHXQW5F";
+    private static final long EXPIRES_EPOCH_SECONDS = 1691662530L;
+
+    /**
+     * an hour and a quarter before EXPIRES_EPOCH_SECONDS
+     */
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2023-08-10T09:00:30Z"), ZoneOffset.UTC);
+
+    private static CloudFrontCannedPolicySigner signer;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void createSigner() {
+        signer = new CloudFrontCannedPolicySigner(TestFixtures.generateRsaKeyPair().getPrivate(), KEY_PAIR_ID, DOMAIN);
+    }
+
+    @Test
+    void manifestIsSignedInOrder() throws Exception {
+        List<String> s3FilePaths = writeManifest(100);
+        Path output = tempDir.resolve("manifest.signed.csv");
+
+        BulkPresignJob.Result result = bulkPresignJob().run(tempDir.resolve("manifest.txt"), output, signer, EXPIRES_EPOCH_SECONDS);
+
+        assertThat(result.signedUrls()).isEqualTo(100);
+        assertThat(Files.readAllBytes(output)).isEqualTo(expectedOutput(s3FilePaths));
+        assertThat(BulkPresignJob.checkpointFileOf(output)).doesNotExist();
+    }
+
+    @Test
+    void interruptedRunIsResumedFromTheCheckpoint() throws Exception {
+        List<String> s3FilePaths = writeManifest(100);
+        Path manifest = tempDir.resolve("manifest.txt");
+        Path output = tempDir.resolve("manifest.signed.csv");
+        byte[] expectedOutput = expectedOutput(s3FilePaths);
+        // checkpoint after 40 manifest lines (39 paths and the blank line), followed by a torn record
+        int checkpointedBytes = expectedOutput(s3FilePaths.subList(0, 39)).length;
+        Files.write(output, Arrays.copyOf(expectedOutput, checkpointedBytes + 25));
+        new BulkPresignJob.Checkpoint(40, checkpointedBytes, EXPIRES_EPOCH_SECONDS, BulkPresignJob.digest(manifest), KEY_PAIR_ID)
+                .write(BulkPresignJob.checkpointFileOf(output));
+
+        BulkPresignJob.Result result = bulkPresignJob().run(manifest, output, signer, EXPIRES_EPOCH_SECONDS + 3600);
+
+        assertThat(result.resumedLines()).isEqualTo(40);
+        assertThat(result.signedUrls()).isEqualTo(61);
+        assertThat(Files.readAllBytes(output)).isEqualTo(expectedOutput);
+    }
+
+    @Test
+    void checkpointExpiringWithinTheMinimumValidityIsDiscarded() throws Exception {
+        writeManifest(100);
+        Path manifest = tempDir.resolve("manifest.txt");
+        Path output = tempDir.resolve("manifest.signed.csv");
+        Files.writeString(output, "stale records");
+        long expiredSoon = CLOCK.instant().plus(Duration.ofMinutes(30)).getEpochSecond();
+        new BulkPresignJob.Checkpoint(40, 13, expiredSoon, BulkPresignJob.digest(manifest), KEY_PAIR_ID)
+                .write(BulkPresignJob.checkpointFileOf(output));
+
+        BulkPresignJob.Result result = bulkPresignJob().run(manifest, output, signer, EXPIRES_EPOCH_SECONDS);
+
+        assertThat(result.resumedLines()).isZero();
+        assertThat(result.signedUrls()).isEqualTo(100);
+        assertThat(new String(Files.readAllBytes(output), StandardCharsets.UTF_8)).doesNotContain("stale").contains("Expires=" + EXPIRES_EPOCH_SECONDS);
+    }
+
+    @Test
+    void checkpointOfAnEditedManifestOfTheSameSizeIsRefused() throws Exception {
+        writeManifest(100);
+        Path manifest = tempDir.resolve("manifest.txt");
+        Path output = tempDir.resolve("manifest.signed.csv");
+        Files.writeString(output, "");
+        new BulkPresignJob.Checkpoint(40, 0, EXPIRES_EPOCH_SECONDS, BulkPresignJob.digest(manifest), KEY_PAIR_ID)
+                .write(BulkPresignJob.checkpointFileOf(output));
+        Files.writeString(manifest, Files.readString(manifest).replace("sample-file-1.csv", "sample-file-X.csv"));
+
+        assertThatThrownBy(() -> bulkPresignJob().run(manifest, output, signer, EXPIRES_EPOCH_SECONDS))
+                .hasMessageContaining("another content of the manifest");
+    }
+
+    @Test
+    void checkpointOfAnotherSigningKeyIsRefused() throws Exception {
+        writeManifest(100);
+        Path manifest = tempDir.resolve("manifest.txt");
+        Path output = tempDir.resolve("manifest.signed.csv");
+        Files.writeString(output, "");
+        new BulkPresignJob.Checkpoint(40, 0, EXPIRES_EPOCH_SECONDS, BulkPresignJob.digest(manifest), "K-PREVIOUS")
+                .write(BulkPresignJob.checkpointFileOf(output));
+
+        assertThatThrownBy(() -> bulkPresignJob().run(manifest, output, signer, EXPIRES_EPOCH_SECONDS))
+                .hasMessageContaining("K-PREVIOUS");
+    }
+
+    @Test
+    void pathsAreSignedAsWritten() {
+        assertThat(new String(BulkPresignJob.record(" testfolder/sample-file-1.csv ", signer, EXPIRES_EPOCH_SECONDS), StandardCharsets.UTF_8))
+                .isEqualTo(" testfolder/sample-file-1.csv ," + signer.sign(" testfolder/sample-file-1.csv ", EXPIRES_EPOCH_SECONDS) + "\r\n");
+        assertThat(BulkPresignJob.record(" \t", signer, EXPIRES_EPOCH_SECONDS)).isNull();
+    }
+
+    private static BulkPresignJob bulkPresignJob() {
+        return new BulkPresignJob(4, 7, 256, Duration.ofMinutes(1), Duration.ofHours(1), CLOCK);
+    }
+
+    /**
+     * manifest of the given number of paths, with a blank line after the 39th
+     */
+    private List<String> writeManifest(int paths) throws Exception {
+        List<String> s3FilePaths = new ArrayList<>();
+        StringBuilder manifest = new StringBuilder();
+        for (int i = 0; i < paths; i++) {
+            String s3FilePath = i % 10 == 3 ? "test folder/sample, \"file\" " + i + ".csv" : "testfolder/sample-file-" + i + ".csv";
+            s3FilePaths.add(s3FilePath);
+            manifest.append(s3FilePath).append('\n');
+            if (i == 38) {
+                manifest.append('\n');
+            }
+        }
+        Files.writeString(tempDir.resolve("manifest.txt"), manifest, StandardCharsets.UTF_8);
+        return s3FilePaths;
+    }
+
+    private static byte[] expectedOutput(List<String> s3FilePaths) {
+        StringBuilder output = new StringBuilder();
+        for (String s3FilePath : s3FilePaths) {
+            String csvPath = s3FilePath.contains(",") ? "\"" + s3FilePath.replace("\"", "\"\"") + "\"" : s3FilePath;
+            output.append(csvPath).append(',').append(signer.sign(s3FilePath, EXPIRES_EPOCH_SECONDS)).append("\r\n");
+        }
+        return output.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
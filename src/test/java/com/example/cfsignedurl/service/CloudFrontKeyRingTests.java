@@ -0,0 +1,81 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.TestFixtures;
+import com.example.cfsignedurl.TestFixtures.MutableClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CloudFrontKeyRingTests {
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2023-08-10T10:00:00Z"));
+
+    private final CloudFrontKeyRing cloudFrontKeyRing = new CloudFrontKeyRing(clock);
+
+    @BeforeEach
+    void configureKeyRing() {
+        ReflectionTestUtils.setField(cloudFrontKeyRing, "cloudfrontDistributionDomainName", "abcd.cloudfront.net");
+        ReflectionTestUtils.setField(cloudFrontKeyRing, "overlapWindow", Duration.ofMinutes(10));
+    }
+
+    @Test
+    void firstKeyIsActiveImmediately() {
+        cloudFrontKeyRing.stage(keyMaterial("K-OLD"));
+
+        assertThat(cloudFrontKeyRing.getActiveSigner().getKeyPairId()).isEqualTo("K-OLD");
+    }
+
+    @Test
+    void stagedKeyIsActiveAfterTheOverlapWindow() {
+        cloudFrontKeyRing.stage(keyMaterial("K-OLD"));
+        cloudFrontKeyRing.stage(keyMaterial("K-NEW"));
+
+        assertThat(cloudFrontKeyRing.getActiveSigner().getKeyPairId()).isEqualTo("K-OLD");
+
+        clock.advance(Duration.ofMinutes(10));
+        assertThat(cloudFrontKeyRing.getActiveSigner().getKeyPairId()).isEqualTo("K-NEW");
+        assertThat(cloudFrontKeyRing.getActiveSigner().sign("testfolder/sample-file-1.csv", clock.instant()))
+                .contains("Key-Pair-Id=K-NEW");
+    }
+
+    @Test
+    void failedRefreshKeepsTheActiveKey() {
+        cloudFrontKeyRing.stage(keyMaterial("K-OLD"));
+        ReflectionTestUtils.setField(cloudFrontKeyRing, "source", "file");
+        ReflectionTestUtils.setField(cloudFrontKeyRing, "keyPairIdPath", "/does/not/exist/key-pair-id");
+        ReflectionTestUtils.setField(cloudFrontKeyRing, "privateKeyPath", "/does/not/exist/private-key.pem");
+
+        assertThat(cloudFrontKeyRing.refresh()).isFalse();
+        assertThat(cloudFrontKeyRing.getActiveSigner().getKeyPairId()).isEqualTo("K-OLD");
+    }
+
+    @Test
+    void malformedKeyIsRejectedWithItsCause() {
+        assertThatThrownBy(() -> cloudFrontKeyRing.stage(new CloudFrontKeyRing.KeyMaterial("K-MALFORMED", "not a key")))
+                .hasMessageContaining("K-MALFORMED")
+                .hasCauseInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rotationFromParameterStoreWithoutParameterNamesFailsTheStartup() {
+        ReflectionTestUtils.setField(cloudFrontKeyRing, "enabled", true);
+        ReflectionTestUtils.setField(cloudFrontKeyRing, "source", "parameter-store");
+        ReflectionTestUtils.setField(cloudFrontKeyRing, "privateKeyParameterName", "");
+        ReflectionTestUtils.setField(cloudFrontKeyRing, "keyPairIdParameterName", "");
+
+        assertThatThrownBy(() -> ReflectionTestUtils.invokeMethod(cloudFrontKeyRing, "loadInitialKey"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("cloudfront.key-rotation.parameter-store.private-key-parameter");
+    }
+
+    private static CloudFrontKeyRing.KeyMaterial keyMaterial(String keyPairId) {
+        return new CloudFrontKeyRing.KeyMaterial(keyPairId, TestFixtures.privateKeyPem(TestFixtures.generateRsaKeyPair().getPrivate()));
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.cfsignedurl.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CloudFrontSignedCookiesTests {
+
+    @Test
+    void wildcardPatternCoversObjectsUnderThePrefix() {
+        CloudFrontSignedCookies signedCookies = new CloudFrontSignedCookies("testfolder/*", "policy", "signature", "K2JCJMDEHXQW5F");
+
+        assertThat(signedCookies.covers("testfolder/sample-file-1.csv")).isTrue();
+        assertThat(signedCookies.covers("testfolder/nested/sample-file-1.csv")).isTrue();
+        assertThat(signedCookies.covers("otherfolder/sample-file-1.csv")).isFalse();
+    }
+
+    @Test
+    void singleCharacterWildcardMatchesExactlyOneCharacter() {
+        CloudFrontSignedCookies signedCookies = new CloudFrontSignedCookies("testfolder/sample-file-?.*", "policy", "signature", "K2JCJMDEHXQW5F");
+
+        assertThat(signedCookies.covers("testfolder/sample-file-1.csv")).isTrue();
+        assertThat(signedCookies.covers("testfolder/sample-file-12.csv")).isFalse();
+    }
+
+    @Test
+    void signedUrlReusesThePolicySignature() {
+        CloudFrontSignedCookies signedCookies = new CloudFrontSignedCookies("testfolder/*", "policy", "signature", "K2JCJMDEHXQW5F");
+
+        assertThat(signedCookies.toSignedUrl("https://abcd.cloudfront.net/testfolder/sample-file-1.csv"))
+                .isEqualTo("https://abcd.cloudfront.net/testfolder/sample-file-1.csv?Policy=policy&Signature=signature&Key-Pair-Id=K2JCJMDEHXQW5F");
+        assertThat(signedCookies.toCookies()).containsEntry("CloudFront-Policy", "policy")
+                .containsEntry("CloudFront-Signature", "signature")
+                .containsEntry("CloudFront-Key-Pair-Id", "K2JCJMDEHXQW5F");
+    }
+
+    @Test
+    void singleAddressesBecomeCidrRanges() {
+        assertThat(CloudFrontSignedCookies.sourceIpRange("192.0.2.10")).isEqualTo("192.0.2.10/32");
+        assertThat(CloudFrontSignedCookies.sourceIpRange(" 2001:db8::1 ")).isEqualTo("2001:db8::1/128");
+        assertThat(CloudFrontSignedCookies.sourceIpRange("192.0.2.0/24")).isEqualTo("192.0.2.0/24");
+        assertThat(CloudFrontSignedCookies.sourceIpRange("2001:db8::/32")).isEqualTo("2001:db8::/32");
+        assertThat(CloudFrontSignedCookies.sourceIpRange(null)).isNull();
+        assertThat(CloudFrontSignedCookies.sourceIpRange("")).isNull();
+    }
+
+    @Test
+    void invalidIpRangesAreRejected() {
+        for (String ipRange : new String[]{"example.com", "192.0.2.256", "192.0.2.0/33", "2001:db8::/129", "192.0.2.0/", "192.0.2.0/abc"}) {
+            assertThatThrownBy(() -> CloudFrontSignedCookies.sourceIpRange(ipRange)).as(ipRange).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+}
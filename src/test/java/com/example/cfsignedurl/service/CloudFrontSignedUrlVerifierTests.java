@@ -0,0 +1,155 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.TestFixtures;
+import com.amazonaws.services.cloudfront.CloudFrontUrlSigner;
+import com.amazonaws.services.cloudfront.util.SignerUtils;
+import com.example.cfsignedurl.service.CloudFrontSignedUrlVerifier.Status;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.cloudfront.CloudFrontUtilities;
+import software.amazon.awssdk.services.cloudfront.model.CannedSignerRequest;
+import software.amazon.awssdk.services.cloudfront.model.CustomSignerRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CloudFrontSignedUrlVerifierTests {
+
+    private static final String DOMAIN = "abcd.cloudfront.net";
+    private static final String KEY_PAIR_ID = "K2JCJMDEHXQW5F";
+    private static final Instant NOW = Instant.parse("2023-08-10T10:15:30Z");
+    private static final Instant EXPIRATION_DATE = NOW.plus(Duration.ofDays(7));
+
+    private static KeyPair keyPair;
+
+    private CloudFrontSignedUrlVerifier verifier;
+
+    @BeforeAll
+    static void generateKeyPair() {
+        keyPair = TestFixtures.generateRsaKeyPair();
+    }
+
+    @BeforeEach
+    void createVerifier() {
+        verifier = new CloudFrontSignedUrlVerifier(Clock.fixed(NOW, ZoneOffset.UTC));
+        ReflectionTestUtils.setField(verifier, "signedUrlMetrics", new SignedUrlMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(verifier, "cloudFrontKeyRing", new CloudFrontKeyRing());
+        verifier.registerPublicKey(KEY_PAIR_ID, CloudFrontSignedUrlVerifier.publicKeyOf(keyPair.getPrivate()));
+    }
+
+    @Test
+    void cannedPolicyUrlsOfAllSignersAreValid() {
+        CloudFrontCannedPolicySigner signer = new CloudFrontCannedPolicySigner(keyPair.getPrivate(), KEY_PAIR_ID, DOMAIN);
+        String pooledUrl = signer.sign("test folder/sample-file-1.csv", EXPIRATION_DATE);
+        String sdkVersionOneUrl = CloudFrontUrlSigner.getSignedURLWithCannedPolicy(
+                SignerUtils.generateResourcePath(SignerUtils.Protocol.https, DOMAIN, "testfolder/sample-file-1.csv?version=2"),
+                KEY_PAIR_ID, keyPair.getPrivate(), Date.from(EXPIRATION_DATE));
+        String sdkVersionTwoUrl = CloudFrontUtilities.create().getSignedUrlWithCannedPolicy(CannedSignerRequest.builder()
+                .resourceUrl("https://" + DOMAIN + "/testfolder/sample-file-1.csv")
+                .privateKey(keyPair.getPrivate())
+                .keyPairId(KEY_PAIR_ID)
+                .expirationDate(EXPIRATION_DATE)
+                .build()).url();
+
+        for (String signedUrl : new String[]{pooledUrl, sdkVersionOneUrl, sdkVersionTwoUrl}) {
+            assertThat(verifier.verify(signedUrl)).isEqualTo(new CloudFrontSignedUrlVerifier.Result(Status.VALID, KEY_PAIR_ID, EXPIRATION_DATE));
+        }
+        assertThat(verifier.verify(pooledUrl.replace("sample-file-1", "sample-file-2")).status()).isEqualTo(Status.INVALID_SIGNATURE);
+        assertThat(verifier.verify(sdkVersionOneUrl.replace("version=2", "version=3")).status()).isEqualTo(Status.INVALID_SIGNATURE);
+        assertThat(verifier.verify(pooledUrl.replace(Long.toString(EXPIRATION_DATE.getEpochSecond()), Long.toString(EXPIRATION_DATE.getEpochSecond() + 1))).status())
+                .isEqualTo(Status.INVALID_SIGNATURE);
+        assertThat(verifier.verify(signer.sign("testfolder/sample-file-1.csv", NOW)).status()).isEqualTo(Status.EXPIRED);
+    }
+
+    @Test
+    void customPolicyUrlsAreCheckedAgainstThePolicy() {
+        String sdkVersionOneUrl = CloudFrontUrlSigner.getSignedURLWithCustomPolicy(
+                "https://" + DOMAIN + "/testfolder/sample-file-1.csv", KEY_PAIR_ID, keyPair.getPrivate(),
+                CloudFrontUrlSigner.buildCustomPolicyForSignedUrl("https://" + DOMAIN + "/testfolder/*", Date.from(EXPIRATION_DATE),
+                        "192.0.2.0/24", null));
+        String sdkVersionTwoUrl = CloudFrontUtilities.create().getSignedUrlWithCustomPolicy(CustomSignerRequest.builder()
+                .resourceUrl("https://" + DOMAIN + "/testfolder/sample-file-1.csv")
+                .privateKey(keyPair.getPrivate())
+                .keyPairId(KEY_PAIR_ID)
+                .expirationDate(EXPIRATION_DATE)
+                .activeDate(NOW.plus(Duration.ofHours(1)))
+                .build()).url();
+
+        assertThat(verifier.verify(sdkVersionOneUrl, "192.0.2.10")).isEqualTo(new CloudFrontSignedUrlVerifier.Result(Status.VALID, KEY_PAIR_ID, EXPIRATION_DATE));
+        assertThat(verifier.verify(sdkVersionOneUrl, "198.51.100.10").status()).isEqualTo(Status.IP_MISMATCH);
+        // the policy resource covers the whole folder
+        assertThat(verifier.verify(sdkVersionOneUrl.replace("sample-file-1", "sample-file-2")).status()).isEqualTo(Status.VALID);
+        assertThat(verifier.verify(sdkVersionOneUrl.replace("testfolder", "otherfolder")).status()).isEqualTo(Status.RESOURCE_MISMATCH);
+        assertThat(verifier.verify(sdkVersionTwoUrl).status()).isEqualTo(Status.NOT_YET_VALID);
+    }
+
+    @Test
+    void malformedUrlsAndUnknownKeysAreRejected() {
+        CloudFrontCannedPolicySigner otherSigner = new CloudFrontCannedPolicySigner(keyPair.getPrivate(), "K-UNKNOWN", DOMAIN);
+
+        assertThat(verifier.verify("https://" + DOMAIN + "/testfolder/sample-file-1.csv").status()).isEqualTo(Status.MALFORMED);
+        assertThat(verifier.verify("https://" + DOMAIN + "/a.csv?Expires=1&Expires=2&Signature=abcd&Key-Pair-Id=" + KEY_PAIR_ID).status())
+                .isEqualTo(Status.MALFORMED);
+        assertThat(verifier.verify("https://" + DOMAIN + "/a.csv?Expires=soon&Signature=abcd&Key-Pair-Id=" + KEY_PAIR_ID).status())
+                .isEqualTo(Status.MALFORMED);
+        assertThat(verifier.verify("https://" + DOMAIN + "/a.csv?Expires=9223372036854775807&Signature=abcd&Key-Pair-Id=" + KEY_PAIR_ID).status())
+                .isEqualTo(Status.MALFORMED);
+        assertThat(verifier.verify("https://" + DOMAIN + "/a.csv?Policy=" + customPolicy(Long.MAX_VALUE, 0) + "&Signature=abcd&Key-Pair-Id=" + KEY_PAIR_ID).status())
+                .isEqualTo(Status.MALFORMED);
+        assertThat(verifier.verify("https://" + DOMAIN + "/a.csv?Policy=" + customPolicy(2000000000, Long.MIN_VALUE) + "&Signature=abcd&Key-Pair-Id=" + KEY_PAIR_ID).status())
+                .isEqualTo(Status.MALFORMED);
+        assertThat(verifier.verify("https://" + DOMAIN + "/a.csv?Expires=2000000000&Signature=ab%cd&Key-Pair-Id=" + KEY_PAIR_ID).status())
+                .isEqualTo(Status.INVALID_SIGNATURE);
+        assertThat(verifier.verify(otherSigner.sign("testfolder/sample-file-1.csv", EXPIRATION_DATE)).status()).isEqualTo(Status.UNKNOWN_KEY);
+    }
+
+    @Test
+    void unreadablePublicKeysFailWithTheirCause(@TempDir Path publicKeyDirectory) throws Exception {
+        Files.writeString(publicKeyDirectory.resolve("K-BROKEN.pem"), "-----BEGIN PUBLIC KEY-----\nbm90IGEga2V5\n-----END PUBLIC KEY-----\n");
+        ReflectionTestUtils.setField(verifier, "cannedPolicySigner", new CloudFrontCannedPolicySigner(keyPair.getPrivate(), KEY_PAIR_ID, DOMAIN));
+        ReflectionTestUtils.setField(verifier, "publicKeyDirectory", publicKeyDirectory.toString());
+
+        assertThatThrownBy(() -> ReflectionTestUtils.invokeMethod(verifier, "loadPublicKeys"))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining(publicKeyDirectory.toString())
+                .hasCauseInstanceOf(GeneralSecurityException.class);
+    }
+
+    @Test
+    void ipRangesAreMatchedByPrefix() {
+        assertThat(CloudFrontSignedUrlVerifier.inIpRange("192.0.2.255", "192.0.2.0/24")).isTrue();
+        assertThat(CloudFrontSignedUrlVerifier.inIpRange("192.0.3.0", "192.0.2.0/23")).isTrue();
+        assertThat(CloudFrontSignedUrlVerifier.inIpRange("192.0.4.0", "192.0.2.0/23")).isFalse();
+        assertThat(CloudFrontSignedUrlVerifier.inIpRange("192.0.2.1", "192.0.2.1")).isTrue();
+        assertThat(CloudFrontSignedUrlVerifier.inIpRange("2001:db8::1", "2001:db8::/32")).isTrue();
+        assertThat(CloudFrontSignedUrlVerifier.inIpRange("192.0.2.1", "2001:db8::/32")).isFalse();
+        assertThat(CloudFrontSignedUrlVerifier.inIpRange("localhost", "127.0.0.0/8")).isFalse();
+    }
+
+    /**
+     * URL-safe base64 encoded custom policy of https://DOMAIN/a.csv, as CloudFront expects it in the Policy parameter
+     */
+    private static String customPolicy(long dateLessThan, long dateGreaterThan) {
+        String policy = "{\"Statement\":[{\"Resource\":\"https://" + DOMAIN + "/a.csv\",\"Condition\":{"
+                + "\"DateLessThan\":{\"AWS:EpochTime\":" + dateLessThan + "},"
+                + "\"DateGreaterThan\":{\"AWS:EpochTime\":" + dateGreaterThan + "}}}]}";
+        return Base64.getEncoder().encodeToString(policy.getBytes(StandardCharsets.UTF_8))
+                .replace('+', '-').replace('=', '_').replace('/', '~');
+    }
+}
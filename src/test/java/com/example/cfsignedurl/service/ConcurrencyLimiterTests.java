@@ -0,0 +1,91 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.service.ConcurrencyLimiter.Adaptation;
+import com.example.cfsignedurl.service.ConcurrencyLimiter.Admission;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrencyLimiterTests {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    void requestsAboveTheLimitWaitInTheBoundedQueue() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, Duration.ofSeconds(10));
+        assertThat(limiter.acquire()).isEqualTo(Admission.ADMITTED);
+        assertThat(limiter.acquire()).isEqualTo(Admission.ADMITTED);
+
+        CompletableFuture<Admission> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (limiter.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        assertThat(limiter.acquire()).isEqualTo(Admission.QUEUE_FULL);
+
+        limiter.release(FAST, false);
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo(Admission.ADMITTED);
+        assertThat(limiter.getInFlight()).isEqualTo(2);
+        assertThat(limiter.getQueued()).isZero();
+    }
+
+    @Test
+    void queuedRequestsGiveUpAfterTheQueueTimeout() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 10, Duration.ofMillis(50));
+        assertThat(limiter.acquire()).isEqualTo(Admission.ADMITTED);
+
+        long start = System.nanoTime();
+        assertThat(limiter.acquire()).isEqualTo(Admission.QUEUE_TIMEOUT);
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(limiter.getQueued()).isZero();
+    }
+
+    @Test
+    void aimdLimitGrowsWhileFastAndBacksOffWhenSlow() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(Adaptation.AIMD, 10, 2, 40, 0, Duration.ZERO, Duration.ofMillis(100), 0.5);
+
+        completeAtTheLimit(limiter, 200, FAST);
+        int grownLimit = limiter.getLimit();
+        assertThat(grownLimit).isGreaterThan(15);
+
+        limiter.release(SLOW, false);
+        assertThat(limiter.getLimit()).isEqualTo(grownLimit / 2);
+        limiter.release(FAST, true);
+        assertThat(limiter.getLimit()).isEqualTo(grownLimit / 4);
+    }
+
+    @Test
+    void vegasLimitFollowsTheDownstreamLatency() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(Adaptation.VEGAS, 10, 2, 100, 0, Duration.ZERO, Duration.ZERO, 0.5);
+
+        completeAtTheLimit(limiter, 50, FAST);
+        int grownLimit = limiter.getLimit();
+        assertThat(grownLimit).isGreaterThan(20);
+
+        // latency twenty times the minimum: most of the limit is queued downstream
+        completeAtTheLimit(limiter, 20, SLOW);
+        assertThat(limiter.getLimit()).isLessThan(grownLimit);
+    }
+
+    /**
+     * keep the limiter at its limit and complete the given number of requests with the given latency
+     */
+    private static void completeAtTheLimit(ConcurrencyLimiter limiter, int completions, long latencyNanos) throws InterruptedException {
+        for (int i = 0; i < completions; i++) {
+            while (limiter.getInFlight() < limiter.getLimit()) {
+                assertThat(limiter.acquire()).isEqualTo(Admission.ADMITTED);
+            }
+            limiter.release(latencyNanos, false);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.cfsignedurl.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CsvReportExporterTests {
+
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    private final S3Client s3Client = mock(S3Client.class);
+
+    private final AWSS3ServiceSDKVersionTwo awss3ServiceSDKVersionTwo = mock(AWSS3ServiceSDKVersionTwo.class);
+
+    private final S3StreamingUploader s3StreamingUploader = new S3StreamingUploader();
+
+    private final CsvReportExporter csvReportExporter = new CsvReportExporter();
+
+    @BeforeEach
+    void createExporter() throws Exception {
+        ReflectionTestUtils.setField(s3StreamingUploader, "s3Client", s3Client);
+        ReflectionTestUtils.setField(s3StreamingUploader, "partSize", PART_SIZE);
+        ReflectionTestUtils.setField(s3StreamingUploader, "concurrency", 2);
+        ReflectionTestUtils.setField(s3StreamingUploader, "bufferWaitTimeout", Duration.ofSeconds(10));
+        ReflectionTestUtils.invokeMethod(s3StreamingUploader, "createBufferPool");
+
+        ReflectionTestUtils.setField(csvReportExporter, "s3StreamingUploader", s3StreamingUploader);
+        ReflectionTestUtils.setField(csvReportExporter, "awss3ServiceSDKVersionTwo", awss3ServiceSDKVersionTwo);
+        ReflectionTestUtils.setField(csvReportExporter, "signedUrlMetrics", new SignedUrlMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(csvReportExporter, "s3Bucket", "cf-signed-url-test");
+        ReflectionTestUtils.setField(csvReportExporter, "writeBufferSize", 8192);
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-id").build());
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+        when(awss3ServiceSDKVersionTwo.generateCloudFrontSignedUrlByS3ObjectPath(anyString()))
+                .thenReturn("https://abcd.cloudfront.net/testfolder/report-1.csv?Signature=x");
+    }
+
+    @Test
+    void fieldsAreQuotedWhenRequired() throws Exception {
+        StringWriter writer = new StringWriter();
+
+        CsvReportExporter.writeRow(writer, Arrays.asList("plain", "with,comma", "with \"quotes\"", "multi\nline", null, 42));
+
+        assertThat(writer).hasToString("plain,\"with,comma\",\"with \"\"quotes\"\"\",\"multi\nline\",,42\r\n");
+    }
+
+    @Test
+    void largeReportIsUploadedInPartsWhileRowsAreProduced() throws Exception {
+        String signedUrl = csvReportExporter.exportReport("testfolder/report-1.csv", List.of("row", "value"),
+                LongStream.rangeClosed(1, 1_000_000).mapToObj(row -> List.of(row, "abcdefghijklmnopqrstuvwxyz")));
+
+        assertThat(signedUrl).isEqualTo("https://abcd.cloudfront.net/testfolder/report-1.csv?Signature=x");
+        verify(s3Client, atLeast(5)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+
+        // the whole report went through the bounded buffer pool
+        assertThat(allocatedBuffers()).isLessThanOrEqualTo(4);
+    }
+
+    @Test
+    @Timeout(30)
+    void buffersAreReturnedAfterReportsOfExactlyMultipleParts() throws Exception {
+        // 1024 bytes per encoded row, so two parts are filled to the last byte
+        String field = "x".repeat(1024 - 2);
+
+        String signedUrl = csvReportExporter.exportReport("testfolder/report-1.csv", null,
+                LongStream.range(0, 2L * PART_SIZE / 1024).mapToObj(row -> List.of(field)).iterator());
+
+        assertThat(signedUrl).isEqualTo("https://abcd.cloudfront.net/testfolder/report-1.csv?Signature=x");
+        verify(s3Client, times(2)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        assertThat(pooledBuffers()).hasSize(allocatedBuffers());
+    }
+
+    @Test
+    void failingRowSourceAbortsTheUpload() throws Exception {
+        Iterator<List<Object>> rows = LongStream.rangeClosed(1, 1_000_000)
+                .<List<Object>>mapToObj(row -> {
+                    if (row == 500_000) {
+                        throw new IllegalStateException("report query failed");
+                    }
+                    return List.of(row, "abcdefghijklmnopqrstuvwxyz");
+                })
+                .iterator();
+
+        assertThatThrownBy(() -> csvReportExporter.exportReport("testfolder/report-1.csv", null, rows))
+                .isInstanceOf(IllegalStateException.class);
+
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(awss3ServiceSDKVersionTwo, never()).generateCloudFrontSignedUrlByS3ObjectPath(anyString());
+    }
+
+    @Test
+    void publishedRowsAreUploadedOnCompletion() throws Exception {
+        CompletableFuture<String> signedUrl = csvReportExporter.exportReport("testfolder/report-1.csv", List.of("row", "value"),
+                publisher(1_000_000, null));
+
+        assertThat(signedUrl.get(30, TimeUnit.SECONDS)).isEqualTo("https://abcd.cloudfront.net/testfolder/report-1.csv?Signature=x");
+        verify(s3Client, atLeast(5)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        assertThat(pooledBuffers()).hasSize(allocatedBuffers());
+    }
+
+    @Test
+    void publisherErrorAbortsTheUpload() {
+        CompletableFuture<String> signedUrl = csvReportExporter.exportReport("testfolder/report-1.csv", null,
+                publisher(500_000, new IllegalStateException("report query failed")));
+
+        assertThatThrownBy(() -> signedUrl.get(30, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        assertThat(pooledBuffers()).hasSize(allocatedBuffers());
+    }
+
+    /**
+     * publishes the given number of rows on request, then completes or fails with the given error
+     */
+    private static Publisher<List<?>> publisher(long rowCount, RuntimeException error) {
+        return subscriber -> subscriber.onSubscribe(new Subscription() {
+
+            private long published;
+
+            private long requested;
+
+            private boolean emitting;
+
+            private boolean cancelled;
+
+            @Override
+            public void request(long n) {
+                requested += n;
+                // the subscriber requests the next row from onNext, rows are emitted in a loop instead of recursively
+                if (emitting) {
+                    return;
+                }
+                emitting = true;
+                while (requested > 0 && !cancelled) {
+                    if (published == rowCount) {
+                        cancelled = true;
+                        if (error == null) {
+                            subscriber.onComplete();
+                        } else {
+                            subscriber.onError(error);
+                        }
+                        break;
+                    }
+                    requested--;
+                    published++;
+                    subscriber.onNext(List.of(published, "abcdefghijklmnopqrstuvwxyz"));
+                }
+                emitting = false;
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+        });
+    }
+
+    private int allocatedBuffers() {
+        return ((AtomicInteger) ReflectionTestUtils.getField(s3StreamingUploader, "allocatedBuffers")).get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Queue<ByteBuffer> pooledBuffers() {
+        return (Queue<ByteBuffer>) ReflectionTestUtils.getField(s3StreamingUploader, "buffers");
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.cfsignedurl.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class S3StreamingUploaderTests {
+
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    private final S3Client s3Client = mock(S3Client.class);
+
+    private final S3StreamingUploader s3StreamingUploader = new S3StreamingUploader();
+
+    @BeforeEach
+    void createUploader() {
+        ReflectionTestUtils.setField(s3StreamingUploader, "s3Client", s3Client);
+        ReflectionTestUtils.setField(s3StreamingUploader, "partSize", PART_SIZE);
+        ReflectionTestUtils.setField(s3StreamingUploader, "concurrency", 2);
+        ReflectionTestUtils.setField(s3StreamingUploader, "bufferWaitTimeout", Duration.ofSeconds(10));
+        ReflectionTestUtils.invokeMethod(s3StreamingUploader, "createBufferPool");
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-id").build());
+    }
+
+    @Test
+    void smallPayloadIsUploadedWithSinglePutObject() throws Exception {
+        s3StreamingUploader.upload("cf-signed-url-test", "testfolder/sample-file-1.csv", new ByteArrayInputStream(payload(1024)));
+
+        verify(s3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(s3Client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    }
+
+    @Test
+    void smallStreamedPayloadReleasesItsBufferBeforeThePutObject() throws Exception {
+        when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            assertThat(pooledBuffers()).hasSize(allocatedBuffers());
+            return PutObjectResponse.builder().build();
+        });
+
+        s3StreamingUploader.upload("cf-signed-url-test", "testfolder/sample-file-1.csv", new ByteArrayInputStream(payload(1024)));
+
+        verify(s3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    void smallPayloadInMemoryIsUploadedWithoutAPooledBuffer() throws Exception {
+        assertThat(s3StreamingUploader.upload("cf-signed-url-test", "testfolder/sample-file-1.csv", payload(1024))).isEqualTo(1024);
+
+        verify(s3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        assertThat(allocatedBuffers()).isZero();
+    }
+
+    @Test
+    void writerWaitingForABufferGivesUpAfterTheTimeout() throws Exception {
+        ReflectionTestUtils.invokeMethod(s3StreamingUploader, "shutdownPartUploadExecutor");
+        ReflectionTestUtils.setField(s3StreamingUploader, "bufferCount", 1);
+        ReflectionTestUtils.setField(s3StreamingUploader, "bufferWaitTimeout", Duration.ofMillis(50));
+        ReflectionTestUtils.invokeMethod(s3StreamingUploader, "createBufferPool");
+
+        S3StreamingUploader.S3UploadOutputStream holdingTheOnlyBuffer = s3StreamingUploader.openUploadStream("cf-signed-url-test", "testfolder/sample-file-1.csv");
+        holdingTheOnlyBuffer.write(1);
+
+        assertThatThrownBy(() -> s3StreamingUploader.upload("cf-signed-url-test", "testfolder/sample-file-2.csv", new ByteArrayInputStream(payload(1024))))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("No upload buffer became available");
+        holdingTheOnlyBuffer.abort();
+        assertThat(pooledBuffers()).hasSize(1);
+    }
+
+    @Test
+    void largePayloadIsUploadedInParts() throws Exception {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+
+        s3StreamingUploader.upload("cf-signed-url-test", "testfolder/sample-file-1.csv", new ByteArrayInputStream(payload(PART_SIZE * 2 + 1024)));
+
+        verify(s3Client, times(3)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    void largeByteBufferIsUploadedInParts() throws Exception {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+        ByteBuffer content = ByteBuffer.allocateDirect(PART_SIZE * 2 + 1024).put(payload(PART_SIZE * 2 + 1024)).flip();
+
+        assertThat(s3StreamingUploader.upload("cf-signed-url-test", "testfolder/sample-file-1.csv", content)).isEqualTo(PART_SIZE * 2 + 1024);
+
+        verify(s3Client, times(3)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        assertThat(content.position()).isZero();
+    }
+
+    @Test
+    void smallByteBufferIsUploadedWithSinglePutObject() throws Exception {
+        ByteBuffer content = ByteBuffer.wrap(payload(1024));
+
+        assertThat(s3StreamingUploader.upload("cf-signed-url-test", "testfolder/sample-file-1.csv", content)).isEqualTo(1024);
+
+        verify(s3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(s3Client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    }
+
+    @Test
+    void failedPartAbortsTheMultipartUpload() {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(S3Exception.builder().message("slow down").statusCode(503).build());
+
+        assertThatThrownBy(() -> s3StreamingUploader.upload("cf-signed-url-test", "testfolder/sample-file-1.csv",
+                new ByteArrayInputStream(payload(PART_SIZE * 3))))
+                .isInstanceOf(S3Exception.class);
+
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void buffersAreReused() throws Exception {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+
+        for (int i = 0; i < 3; i++) {
+            s3StreamingUploader.upload("cf-signed-url-test", "testfolder/sample-file-1.csv", new ByteArrayInputStream(payload(PART_SIZE * 3)));
+        }
+
+        assertThat(allocatedBuffers()).isLessThanOrEqualTo(4);
+    }
+
+    @Test
+    @Timeout(30)
+    void buffersAreReturnedAfterPayloadsOfExactlyMultipleParts() throws Exception {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+
+        // more uploads than buffers, a buffer leaked per upload would block the last ones forever
+        for (int i = 0; i < 6; i++) {
+            s3StreamingUploader.upload("cf-signed-url-test", "testfolder/sample-file-1.csv", new ByteArrayInputStream(payload(PART_SIZE * (i % 2 + 1))));
+        }
+
+        assertThat(pooledBuffers()).hasSize(allocatedBuffers());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void uploadBeyondTheMaximumNumberOfPartsFailsBeforeSendingThePart() throws Exception {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+        S3StreamingUploader.S3UploadOutputStream uploadStream = s3StreamingUploader.openUploadStream("cf-signed-url-test", "testfolder/sample-file-1.csv");
+        // stands in for the first 9,999 parts, so the test doesn't write 50 GB
+        List<CompletableFuture<CompletedPart>> parts = (List<CompletableFuture<CompletedPart>>) ReflectionTestUtils.getField(uploadStream, "parts");
+        for (int partNumber = 1; partNumber < 10_000; partNumber++) {
+            parts.add(CompletableFuture.completedFuture(CompletedPart.builder().partNumber(partNumber).eTag("etag").build()));
+        }
+
+        assertThatThrownBy(() -> uploadStream.write(payload(PART_SIZE * 2 + 1)))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("10000 parts");
+        uploadStream.abort();
+
+        // only the 10,000th part was sent
+        verify(s3Client, times(1)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        assertThat(pooledBuffers()).hasSize(allocatedBuffers());
+    }
+
+    private int allocatedBuffers() {
+        return ((AtomicInteger) ReflectionTestUtils.getField(s3StreamingUploader, "allocatedBuffers")).get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Queue<ByteBuffer> pooledBuffers() {
+        return (Queue<ByteBuffer>) ReflectionTestUtils.getField(s3StreamingUploader, "buffers");
+    }
+
+    private static byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        new Random(42).nextBytes(payload);
+        return payload;
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.cfsignedurl.service;
+
+import com.amazonaws.AmazonServiceException;
+import com.example.cfsignedurl.service.S3UploadResilience.FailureKind;
+import com.example.cfsignedurl.service.S3UploadResilience.Replay;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3UploadResilienceTests {
+
+    private static final String S3_FILE_PATH = "testfolder/sample-file-1.csv";
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private S3UploadResilience s3UploadResilience;
+
+    @AfterEach
+    void shutdownHedgeExecutor() {
+        if (s3UploadResilience != null) {
+            ReflectionTestUtils.invokeMethod(s3UploadResilience, "shutdownHedgeExecutor");
+        }
+    }
+
+    @Test
+    void failuresAreClassified() {
+        assertThat(S3UploadResilience.classify(s3Exception(503, "SlowDown"))).isEqualTo(FailureKind.THROTTLED);
+        assertThat(S3UploadResilience.classify(s3Exception(500, "InternalError"))).isEqualTo(FailureKind.TRANSIENT);
+        assertThat(S3UploadResilience.classify(s3Exception(400, "RequestTimeout"))).isEqualTo(FailureKind.TRANSIENT);
+        assertThat(S3UploadResilience.classify(s3Exception(403, "AccessDenied"))).isEqualTo(FailureKind.PERMANENT);
+        assertThat(S3UploadResilience.classify(SdkClientException.create("connection reset"))).isEqualTo(FailureKind.TRANSIENT);
+
+        AmazonServiceException slowDown = new AmazonServiceException("Please reduce your request rate.");
+        slowDown.setStatusCode(503);
+        slowDown.setErrorCode("SlowDown");
+        assertThat(S3UploadResilience.classify(slowDown)).isEqualTo(FailureKind.THROTTLED);
+    }
+
+    @Test
+    void transientFailuresAreRetriedUntilTheUploadSucceeds() {
+        s3UploadResilience = new S3UploadResilience(3, Duration.ofMillis(1), 10, 0.1, false, 10, null);
+
+        long uploadedBytes = s3UploadResilience.execute(S3_FILE_PATH, Replay.SEQUENTIAL, () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw s3Exception(503, "SlowDown");
+            }
+            return 6L;
+        });
+
+        assertThat(uploadedBytes).isEqualTo(6);
+        assertThat(attempts.get()).isEqualTo(3);
+        assertThat(s3UploadResilience.getRetryCount(FailureKind.THROTTLED)).isEqualTo(2);
+    }
+
+    @Test
+    void permanentFailuresAndOneShotContentAreNotRetried() {
+        s3UploadResilience = new S3UploadResilience(3, Duration.ofMillis(1), 10, 0.1, false, 10, null);
+
+        assertThatThrownBy(() -> s3UploadResilience.execute(S3_FILE_PATH, Replay.SEQUENTIAL, () -> {
+            attempts.incrementAndGet();
+            throw s3Exception(403, "AccessDenied");
+        })).isInstanceOf(S3Exception.class);
+        assertThatThrownBy(() -> s3UploadResilience.execute(S3_FILE_PATH, Replay.NONE, () -> {
+            attempts.incrementAndGet();
+            throw s3Exception(500, "InternalError");
+        })).isInstanceOf(S3Exception.class);
+
+        assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    @Test
+    void retriesStopWhenTheBudgetIsExhausted() {
+        s3UploadResilience = new S3UploadResilience(5, Duration.ofMillis(1), 2, 0, false, 10, null);
+
+        for (int upload = 0; upload < 3; upload++) {
+            assertThatThrownBy(() -> s3UploadResilience.execute(S3_FILE_PATH, Replay.SEQUENTIAL, () -> {
+                attempts.incrementAndGet();
+                throw s3Exception(500, "InternalError");
+            })).isInstanceOf(S3Exception.class);
+        }
+
+        // three first attempts and the two retries the budget allows
+        assertThat(attempts.get()).isEqualTo(5);
+        assertThat(s3UploadResilience.getBudgetExhaustedCount()).isEqualTo(3);
+    }
+
+    @Test
+    void openCircuitRejectsUploadsUntilTheTrialCallsSucceed() {
+        AtomicLong nanoClock = new AtomicLong();
+        S3CircuitBreaker circuitBreaker = new S3CircuitBreaker(4, 4, 0.5, Duration.ofSeconds(10), 1, nanoClock::get);
+        s3UploadResilience = new S3UploadResilience(1, Duration.ofMillis(1), 10, 0.1, false, 10, circuitBreaker);
+
+        for (int upload = 0; upload < 4; upload++) {
+            assertThatThrownBy(() -> s3UploadResilience.execute(S3_FILE_PATH, Replay.SEQUENTIAL, () -> {
+                attempts.incrementAndGet();
+                throw SdkClientException.create("connection reset");
+            })).isInstanceOf(SdkClientException.class);
+        }
+        assertThat(s3UploadResilience.getCircuitState()).isEqualTo(S3CircuitBreaker.State.OPEN);
+
+        assertThatThrownBy(() -> s3UploadResilience.execute(S3_FILE_PATH, Replay.SEQUENTIAL, () -> attempts.incrementAndGet()))
+                .isInstanceOf(S3CircuitOpenException.class);
+        assertThat(attempts.get()).isEqualTo(4);
+        assertThat(s3UploadResilience.getCircuitRejectedCount()).isEqualTo(1);
+
+        nanoClock.addAndGet(Duration.ofSeconds(10).toNanos());
+        assertThat(s3UploadResilience.execute(S3_FILE_PATH, Replay.SEQUENTIAL, () -> attempts.incrementAndGet())).isEqualTo(5);
+        assertThat(s3UploadResilience.getCircuitState()).isEqualTo(S3CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void slowUploadIsHedgedAndTheSlowAttemptCancelled() throws Exception {
+        s3UploadResilience = new S3UploadResilience(1, Duration.ofMillis(1), 10, 0.1, true, 1, null);
+        s3UploadResilience.execute(S3_FILE_PATH, Replay.CONCURRENT, () -> "fast");
+        CountDownLatch slowAttemptInterrupted = new CountDownLatch(1);
+        Thread callingThread = Thread.currentThread();
+
+        String result = s3UploadResilience.execute(S3_FILE_PATH, Replay.CONCURRENT, () -> {
+            // the primary attempt runs on the calling thread
+            if (Thread.currentThread() == callingThread) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    slowAttemptInterrupted.countDown();
+                }
+                return "slow";
+            }
+            return "hedged";
+        });
+
+        assertThat(result).isEqualTo("hedged");
+        assertThat(s3UploadResilience.getHedgesWonCount()).isEqualTo(1);
+        assertThat(slowAttemptInterrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        // the interrupt of the slower primary attempt does not leak to the caller
+        assertThat(Thread.interrupted()).isFalse();
+    }
+
+    @Test
+    void hedgedAttemptsAreLimitedToTheHedgingThreads() throws Exception {
+        s3UploadResilience = new S3UploadResilience(1, Duration.ofMillis(1), 100, 0.1, true, 1, null);
+        s3UploadResilience.execute(S3_FILE_PATH, Replay.CONCURRENT, () -> "fast");
+        AtomicInteger runningHedges = new AtomicInteger();
+        AtomicInteger mostRunningHedges = new AtomicInteger();
+        ExecutorService callers = Executors.newFixedThreadPool(6);
+
+        List<Future<String>> uploads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            uploads.add(callers.submit(() -> s3UploadResilience.execute(S3_FILE_PATH, Replay.CONCURRENT, () -> {
+                boolean hedge = Thread.currentThread().getName().startsWith("s3-hedge-");
+                if (hedge) {
+                    mostRunningHedges.accumulateAndGet(runningHedges.incrementAndGet(), Math::max);
+                }
+                try {
+                    Thread.sleep(hedge ? 100 : 300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (hedge) {
+                        runningHedges.decrementAndGet();
+                    }
+                }
+                return "uploaded";
+            })));
+        }
+        for (Future<String> upload : uploads) {
+            assertThat(upload.get(5, TimeUnit.SECONDS)).isEqualTo("uploaded");
+        }
+        callers.shutdown();
+
+        assertThat(mostRunningHedges.get()).isBetween(1, 2);
+    }
+
+    @Test
+    void asyncUploadsAreRetried() throws Exception {
+        s3UploadResilience = new S3UploadResilience(3, Duration.ofMillis(1), 10, 0.1, false, 10, null);
+
+        CompletableFuture<String> result = s3UploadResilience.executeAsync(S3_FILE_PATH, () -> attempts.incrementAndGet() < 2
+                ? CompletableFuture.failedFuture(s3Exception(500, "InternalError"))
+                : CompletableFuture.completedFuture("uploaded"));
+
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("uploaded");
+        assertThat(s3UploadResilience.getRetryCount(FailureKind.TRANSIENT)).isEqualTo(1);
+    }
+
+    private static S3Exception s3Exception(int statusCode, String errorCode) {
+        return (S3Exception) S3Exception.builder()
+                .statusCode(statusCode)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+                .build();
+    }
+}
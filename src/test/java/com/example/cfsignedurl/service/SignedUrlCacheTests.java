@@ -0,0 +1,78 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.TestFixtures.MutableClock;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SignedUrlCacheTests {
+
+    private static final String KEY_PAIR_ID = "K2JCJMDEHXQW5F";
+    private static final Duration RETENTION = Duration.ofDays(7);
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2023-08-10T10:15:30Z"));
+    private final List<Instant> signedExpirationDates = new ArrayList<>();
+    private final Function<Instant, String> signer = expirationDate -> {
+        signedExpirationDates.add(expirationDate);
+        return "https://abcd.cloudfront.net/testfolder/sample-file-1.csv?Expires=" + expirationDate.getEpochSecond();
+    };
+
+    @Test
+    void requestsWithinTheBucketReuseOneSignature() {
+        SignedUrlCache signedUrlCache = new SignedUrlCache(clock, Duration.ofHours(1), Duration.ofHours(1), 100);
+
+        String first = signedUrlCache.getSignedUrl(KEY_PAIR_ID, "testfolder/sample-file-1.csv", RETENTION, signer);
+        clock.advance(Duration.ofMinutes(30));
+        String second = signedUrlCache.getSignedUrl(KEY_PAIR_ID, "testfolder/sample-file-1.csv", RETENTION, signer);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(signedExpirationDates).containsExactly(Instant.parse("2023-08-17T11:00:00Z"));
+        assertThat(signedUrlCache.getHitCount()).isEqualTo(1);
+        assertThat(signedUrlCache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void cachedUrlIsNotReturnedBelowMinimumRemainingValidity() {
+        SignedUrlCache signedUrlCache = new SignedUrlCache(clock, Duration.ofHours(1), Duration.ofDays(7), 100);
+
+        signedUrlCache.getSignedUrl(KEY_PAIR_ID, "testfolder/sample-file-1.csv", RETENTION, signer);
+        clock.advance(Duration.ofHours(1));
+        signedUrlCache.getSignedUrl(KEY_PAIR_ID, "testfolder/sample-file-1.csv", RETENTION, signer);
+
+        assertThat(signedExpirationDates).containsExactly(Instant.parse("2023-08-17T11:00:00Z"), Instant.parse("2023-08-17T12:00:00Z"));
+        assertThat(signedUrlCache.getHitCount()).isZero();
+        assertThat(signedUrlCache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void unusableEntriesOfPathsNotRequestedAgainAreSwept() {
+        SignedUrlCache signedUrlCache = new SignedUrlCache(clock, Duration.ofHours(1), Duration.ofDays(7), 100);
+
+        for (int i = 0; i < 10; i++) {
+            signedUrlCache.getSignedUrl(KEY_PAIR_ID, "testfolder/sample-file-" + i + ".csv", RETENTION, signer);
+        }
+        clock.advance(Duration.ofHours(1));
+        signedUrlCache.getSignedUrl(KEY_PAIR_ID, "testfolder/other-file.csv", RETENTION, signer);
+
+        assertThat(signedUrlCache.size()).isEqualTo(1);
+        assertThat(signedUrlCache.getEvictionCount()).isEqualTo(10);
+    }
+
+    @Test
+    void cacheSizeIsBounded() {
+        SignedUrlCache signedUrlCache = new SignedUrlCache(clock, Duration.ofHours(1), Duration.ofHours(1), 10);
+
+        for (int i = 0; i < 100; i++) {
+            signedUrlCache.getSignedUrl(KEY_PAIR_ID, "testfolder/sample-file-" + i + ".csv", RETENTION, signer);
+        }
+
+        assertThat(signedUrlCache.size()).isLessThanOrEqualTo(10);
+        assertThat(signedUrlCache.getMissCount()).isEqualTo(100);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.service.SignedUrlMetrics.SdkVersion;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SignedUrlMetricsTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final SignedUrlMetrics signedUrlMetrics = new SignedUrlMetrics(meterRegistry);
+
+    @Test
+    void successfulUploadsAreTimedAndCounted() {
+        signedUrlMetrics.recordUpload(SdkVersion.SDK_V2, signedUrlMetrics.start(), 1024);
+        signedUrlMetrics.recordUpload(SdkVersion.SDK_V2, signedUrlMetrics.start(), 512);
+
+        assertThat(meterRegistry.get(SignedUrlMetrics.UPLOAD).tag("sdk", "sdk-v2").tag("outcome", "success").timer().count()).isEqualTo(2);
+        assertThat(meterRegistry.get(SignedUrlMetrics.UPLOAD_BYTES).tag("sdk", "sdk-v2").counter().count()).isEqualTo(1536);
+        assertThat(meterRegistry.get(SignedUrlMetrics.UPLOAD_BYTES).tag("sdk", "sdk-v1").counter().count()).isZero();
+    }
+
+    @Test
+    void failedUploadsAreTaggedWithTheAwsErrorCode() {
+        S3Exception slowDown = (S3Exception) S3Exception.builder()
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("SlowDown").build())
+                .statusCode(503)
+                .build();
+
+        signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2_ASYNC, signedUrlMetrics.start(), new CompletionException(slowDown));
+        signedUrlMetrics.recordFailedUpload(SdkVersion.SDK_V2, signedUrlMetrics.start(), SdkClientException.create("connection reset"));
+
+        assertThat(meterRegistry.get(SignedUrlMetrics.UPLOAD).tag("sdk", "sdk-v2-async").tag("error.code", "SlowDown").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get(SignedUrlMetrics.UPLOAD).tag("sdk", "sdk-v2").tag("error.code", "client").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void signingIsTimedAndCounted() {
+        signedUrlMetrics.recordSigning(SdkVersion.SDK_V1, signedUrlMetrics.start());
+
+        assertThat(meterRegistry.get(SignedUrlMetrics.SIGNING).tag("sdk", "sdk-v1").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get(SignedUrlMetrics.SIGNATURES).tag("sdk", "sdk-v1").counter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.cfsignedurl.service;
+
+import com.example.cfsignedurl.service.SignedUrlMetrics.SdkVersion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UploadCoalescerTests {
+
+    private static final String S3_FILE_PATH = "testfolder/sample-file-1.csv";
+    private static final String SIGNED_URL = "https://abcd.cloudfront.net/testfolder/sample-file-1.csv?Signature=x";
+    private static final int CALLERS = 8;
+
+    private final UploadCoalescer uploadCoalescer = new UploadCoalescer(true);
+
+    private final ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+
+    private final CountDownLatch uploadStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseUpload = new CountDownLatch(1);
+    private final AtomicInteger uploads = new AtomicInteger();
+
+    @AfterEach
+    void shutdownCallers() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void concurrentRequestsForTheSamePathShareOneUpload() throws Exception {
+        List<Future<String>> results = callConcurrently(() -> {
+            uploads.incrementAndGet();
+            uploadStarted.countDown();
+            await(releaseUpload);
+            return SIGNED_URL;
+        });
+
+        for (Future<String> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(SIGNED_URL);
+        }
+        assertThat(uploads.get()).isEqualTo(1);
+        assertThat(uploadCoalescer.getCoalescedCount()).isEqualTo(CALLERS - 1);
+        assertThat(uploadCoalescer.getInFlightCount()).isZero();
+    }
+
+    @Test
+    void failureIsSharedAndTheNextRequestUploadsAgain() throws Exception {
+        List<Future<String>> results = callConcurrently(() -> {
+            uploads.incrementAndGet();
+            uploadStarted.countDown();
+            await(releaseUpload);
+            throw new IllegalStateException("signing failed");
+        });
+
+        for (Future<String> result : results) {
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+        }
+        assertThat(uploads.get()).isEqualTo(1);
+
+        assertThat(uploadCoalescer.uploadAndSign(SdkVersion.SDK_V2, S3_FILE_PATH, () -> SIGNED_URL)).isEqualTo(SIGNED_URL);
+    }
+
+    @Test
+    void asyncRequestsForTheSamePathShareOneUpload() throws Exception {
+        CompletableFuture<String> upload = new CompletableFuture<>();
+
+        CompletableFuture<String> first = uploadCoalescer.uploadAndSignAsync(SdkVersion.SDK_V2_ASYNC, S3_FILE_PATH, () -> {
+            uploads.incrementAndGet();
+            return upload;
+        });
+        CompletableFuture<String> second = uploadCoalescer.uploadAndSignAsync(SdkVersion.SDK_V2_ASYNC, S3_FILE_PATH, () -> {
+            uploads.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        upload.complete(SIGNED_URL);
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(SIGNED_URL);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(SIGNED_URL);
+        assertThat(uploads.get()).isEqualTo(1);
+        assertThat(uploadCoalescer.getInFlightCount()).isZero();
+    }
+
+    @Test
+    void requestsOfDifferentSdkVersionsDoNotShareAnUpload() throws Exception {
+        Future<String> sdkVersionTwo = callers.submit(() -> uploadCoalescer.uploadAndSign(SdkVersion.SDK_V2, S3_FILE_PATH, () -> {
+            uploads.incrementAndGet();
+            uploadStarted.countDown();
+            await(releaseUpload);
+            return SIGNED_URL;
+        }));
+        assertThat(uploadStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(uploadCoalescer.uploadAndSign(SdkVersion.SDK_V1, S3_FILE_PATH, () -> {
+            uploads.incrementAndGet();
+            return "sdk-v1";
+        })).isEqualTo("sdk-v1");
+        releaseUpload.countDown();
+
+        assertThat(sdkVersionTwo.get(5, TimeUnit.SECONDS)).isEqualTo(SIGNED_URL);
+        assertThat(uploads.get()).isEqualTo(2);
+        assertThat(uploadCoalescer.getCoalescedCount()).isZero();
+    }
+
+    /**
+     * starts the first caller, waits until its upload is running and then starts the others
+     */
+    private List<Future<String>> callConcurrently(Supplier<String> uploadAndSign) throws Exception {
+        List<Future<String>> results = new ArrayList<>();
+        results.add(callers.submit(() -> uploadCoalescer.uploadAndSign(SdkVersion.SDK_V2, S3_FILE_PATH, uploadAndSign)));
+        assertThat(uploadStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i < CALLERS; i++) {
+            results.add(callers.submit(() -> uploadCoalescer.uploadAndSign(SdkVersion.SDK_V2, S3_FILE_PATH, uploadAndSign)));
+        }
+        // followers increment the coalesced count before they wait
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (uploadCoalescer.getCoalescedCount() < CALLERS - 1 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        releaseUpload.countDown();
+        return results;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.cfsignedurl.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UploadDeduplicatorTests {
+
+    private static final String S3_FILE_PATH = "testfolder/sample-file-1.csv";
+    private static final byte[] CONTENT = "1,abcd".getBytes(StandardCharsets.UTF_8);
+
+    private final Clock clock = Clock.fixed(Instant.parse("2023-08-10T10:00:00Z"), ZoneOffset.UTC);
+
+    private final AtomicInteger uploads = new AtomicInteger();
+
+    @Test
+    void unchangedContentIsUploadedOnce() {
+        UploadDeduplicator uploadDeduplicator = new UploadDeduplicator(clock, false, Duration.ofMinutes(10), 100);
+
+        assertThat(uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, CONTENT, this::upload, s3FilePath -> null)).isTrue();
+        assertThat(uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, CONTENT, this::upload, s3FilePath -> null)).isTrue();
+
+        assertThat(uploads.get()).isEqualTo(1);
+        assertThat(uploadDeduplicator.getSkippedUploadCount()).isEqualTo(1);
+        assertThat(uploadDeduplicator.getSavedBytes()).isEqualTo(CONTENT.length);
+    }
+
+    @Test
+    void changedContentIsUploaded() {
+        UploadDeduplicator uploadDeduplicator = new UploadDeduplicator(clock, false, Duration.ofMinutes(10), 100);
+
+        uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, CONTENT, this::upload, s3FilePath -> null);
+        uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, "1,efgh".getBytes(StandardCharsets.UTF_8), this::upload, s3FilePath -> null);
+
+        assertThat(uploads.get()).isEqualTo(2);
+        assertThat(uploadDeduplicator.getSkippedUploadCount()).isZero();
+    }
+
+    @Test
+    void matchingETagOfTheStoredObjectSkipsTheUpload() {
+        UploadDeduplicator uploadDeduplicator = new UploadDeduplicator(clock, true, Duration.ofMinutes(10), 100);
+        String eTag = "\"" + UploadDeduplicator.digest(CONTENT) + "\"";
+
+        assertThat(uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, CONTENT, this::upload, s3FilePath -> eTag)).isTrue();
+
+        assertThat(uploads.get()).isZero();
+        assertThat(uploadDeduplicator.getRemoteCheckCount()).isEqualTo(1);
+    }
+
+    @Test
+    void multipartETagOfTheStoredObjectIsNotTakenForADigest() {
+        UploadDeduplicator uploadDeduplicator = new UploadDeduplicator(clock, true, Duration.ofMinutes(10), 100);
+        String eTag = "\"" + UploadDeduplicator.digest(CONTENT) + "-2\"";
+
+        assertThat(uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, CONTENT, this::upload, s3FilePath -> eTag)).isTrue();
+
+        assertThat(uploads.get()).isEqualTo(1);
+    }
+
+    @Test
+    void streamedContentIsDigestedWhileItIsUploaded() {
+        UploadDeduplicator uploadDeduplicator = new UploadDeduplicator(clock, false, Duration.ofMinutes(10), 100);
+
+        assertThat(uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, new ByteArrayInputStream(CONTENT), this::uploadStream)).isTrue();
+        assertThat(uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, CONTENT, this::upload, s3FilePath -> null)).isTrue();
+
+        assertThat(uploads.get()).isEqualTo(1);
+        assertThat(uploadDeduplicator.getSkippedUploadCount()).isEqualTo(1);
+    }
+
+    @Test
+    void streamedContentReplacesTheIndexedDigest() {
+        UploadDeduplicator uploadDeduplicator = new UploadDeduplicator(clock, false, Duration.ofMinutes(10), 100);
+
+        uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, CONTENT, this::upload, s3FilePath -> null);
+        uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, new ByteArrayInputStream("1,efgh".getBytes(StandardCharsets.UTF_8)), this::uploadStream);
+        uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, CONTENT, this::upload, s3FilePath -> null);
+
+        assertThat(uploads.get()).isEqualTo(3);
+    }
+
+    @Test
+    void failedUploadIsNotIndexed() {
+        UploadDeduplicator uploadDeduplicator = new UploadDeduplicator(clock, false, Duration.ofMinutes(10), 100);
+
+        assertThat(uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, CONTENT, () -> false, s3FilePath -> null)).isFalse();
+        assertThat(uploadDeduplicator.uploadIfChanged(S3_FILE_PATH, CONTENT, this::upload, s3FilePath -> null)).isTrue();
+
+        assertThat(uploads.get()).isEqualTo(1);
+    }
+
+    private boolean upload() {
+        uploads.incrementAndGet();
+        return true;
+    }
+
+    private boolean uploadStream(InputStream content) {
+        try {
+            content.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return upload();
+    }
+}
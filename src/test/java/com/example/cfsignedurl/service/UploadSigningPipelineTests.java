@@ -0,0 +1,163 @@
+package com.example.cfsignedurl.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.context.WebServerGracefulShutdownLifecycle;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UploadSigningPipelineTests {
+
+    private static final String S3_FILE_PATH = "testfolder/sample-file-1.csv";
+    private static final String SIGNED_URL = "https://abcd.cloudfront.net/testfolder/sample-file-1.csv?Signature=x";
+
+    private final UploadSigningPipeline uploadSigningPipeline = new UploadSigningPipeline();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void shutdownPipeline() {
+        ReflectionTestUtils.invokeMethod(uploadSigningPipeline, "shutdownExecutors");
+    }
+
+    @Test
+    void pipelinedModeSignsWhileUploading() throws Exception {
+        createPipeline("pipelined");
+        CountDownLatch signed = new CountDownLatch(1);
+
+        String signedUrl = uploadSigningPipeline.uploadAndSign(S3_FILE_PATH,
+                () -> awaitQuietly(signed),
+                () -> {
+                    signed.countDown();
+                    return SIGNED_URL;
+                });
+
+        assertThat(signedUrl).isEqualTo(SIGNED_URL);
+    }
+
+    @Test
+    void pipelinedModeDiscardsTheSignatureOfAFailedUpload() {
+        createPipeline("pipelined");
+
+        assertThat(uploadSigningPipeline.uploadAndSign(S3_FILE_PATH, () -> false, () -> SIGNED_URL)).isNull();
+    }
+
+    @Test
+    void writeBehindModeRetriesTheUploadUntilItSucceeds() throws Exception {
+        createPipeline("write-behind");
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch uploaded = new CountDownLatch(1);
+
+        String signedUrl = uploadSigningPipeline.uploadAndSign(S3_FILE_PATH,
+                () -> {
+                    if (attempts.incrementAndGet() < 3) {
+                        return false;
+                    }
+                    uploaded.countDown();
+                    return true;
+                },
+                () -> SIGNED_URL);
+
+        assertThat(signedUrl).isEqualTo(SIGNED_URL);
+        assertThat(uploaded.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    @Test
+    void writeBehindModeKeepsRetryingAFailingUploadUntilItSucceeds() throws Exception {
+        createPipeline("write-behind");
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch uploaded = new CountDownLatch(1);
+
+        uploadSigningPipeline.uploadAndSign(S3_FILE_PATH,
+                () -> {
+                    if (attempts.incrementAndGet() < 20) {
+                        return false;
+                    }
+                    uploaded.countDown();
+                    return true;
+                },
+                () -> SIGNED_URL);
+
+        assertThat(meterRegistry.get("cfsignedurl.upload.write-behind.pending").gauge().value()).isEqualTo(1);
+        assertThat(uploaded.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(attempts.get()).isEqualTo(20);
+        assertThat(uploadSigningPipeline.getDroppedUploads()).isZero();
+    }
+
+    @Test
+    void stoppingTheLifecycleRetriesUntilTheShutdownTimeoutAndCountsTheDroppedUploads() {
+        createPipeline("write-behind");
+        AtomicInteger attempts = new AtomicInteger();
+
+        uploadSigningPipeline.uploadAndSign(S3_FILE_PATH,
+                () -> {
+                    attempts.incrementAndGet();
+                    return false;
+                },
+                () -> SIGNED_URL);
+        uploadSigningPipeline.stop();
+
+        assertThat(attempts.get()).isGreaterThan(1);
+        assertThat(uploadSigningPipeline.getPendingUploads()).isZero();
+        assertThat(meterRegistry.get("cfsignedurl.upload.write-behind.dropped").functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("cfsignedurl.upload.write-behind.pending").gauge().value()).isZero();
+    }
+
+    @Test
+    void stoppingTheLifecycleDrainsPendingWriteBehindUploads() {
+        createPipeline("write-behind");
+        AtomicInteger uploads = new AtomicInteger();
+
+        uploadSigningPipeline.uploadAndSign(S3_FILE_PATH,
+                () -> {
+                    sleepQuietly(Duration.ofMillis(200));
+                    uploads.incrementAndGet();
+                    return true;
+                },
+                () -> SIGNED_URL);
+        uploadSigningPipeline.stop();
+
+        assertThat(uploads.get()).isEqualTo(1);
+        assertThat(uploadSigningPipeline.getPendingUploads()).isZero();
+        // the S3 clients are only destroyed once every lifecycle stopped
+        assertThat(uploadSigningPipeline.getPhase()).isLessThan(WebServerGracefulShutdownLifecycle.SMART_LIFECYCLE_PHASE);
+    }
+
+    private void createPipeline(String mode) {
+        ReflectionTestUtils.setField(uploadSigningPipeline, "mode", mode);
+        ReflectionTestUtils.setField(uploadSigningPipeline, "signingThreads", 2);
+        ReflectionTestUtils.setField(uploadSigningPipeline, "writeBehindThreads", 1);
+        ReflectionTestUtils.setField(uploadSigningPipeline, "initialBackoff", Duration.ofMillis(10));
+        ReflectionTestUtils.setField(uploadSigningPipeline, "maxBackoff", Duration.ofMillis(50));
+        ReflectionTestUtils.setField(uploadSigningPipeline, "maxPending", 10);
+        ReflectionTestUtils.setField(uploadSigningPipeline, "shutdownTimeout", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(uploadSigningPipeline, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.invokeMethod(uploadSigningPipeline, "createExecutors");
+    }
+
+    private static void sleepQuietly(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean awaitQuietly(CountDownLatch latch) {
+        try {
+            // the upload only completes once the URL was signed concurrently
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
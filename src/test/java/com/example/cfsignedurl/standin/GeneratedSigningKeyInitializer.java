@@ -0,0 +1,24 @@
+package com.example.cfsignedurl.standin;
+
+import com.example.cfsignedurl.TestFixtures;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Map;
+
+/**
+ * Supplies a freshly generated CloudFront signing key in place of the one imported from AWS Parameter Store,
+ * so the application starts without AWS access. URLs signed with it are well formed but CloudFront rejects them.
+ */
+public class GeneratedSigningKeyInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+    public static final String KEY_PAIR_ID = "K-STAND-IN";
+
+    @Override
+    public void initialize(ConfigurableApplicationContext applicationContext) {
+        applicationContext.getEnvironment().getPropertySources().addLast(new MapPropertySource("generatedSigningKey", Map.of(
+                "aws.s3.object.cloudfront.private.sign.key", TestFixtures.privateKeyPem(TestFixtures.generateRsaKeyPair().getPrivate()),
+                "cloudfront.distribution.keypair.id", KEY_PAIR_ID)));
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.cfsignedurl.standin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process HTTP stand-in of the S3 API calls the application makes, for tests and load tests
+ * without an AWS account.
+ *
+ * Supports path style PutObject, HeadObject, DeleteObject and the multipart upload calls. Only the MD5 ETag
+ * of an object is kept, not its content, so long load tests don't fill the heap. Every request is delayed by
+ * the configured latency plus a random jitter, and fails with a 503 SlowDown error at the configured rate.
+ * Uploads of the objects passed to denyUploads fail with a 403 AccessDenied error, uploads of the objects passed
+ * to throttleUploads with a 503 SlowDown error.
+ */
+public class S3StandIn {
+
+    private final Duration latency;
+
+    private final Duration latencyJitter;
+
+    /**
+     * fraction of requests failing with 503 SlowDown, between 0 and 1
+     */
+    private final double errorRate;
+
+    private HttpServer httpServer;
+
+    private ExecutorService requestExecutor;
+
+    /**
+     * ETag of every stored object and part by "bucket/key" (parts by "bucket/key?uploadId&partNumber")
+     */
+    private final Map<String, String> eTags = new ConcurrentHashMap<>();
+
+    /**
+     * "bucket/key" of the objects whose uploads are denied
+     */
+    private final Set<String> deniedUploads = ConcurrentHashMap.newKeySet();
+
+    /**
+     * "bucket/key" of the objects whose uploads are throttled
+     */
+    private final Set<String> throttledUploads = ConcurrentHashMap.newKeySet();
+
+    /**
+     * PutObject requests received by "bucket/key", including the failed ones
+     */
+    private final Map<String, AtomicLong> putRequests = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    private static final Logger logger = LoggerFactory.getLogger(S3StandIn.class);
+
+    public S3StandIn(Duration latency, Duration latencyJitter, double errorRate) {
+        this.latency = latency;
+        this.latencyJitter = latencyJitter;
+        this.errorRate = errorRate;
+    }
+
+    public void start() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // requests sleep through the injected latency, so every request gets its own thread
+        requestExecutor = Executors.newCachedThreadPool();
+        httpServer.setExecutor(requestExecutor);
+        httpServer.createContext("/", this::handle);
+        httpServer.start();
+        logger.info("S3 stand-in listening on {} with {} latency, {} jitter and {} error rate", getEndpoint(), latency, latencyJitter, errorRate);
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+        requestExecutor.shutdownNow();
+    }
+
+    public URI getEndpoint() {
+        return URI.create("http://" + httpServer.getAddress().getHostString() + ":" + httpServer.getAddress().getPort());
+    }
+
+    public boolean containsObject(String s3Bucket, String s3FilePath) {
+        return eTags.containsKey(s3Bucket + "/" + s3FilePath);
+    }
+
+    /**
+     * Answer the uploads of the given object with 403 AccessDenied, a failure the clients don't retry
+     */
+    public void denyUploads(String s3Bucket, String s3FilePath) {
+        deniedUploads.add(s3Bucket + "/" + s3FilePath);
+    }
+
+    /**
+     * Answer the uploads of the given object with 503 SlowDown, a failure the clients retry
+     */
+    public void throttleUploads(String s3Bucket, String s3FilePath) {
+        throttledUploads.add(s3Bucket + "/" + s3FilePath);
+    }
+
+    public long getPutRequests(String s3Bucket, String s3FilePath) {
+        AtomicLong objectPutRequests = putRequests.get(s3Bucket + "/" + s3FilePath);
+        return objectPutRequests != null ? objectPutRequests.get() : 0;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            delay();
+            // read the body before failing, the clients wait for the whole request to be consumed
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (isAwsChunked(exchange)) {
+                body = decodeAwsChunked(body);
+            }
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                injectedErrors.incrementAndGet();
+                sendError(exchange, 503, "SlowDown", "Please reduce your request rate.");
+                return;
+            }
+            route(exchange, body);
+        } catch (RuntimeException e) {
+            logger.error("S3 stand-in failed to handle {} {}. ERROR: {}", exchange.getRequestMethod(), exchange.getRequestURI(), e.getMessage());
+            sendError(exchange, 500, "InternalError", e.getMessage());
+        }
+    }
+
+    private void route(HttpExchange exchange, byte[] body) throws IOException {
+        String objectKey = exchange.getRequestURI().getPath().substring(1);
+        Map<String, String> query = queryParameters(exchange.getRequestURI().getRawQuery());
+        switch (exchange.getRequestMethod()) {
+            case "PUT" -> {
+                if (!query.containsKey("uploadId")) {
+                    putRequests.computeIfAbsent(objectKey, key -> new AtomicLong()).incrementAndGet();
+                }
+                if (deniedUploads.contains(objectKey)) {
+                    sendError(exchange, 403, "AccessDenied", "Access Denied");
+                    return;
+                }
+                if (throttledUploads.contains(objectKey)) {
+                    sendError(exchange, 503, "SlowDown", "Please reduce your request rate.");
+                    return;
+                }
+                String partKey = query.containsKey("uploadId") ? objectKey + "?" + query.get("uploadId") + "&" + query.get("partNumber") : objectKey;
+                bytesReceived.addAndGet(body.length);
+                String eTag = md5(body);
+                eTags.put(partKey, eTag);
+                exchange.getResponseHeaders().set("ETag", "\"" + eTag + "\"");
+                exchange.sendResponseHeaders(200, -1);
+            }
+            case "POST" -> {
+                if (query.containsKey("uploads")) {
+                    sendXml(exchange, 200, "<InitiateMultipartUploadResult><Bucket>" + bucketOf(objectKey) + "</Bucket><Key>" + keyOf(objectKey)
+                            + "</Key><UploadId>" + UUID.randomUUID() + "</UploadId></InitiateMultipartUploadResult>");
+                } else {
+                    String eTag = md5(body) + "-multipart";
+                    eTags.put(objectKey, eTag);
+                    sendXml(exchange, 200, "<CompleteMultipartUploadResult><Bucket>" + bucketOf(objectKey) + "</Bucket><Key>" + keyOf(objectKey)
+                            + "</Key><ETag>\"" + eTag + "\"</ETag></CompleteMultipartUploadResult>");
+                }
+            }
+            case "HEAD" -> {
+                String eTag = eTags.get(objectKey);
+                if (eTag == null) {
+                    sendError(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+                    return;
+                }
+                exchange.getResponseHeaders().set("ETag", "\"" + eTag + "\"");
+                exchange.sendResponseHeaders(200, -1);
+            }
+            case "DELETE" -> {
+                if (!query.containsKey("uploadId")) {
+                    eTags.remove(objectKey);
+                }
+                exchange.sendResponseHeaders(204, -1);
+            }
+            default -> sendError(exchange, 405, "MethodNotAllowed", "The specified method is not allowed against this resource.");
+        }
+    }
+
+    private void delay() {
+        long delayNanos = latency.toNanos();
+        if (!latencyJitter.isZero()) {
+            delayNanos += ThreadLocalRandom.current().nextLong(latencyJitter.toNanos());
+        }
+        if (delayNanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delayNanos / 1_000_000, (int) (delayNanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int statusCode, String errorCode, String message) throws IOException {
+        sendXml(exchange, statusCode, "<Error><Code>" + errorCode + "</Code><Message>" + message + "</Message><RequestId>stand-in</RequestId></Error>");
+    }
+
+    private static void sendXml(HttpExchange exchange, int statusCode, String xml) throws IOException {
+        byte[] response = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(statusCode, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(statusCode, response.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(response);
+        }
+    }
+
+    private static Map<String, String> queryParameters(String rawQuery) {
+        Map<String, String> parameters = new ConcurrentHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            parameters.put(separator < 0 ? parameter : parameter.substring(0, separator), separator < 0 ? "" : parameter.substring(separator + 1));
+        }
+        return parameters;
+    }
+
+    /**
+     * the SDKs sign the payload in chunks when the endpoint is plain HTTP
+     */
+    private static boolean isAwsChunked(HttpExchange exchange) {
+        String contentSha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        return contentSha256 != null && contentSha256.startsWith("STREAMING-");
+    }
+
+    /**
+     * strip the "size;chunk-signature=...\r\n" chunk headers, up to the final zero sized chunk
+     */
+    private static byte[] decodeAwsChunked(byte[] body) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(body.length);
+        int position = 0;
+        while (position < body.length) {
+            int headerEnd = indexOfLineEnd(body, position);
+            String header = new String(body, position, headerEnd - position, StandardCharsets.US_ASCII);
+            int extensionStart = header.indexOf(';');
+            int chunkSize = Integer.parseInt(extensionStart < 0 ? header.trim() : header.substring(0, extensionStart).trim(), 16);
+            if (chunkSize == 0) {
+                break;
+            }
+            content.write(body, headerEnd + 2, chunkSize);
+            position = headerEnd + 2 + chunkSize + 2;
+        }
+        return content.toByteArray();
+    }
+
+    private static int indexOfLineEnd(byte[] body, int from) {
+        for (int i = from; i < body.length - 1; i++) {
+            if (body[i] == '\r' && body[i + 1] == '\n') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Malformed aws-chunked content");
+    }
+
+    private static String bucketOf(String objectKey) {
+        return objectKey.substring(0, objectKey.indexOf('/'));
+    }
+
+    private static String keyOf(String objectKey) {
+        return objectKey.substring(objectKey.indexOf('/') + 1);
+    }
+
+    /**
+     * the SDKs compare the ETag of a PutObject response with the MD5 of the content they sent
+     */
+    private static String md5(byte[] body) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.cfsignedurl.standin;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.example.cfsignedurl.config.S3ConnectionPoolMetrics;
+import com.example.cfsignedurl.config.S3HttpClientProperties;
+import com.example.cfsignedurl.config.S3HttpClients;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Profile;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Replaces the S3 clients of BeanConfigs with clients of an in-process S3StandIn when the
+ * s3-stand-in profile is active. The clients use the same HTTP client settings as the deployed ones.
+ */
+@TestConfiguration
+@Profile(S3StandInConfigs.PROFILE)
+public class S3StandInConfigs {
+
+    public static final String PROFILE = "s3-stand-in";
+
+    private static final String REGION = "us-east-1";
+
+    @Value("${s3.stand-in.latency:PT0S}")
+    private Duration latency;
+
+    @Value("${s3.stand-in.latency-jitter:PT0S}")
+    private Duration latencyJitter;
+
+    /**
+     * fraction of S3 requests failing with 503 SlowDown, between 0 and 1
+     */
+    @Value("${s3.stand-in.error-rate:0}")
+    private double errorRate;
+
+    @Bean(destroyMethod = "stop")
+    public S3StandIn s3StandIn() throws IOException {
+        S3StandIn s3StandIn = new S3StandIn(latency, latencyJitter, errorRate);
+        s3StandIn.start();
+        return s3StandIn;
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "s3.sdk-v1.enabled", havingValue = "true", matchIfMissing = true)
+    public AmazonS3 amazonS3(S3StandIn s3StandIn, S3HttpClientProperties httpClientProperties, S3ConnectionPoolMetrics connectionPoolMetrics) {
+        return AmazonS3ClientBuilder.standard()
+                .withClientConfiguration(S3HttpClients.clientConfiguration(httpClientProperties))
+                .withMetricsCollector(connectionPoolMetrics.requestMetricCollector("amazonS3", httpClientProperties.getMaxConnections()))
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(s3StandIn.getEndpoint().toString(), REGION))
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("stand-in", "stand-in")))
+                .withPathStyleAccessEnabled(true)
+                // plain HTTP would otherwise be sent as aws-chunked encoded content
+                .disableChunkedEncoding()
+                .build();
+    }
+
+    @Bean
+    public S3Client s3Client(S3StandIn s3StandIn, S3HttpClientProperties httpClientProperties, S3ConnectionPoolMetrics connectionPoolMetrics) {
+        return S3Client.builder()
+                .httpClient(S3HttpClients.syncHttpClient(httpClientProperties))
+                .overrideConfiguration(S3HttpClients.overrideConfiguration(httpClientProperties, connectionPoolMetrics.metricPublisher("s3Client")))
+                .endpointOverride(s3StandIn.getEndpoint())
+                .region(Region.of(REGION))
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("stand-in", "stand-in")))
+                .forcePathStyle(true)
+                .build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "s3.sdk-v2-async.enabled", havingValue = "true", matchIfMissing = true)
+    public S3AsyncClient s3AsyncClient(S3StandIn s3StandIn, S3HttpClientProperties httpClientProperties, S3ConnectionPoolMetrics connectionPoolMetrics) {
+        return S3AsyncClient.builder()
+                .httpClient(S3HttpClients.asyncHttpClient(httpClientProperties))
+                .overrideConfiguration(S3HttpClients.overrideConfiguration(httpClientProperties, connectionPoolMetrics.metricPublisher("s3AsyncClient")))
+                .endpointOverride(s3StandIn.getEndpoint())
+                .region(Region.of(REGION))
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("stand-in", "stand-in")))
+                .forcePathStyle(true)
+                .build();
+    }
+}
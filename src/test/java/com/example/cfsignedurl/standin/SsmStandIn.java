@@ -0,0 +1,96 @@
+package com.example.cfsignedurl.standin;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-process HTTP stand-in of the AWS Parameter Store calls the application makes, for tests without an AWS account.
+ *
+ * Supports GetParametersByPath, used by spring.config.import=aws-parameterstore:, and GetParameter, used by
+ * the key rotation of CloudFrontKeyRing. Parameters are returned as stored, there is no encryption.
+ */
+public class SsmStandIn {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, String> parameters = new ConcurrentSkipListMap<>();
+
+    private HttpServer httpServer;
+
+    public void start() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        httpServer.createContext("/", this::handle);
+        httpServer.start();
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+    }
+
+    public URI getEndpoint() {
+        return URI.create("http://" + httpServer.getAddress().getHostString() + ":" + httpServer.getAddress().getPort());
+    }
+
+    public void putParameter(String name, String value) {
+        parameters.put(name, value);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+            ObjectNode response = objectMapper.createObjectNode();
+            if ("AmazonSSM.GetParametersByPath".equals(target)) {
+                // one page with the parameters directly under the path, as requested by spring cloud aws
+                String path = request.path("Path").asText();
+                ArrayNode found = response.putArray("Parameters");
+                parameters.forEach((name, value) -> {
+                    if (name.startsWith(path) && name.indexOf('/', path.length()) < 0) {
+                        found.add(parameter(name, value));
+                    }
+                });
+            } else if ("AmazonSSM.GetParameter".equals(target)) {
+                String name = request.path("Name").asText();
+                String value = parameters.get(name);
+                if (value == null) {
+                    respond(exchange, 400, objectMapper.createObjectNode().put("__type", "ParameterNotFound"));
+                    return;
+                }
+                response.set("Parameter", parameter(name, value));
+            } else {
+                respond(exchange, 400, objectMapper.createObjectNode().put("__type", "InvalidAction").put("message", target));
+                return;
+            }
+            respond(exchange, 200, response);
+        }
+    }
+
+    private static ObjectNode parameter(String name, String value) {
+        return objectMapper.createObjectNode()
+                .put("Name", name)
+                .put("Type", "SecureString")
+                .put("Value", value)
+                .put("Version", 1);
+    }
+
+    private static void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] content = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/x-amz-json-1.1");
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(content);
+        }
+    }
+}